@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that generating words through a WordCursor allocates nothing. Words
+ * are generated into a StringBuilder, a char array and a CharBuffer, and the
+ * bytes allocated by the thread meanwhile are read from its ThreadMXBean. The
+ * first rounds warm up the JIT, and only the last one is checked. The exit
+ * status is 1 if any bytes were allocated in it, so the check can be run as a
+ * step of a build.
+ *
+ * Usage: java AllocationCheck [in=filename] [level=n] [min=n] [max=n] [words=n]
+ * Without an input file, a synthetic input is used.
+ */
+public class AllocationCheck {
+
+	/**
+	 * The amount of rounds run before the one that is checked.
+	 */
+	private static final int WARMUP_ROUNDS = 3;
+
+	private static final String[] PATHS = { "StringBuilder", "char[]", "CharBuffer" };
+
+	public static void main(String[] args) throws IOException {
+		String inputFile = null;
+		int level = 4;
+		int minLength = 4;
+		int maxLength = 10;
+		int words = 1000000;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=")) {
+				inputFile = args[i].substring(3);
+			} else if(args[i].startsWith("level=")) {
+				level = Integer.parseInt(args[i].substring(6));
+			} else if(args[i].startsWith("min=")) {
+				minLength = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("max=")) {
+				maxLength = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("words=")) {
+				words = Integer.parseInt(args[i].substring(6));
+			}
+		}
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemoryEnabled()) {
+			System.out.println("The allocated bytes of a thread can't be measured on this JVM");
+			System.exit(2);
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+		long thread = Thread.currentThread().getId();
+
+		WordGenerator generator;
+		if(inputFile != null) {
+			Corpus corpus = new CorpusReader("#", true).read(CorpusReader.expand(inputFile), null);
+			generator = new WordGenerator(corpus.train(level, null, null), corpus.getAlphabet());
+		} else {
+			generator = new WordGenerator(syntheticInput(1000000), level, Collections.singletonList("\n"));
+		}
+		WordCursor cursor = generator.newCursor(false, minLength, maxLength);
+		String[] seeds = { "\n", " ", "\n", "\n" };
+		StringBuilder builder = new StringBuilder(cursor.getMaxChars());
+		char[] chars = new char[cursor.getMaxChars()];
+		CharBuffer buffer = CharBuffer.allocate(cursor.getMaxChars());
+		SplittableRandom random = new SplittableRandom(1);
+
+		long[] allocated = new long[PATHS.length];
+		long letters = 0;
+		for(int round = 0; round <= WARMUP_ROUNDS; round++) {
+			for(int path = 0; path < PATHS.length; path++) {
+				long before = allocation.getThreadAllocatedBytes(thread);
+				for(int i = 0; i < words; i++) {
+					cursor.setSeed(seeds[i & 3]);
+					int length;
+					if(path == 0) {
+						builder.setLength(0);
+						length = cursor.generateWord(builder, random);
+					} else if(path == 1) {
+						length = cursor.generateWord(chars, 0, random);
+					} else {
+						buffer.clear();
+						length = cursor.generateWord(buffer, random);
+					}
+					letters += Math.max(0, length);
+				}
+				allocated[path] = allocation.getThreadAllocatedBytes(thread) - before;
+			}
+		}
+
+		boolean failed = false;
+		for(int path = 0; path < PATHS.length; path++) {
+			System.out.println(PATHS[path] + ": " + allocated[path] + " bytes allocated for " + words + " words");
+			failed |= allocated[path] != 0;
+		}
+		System.out.println(letters + " characters generated.");
+		if(failed) {
+			System.out.println("FAILED: generating through a WordCursor allocated memory");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns an input of random words drawn from a fixed alphabet, separated by
+	 * line feeds.
+	 */
+	private static List syntheticInput(int size) {
+		String[] letters = (String[])MarkovChain.stringToList("abcdefghijklmnopqrstuvwxyz\n").toArray(new String[0]);
+		Random random = new Random(1);
+		List input = new ArrayList(size);
+		input.add("\n");
+		for(int i = 1; i < size; i++) {
+			// Vowels and line feeds are made more common, like in real text.
+			int letter = random.nextInt(letters.length + 8);
+			if(letter >= letters.length) {
+				letter = (letter - letters.length) % 2 == 0 ? "aeiou".charAt(letter % 5) - 'a' : letters.length - 1;
+			}
+			input.add(letters[letter]);
+		}
+		input.add("\n");
+		return input;
+	}
+}
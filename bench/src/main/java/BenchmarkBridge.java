@@ -0,0 +1,92 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import genr8.bench.Workload;
+
+/**
+ * Gives the benchmarks in genr8.bench access to the generator classes in the
+ * default package. See Workload.
+ */
+public class BenchmarkBridge implements Workload {
+
+	/**
+	 * The amount of seeds prepared, cycled through by the benchmarks.
+	 */
+	private static final int SEEDS = 1024;
+
+	private List input;
+	private int level;
+	private MarkovChain chain;
+	private WordGenerator generator;
+	private List[] contexts;
+	private String[] separatorSeeds;
+	private WordCursor cursor;
+	private char[] buffer;
+	private SplittableRandom random = new SplittableRandom();
+
+	public void setUp(String text, int level) {
+		this.level = level;
+		input = MarkovChain.stringToList(text);
+		List whitespaces = new ArrayList();
+		for(int i = 0; i < input.size(); i++) {
+			if(" ".equals(input.get(i)) || "\n".equals(input.get(i))) {
+				whitespaces.add(input.get(i));
+			}
+		}
+		chain = new MarkovChain(input, level);
+		generator = new WordGenerator(chain, whitespaces);
+
+		// Contexts of the input and separators to seed words with, spread
+		// evenly over the input.
+		contexts = new List[SEEDS];
+		separatorSeeds = new String[SEEDS];
+		int step = Math.max(1, (input.size() - level - 1) / SEEDS);
+		for(int i = 0; i < SEEDS; i++) {
+			int start = Math.min(i * step, input.size() - level - 1);
+			contexts[i] = new ArrayList(input.subList(start, start + level));
+			separatorSeeds[i] = (String)whitespaces.get((i * 7919) % whitespaces.size());
+		}
+	}
+
+	public Object train() {
+		return new MarkovChain(input, level);
+	}
+
+	public Object trainParallel(ForkJoinPool pool) {
+		return new MarkovChain(input, level, pool);
+	}
+
+	public Object predictNext(int i) {
+		return chain.predictNext(contexts[i & (SEEDS - 1)]);
+	}
+
+	public Object generateWord(int i) {
+		return generator.generateWord(separatorSeeds[i & (SEEDS - 1)], false);
+	}
+
+	public Object generateWord(int i, int minLength, int maxLength) {
+		return generator.generateWord(separatorSeeds[i & (SEEDS - 1)], false, minLength, maxLength);
+	}
+
+	public int generateWordInto(int i, int minLength, int maxLength) {
+		if(cursor == null) {
+			cursor = generator.newCursor(false, minLength, maxLength);
+			buffer = new char[cursor.getMaxChars()];
+		}
+		cursor.setSeed(separatorSeeds[i & (SEEDS - 1)]);
+		return cursor.generateWord(buffer, 0, random);
+	}
+
+	public Object pipeline(File inputFile, int level, int words, int minLength, int maxLength)
+			throws IOException {
+		Corpus corpus = new CorpusReader("#", true).read(Collections.singletonList(inputFile), null);
+		WordGenerator pipelineGenerator = new WordGenerator(corpus.train(level, null, null), corpus.getAlphabet());
+		return pipelineGenerator.generate(words, 1L, minLength, maxLength);
+	}
+}
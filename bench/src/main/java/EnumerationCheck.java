@@ -0,0 +1,122 @@
+import java.io.IOException;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that the most probable words listed by a WordEnumerator are each
+ * listed once, most probable first. Words are listed both with and without
+ * their ending whitespace, from an input where words end with line feeds as
+ * well as spaces, so that a word without whitespace can end in more than one
+ * way. The exit status is 1 if a word is listed twice or after a less
+ * probable one.
+ *
+ * Usage: java EnumerationCheck [in=filename] [level=n] [min=n] [max=n] [words=n]
+ * Without an input file, a synthetic input is used.
+ */
+public class EnumerationCheck {
+
+	/**
+	 * How much more probable than the word before it a word may be. The ranks
+	 * of the search multiply the same probabilities in another order than the
+	 * probabilities of the words, so equally probable words may differ in
+	 * their last bits.
+	 */
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) throws IOException {
+		String inputFile = null;
+		int level = 3;
+		int minLength = 3;
+		int maxLength = 8;
+		int words = 2000;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=")) {
+				inputFile = args[i].substring(3);
+			} else if(args[i].startsWith("level=")) {
+				level = Integer.parseInt(args[i].substring(6));
+			} else if(args[i].startsWith("min=")) {
+				minLength = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("max=")) {
+				maxLength = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("words=")) {
+				words = Integer.parseInt(args[i].substring(6));
+			}
+		}
+
+		WordGenerator generator;
+		if(inputFile != null) {
+			Corpus corpus = new CorpusReader("#", true).read(CorpusReader.expand(inputFile), null);
+			generator = new WordGenerator(corpus.train(level, null, null), corpus.getAlphabet());
+		} else {
+			generator = new WordGenerator(syntheticInput(200000), level, Arrays.asList(new String[] { "\n", " " }));
+		}
+
+		boolean failed = false;
+		for(int whitespace = 0; whitespace < 2; whitespace++) {
+			String difference = check(generator.enumerate("\n", whitespace == 1, minLength, maxLength, words));
+			String mode = whitespace == 1 ? "with whitespace" : "without whitespace";
+			if(difference != null) {
+				System.out.println("FAILED " + mode + ": " + difference);
+				failed = true;
+			} else {
+				System.out.println("Listed words " + mode + " are unique and most probable first.");
+			}
+		}
+		if(failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns how the listed words are wrong, or null if they are unique and in
+	 * descending order of probability.
+	 */
+	private static String check(WordEnumerator words) {
+		Set listed = new HashSet();
+		double last = Double.POSITIVE_INFINITY;
+		int count = 0;
+		while(words.hasNext()) {
+			String word = (String)words.next();
+			double probability = words.getProbability();
+			count++;
+			if(!listed.add(word)) {
+				return "word #" + count + " \"" + word + "\" was listed before";
+			}
+			if(probability > last * (1.0 + TOLERANCE)) {
+				return "word #" + count + " \"" + word + "\" has the probability " + probability
+						+ ", more than the " + last + " of the word before it";
+			}
+			last = probability;
+		}
+		return count == 0 ? "no words were listed" : null;
+	}
+
+	/**
+	 * Returns an input of random words drawn from a fixed alphabet, separated by
+	 * spaces and line feeds.
+	 */
+	private static List syntheticInput(int size) {
+		String[] letters = (String[])MarkovChain.stringToList("abcdefghijklmnopqrstuvwxyz").toArray(new String[0]);
+		Random random = new Random(1);
+		List input = new ArrayList(size);
+		input.add("\n");
+		for(int i = 1; i < size; i++) {
+			int letter = random.nextInt(letters.length + 10);
+			if(letter < letters.length) {
+				input.add(letters[letter]);
+			} else if(letter < letters.length + 5) {
+				// Vowels are made more common, like in real text.
+				input.add("aeiou".substring(letter - letters.length, letter - letters.length + 1));
+			} else {
+				input.add(letter % 2 == 0 ? " " : "\n");
+			}
+		}
+		input.add("\n");
+		return input;
+	}
+}
@@ -0,0 +1,102 @@
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to a running GeneratorServer from many threads at once and
+ * reports the throughput and latencies of the requests.
+ *
+ * Usage: java GeneratorLoadTest [url=http://localhost:8080] [clients=n]
+ * [requests=n] [count=n] [level=n] [min=n] [max=n]
+ */
+public class GeneratorLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		String url = "http://localhost:8080";
+		int clients = 16;
+		int requests = 2000;
+		String query = "";
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("url=")) {
+				url = args[i].substring(4);
+			} else if(args[i].startsWith("clients=")) {
+				clients = Integer.parseInt(args[i].substring(8));
+			} else if(args[i].startsWith("requests=")) {
+				requests = Integer.parseInt(args[i].substring(9));
+			} else if(args[i].indexOf('=') > 0) {
+				// count, level, min and max are passed on to the server
+				query += (query.length() == 0 ? "?" : "&") + args[i];
+			}
+		}
+
+		final URL target = new URL(url + "/generate" + query);
+		final long[] latencies = new long[requests];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final int total = requests;
+		Thread[] threads = new Thread[clients];
+		long start = System.nanoTime();
+		for(int i = 0; i < clients; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					int request;
+					while((request = next.getAndIncrement()) < total) {
+						long requestStart = System.nanoTime();
+						if(!send(target)) {
+							failures.incrementAndGet();
+						}
+						latencies[request] = System.nanoTime() - requestStart;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(int i = 0; i < clients; i++) {
+			threads[i].join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		System.out.println("Requests: " + requests + " (" + failures.get() + " failed) from " +
+				clients + " clients to " + target);
+		System.out.println("Requests per second: " + Math.round(requests * 1e9 / elapsed));
+		System.out.println("Latency p50: " + millis(percentile(latencies, 0.50)) + " ms");
+		System.out.println("Latency p99: " + millis(percentile(latencies, 0.99)) + " ms");
+		System.out.println("Latency max: " + millis(latencies[latencies.length - 1]) + " ms");
+	}
+
+	/**
+	 * Sends one request and reads the whole response.
+	 *
+	 * @return true if the request succeeded.
+	 */
+	private static boolean send(URL target) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection)target.openConnection();
+			int status = connection.getResponseCode();
+			InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+			byte[] buffer = new byte[8192];
+			if(in != null) {
+				while(in.read(buffer) != -1) {
+				}
+				in.close();
+			}
+			return status == 200;
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	private static long percentile(long[] sorted, double share) {
+		int index = (int)Math.ceil(share * sorted.length) - 1;
+		return sorted[Math.max(0, index)];
+	}
+
+	private static String millis(long nanos) {
+		return String.valueOf(Math.round(nanos / 1000.0) / 1000.0);
+	}
+}
@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Checks that training in shards gives the same model as training on the whole
+ * input at once. The input files are split into runs of whole files, and each
+ * run is trained by ShardTrainer in a process of its own, all at once. The
+ * partial models are merged, in a shuffled order, by another process, and the
+ * merged model file is compared with the model of a single run on all files:
+ * the elements and their codes, every combination and its follower counts,
+ * the separators and their frequencies, and the words generated from both.
+ * The files differ in the order of their tables, so they aren't compared byte
+ * by byte.
+ *
+ * The exit status is 1 if the models differ.
+ *
+ * Usage: java ShardCheck in=filename [in=filename ...] [shards=n] [level=n]
+ */
+public class ShardCheck {
+
+	/**
+	 * The amount of words generated from each model.
+	 */
+	private static final int WORDS = 10000;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List inputFiles = new ArrayList();
+		int shardCount = 4;
+		int level = 6;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=") && args[i].length() > 3) {
+				inputFiles.add(args[i].substring(3));
+			} else if(args[i].startsWith("shards=")) {
+				shardCount = Integer.parseInt(args[i].substring(7));
+			} else if(args[i].startsWith("level=")) {
+				level = Integer.parseInt(args[i].substring(6));
+			}
+		}
+		List files = new ArrayList();
+		for(int i = 0; i < inputFiles.size(); i++) {
+			files.addAll(CorpusReader.expand((String)inputFiles.get(i)));
+		}
+		if(files.size() < shardCount || shardCount < 1) {
+			System.out.println("Usage: java ShardCheck in=filename [in=filename ...] [shards=n] [level=n]");
+			System.out.println("At least as many input files as shards are needed.");
+			System.exit(2);
+		}
+
+		File directory = File.createTempFile("shardcheck", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			// Each shard is trained in a process of its own.
+			List parts = new ArrayList();
+			Process[] trainers = new Process[shardCount];
+			for(int shard = 0; shard < shardCount; shard++) {
+				File part = new File(directory, "part" + shard);
+				parts.add(part);
+				List command = javaCommand("ShardTrainer");
+				command.add("train");
+				for(int i = shard * files.size() / shardCount; i < (shard + 1) * files.size() / shardCount; i++) {
+					command.add("in=" + ((File)files.get(i)).getPath());
+				}
+				command.add("shard=" + shard + "/" + shardCount);
+				command.add("level=" + level);
+				command.add("comment=#");
+				command.add("out=" + part.getPath());
+				trainers[shard] = new ProcessBuilder(command).inheritIO().start();
+			}
+			for(int shard = 0; shard < shardCount; shard++) {
+				if(trainers[shard].waitFor() != 0) {
+					throw new IllegalStateException("Training shard " + shard + " failed");
+				}
+			}
+			Collections.shuffle(parts, new Random());
+			File merged = new File(directory, "merged.bin");
+			List command = javaCommand("ShardTrainer");
+			command.add("merge");
+			for(int i = 0; i < parts.size(); i++) {
+				command.add("part=" + ((File)parts.get(i)).getPath());
+			}
+			command.add("out=" + merged.getPath());
+			if(new ProcessBuilder(command).inheritIO().start().waitFor() != 0 || !merged.isFile()) {
+				throw new IllegalStateException("Merging the shards failed");
+			}
+
+			// The single run saves and loads its model too, so both are compared
+			// as read from files.
+			File single = new File(directory, "single.bin");
+			Corpus corpus = new CorpusReader("#", true).read(files, null);
+			new WordGenerator(corpus.train(level, null, null), corpus.getAlphabet()).save(single);
+
+			String difference = compare(WordGenerator.load(single, true), WordGenerator.load(merged, true));
+			if(difference != null) {
+				System.out.println("FAILED: the merged model differs from the single run: " + difference);
+				System.exit(1);
+			}
+			System.out.println(shardCount + " shards of " + files.size() + " files merged into the same model as a single run.");
+		} finally {
+			File[] left = directory.listFiles();
+			for(int i = 0; i < left.length; i++) {
+				left[i].delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Returns the command that runs a class of this classpath in a new JVM.
+	 */
+	private static List javaCommand(String mainClass) {
+		List command = new ArrayList();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass);
+		return command;
+	}
+
+	/**
+	 * Returns how two generators differ, or null if they are the same.
+	 */
+	private static String compare(WordGenerator expected, WordGenerator actual) {
+		MarkovChain a = expected.getMarkovChain();
+		MarkovChain b = actual.getMarkovChain();
+		if(a.getLevel() != b.getLevel()) {
+			return "level " + a.getLevel() + " != " + b.getLevel();
+		}
+		if(a.getSymbols().size() != b.getSymbols().size()) {
+			return a.getSymbols().size() + " != " + b.getSymbols().size() + " elements";
+		}
+		for(int i = 0; i < a.getSymbols().size(); i++) {
+			if(!a.getSymbols().symbolAt(i).equals(b.getSymbols().symbolAt(i))) {
+				return "element " + i + " is " + a.getSymbols().symbolAt(i) + " != " + b.getSymbols().symbolAt(i);
+			}
+		}
+		if(a.getNodeCount() != b.getNodeCount() || fingerprint(a) != fingerprint(b)) {
+			return "combinations or follower counts differ";
+		}
+		BitSet separators = expected.getAlphabet().getClass(Alphabet.SEPARATOR);
+		if(!separators.equals(actual.getAlphabet().getClass(Alphabet.SEPARATOR))) {
+			return "separators differ";
+		}
+		for(int code = separators.nextSetBit(0); code >= 0; code = separators.nextSetBit(code + 1)) {
+			if(expected.getAlphabet().getFrequency(code) != actual.getAlphabet().getFrequency(code)) {
+				return "frequency of separator " + code + " differs";
+			}
+		}
+		if(!expected.generate(WORDS, 1L, 4, 10).equals(actual.generate(WORDS, 1L, 4, 10))) {
+			return "generated words differ";
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a hash of every combination of the chain and its follower counts,
+	 * independent of the order of the nodes.
+	 */
+	private static long fingerprint(MarkovChain chain) {
+		long sum = 0;
+		for(int node = 1; node < chain.getNodeCount(); node++) {
+			long hash = 17;
+			for(int n = node; n != 0; n = chain.getParent(n)) {
+				hash = hash * 31 + chain.getNodeSymbol(n);
+			}
+			for(int i = chain.followerStart(node); i < chain.followerEnd(node); i++) {
+				hash = hash * 31 + chain.followerSymbol(i);
+				hash = hash * 31 + chain.followerCount(i);
+			}
+			sum += hash * 0x9e3779b97f4a7c15L;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how training a MarkovChain in parallel scales with the amount of
+ * threads. The chain is trained sequentially and then in pools of 1, 2, 4 ...
+ * threads up to the amount of available processors, and each parallel chain is
+ * checked to be identical to the sequential one. The input is interned into
+ * int codes once, like a Corpus, and only one chain is held at a time. Random
+ * input has about as many combinations as elements, so the default size is
+ * what fits in a default heap of 1.5 GB.
+ *
+ * Usage: java TrainingBenchmark [in=filename] [level=n] [size=n]
+ * Without an input file, a synthetic input of the given size is used.
+ */
+public class TrainingBenchmark {
+
+	/**
+	 * The amount of times each training is repeated; the fastest one is reported.
+	 */
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		String inputFile = null;
+		int level = 5;
+		int size = 5000000;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=")) {
+				inputFile = args[i].substring(3);
+			} else if(args[i].startsWith("level=")) {
+				level = Integer.parseInt(args[i].substring(6));
+			} else if(args[i].startsWith("size=")) {
+				size = Integer.parseInt(args[i].substring(5));
+			}
+		}
+
+		SymbolTable symbols;
+		int[] codes;
+		if(inputFile != null) {
+			Corpus corpus = new CorpusReader(null, false).read(CorpusReader.expand(inputFile), null);
+			symbols = corpus.getSymbols();
+			codes = corpus.getCodes();
+		} else {
+			symbols = new SymbolTable();
+			codes = syntheticInput(size, symbols);
+		}
+		System.out.println("Input: " + codes.length + " elements, level " + level);
+
+		long sequentialTime = Long.MAX_VALUE;
+		MarkovChain sequential = null;
+		for(int round = 0; round < ROUNDS; round++) {
+			// The chain of the last round is dropped first, so only one is held.
+			sequential = null;
+			long start = System.nanoTime();
+			sequential = new MarkovChain(symbols, codes, level, null, null);
+			sequentialTime = Math.min(sequentialTime, System.nanoTime() - start);
+		}
+		long expected = fingerprint(sequential);
+		System.out.println("sequential: " + sequentialTime / 1000000 + " ms, " +
+				sequential.getNodeCount() + " nodes");
+		sequential = null;
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for(int threads = 1; threads <= processors; threads = nextThreads(threads, processors)) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			long time = Long.MAX_VALUE;
+			MarkovChain parallel = null;
+			for(int round = 0; round < ROUNDS; round++) {
+				parallel = null;
+				long start = System.nanoTime();
+				parallel = new MarkovChain(symbols, codes, level, pool, null);
+				time = Math.min(time, System.nanoTime() - start);
+			}
+			pool.shutdown();
+			if(fingerprint(parallel) != expected) {
+				throw new IllegalStateException("Parallel chain differs from sequential chain");
+			}
+			System.out.println(threads + " threads: " + time / 1000000 + " ms, speedup " +
+					(double)Math.round(100.0 * sequentialTime / time) / 100);
+		}
+	}
+
+	private static int nextThreads(int threads, int processors) {
+		if(threads < processors && threads * 2 > processors) {
+			return processors;
+		}
+		return threads * 2;
+	}
+
+	/**
+	 * Returns a hash of every combination of the chain and its follower counts,
+	 * independent of the order the nodes were created in.
+	 */
+	private static long fingerprint(MarkovChain chain) {
+		long sum = 0;
+		for(int node = 1; node < chain.getNodeCount(); node++) {
+			long hash = 17;
+			for(int n = node; n != 0; n = chain.getParent(n)) {
+				hash = hash * 31 + chain.getNodeSymbol(n);
+			}
+			for(int i = chain.followerStart(node); i < chain.followerEnd(node); i++) {
+				hash = hash * 31 + chain.followerSymbol(i);
+				hash = hash * 31 + chain.followerCount(i);
+			}
+			sum += hash * 0x9e3779b97f4a7c15L;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns an input of random words drawn from a fixed alphabet, separated by
+	 * line feeds, as codes of the given table.
+	 */
+	private static int[] syntheticInput(int size, SymbolTable symbols) {
+		List letters = MarkovChain.stringToList("abcdefghijklmnopqrstuvwxyz\n");
+		int[] codes = new int[letters.size()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = symbols.intern(letters.get(i));
+		}
+		Random random = new Random(1);
+		int[] input = new int[size];
+		for(int i = 0; i < size; i++) {
+			// Vowels and line feeds are made more common, like in real text.
+			int letter = random.nextInt(codes.length + 8);
+			if(letter >= codes.length) {
+				letter = (letter - codes.length) % 2 == 0 ? "aeiou".charAt(letter % 5) - 'a' : codes.length - 1;
+			}
+			input[i] = codes[letter];
+		}
+		return input;
+	}
+}
@@ -0,0 +1,77 @@
+package genr8.bench;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks training a MarkovChain (MarkovChain.processChain through its
+ * constructors) and predicting from it, over corpora of several sizes at
+ * levels 1 to 8.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChainBenchmark {
+
+	@Param({Corpora.SYNTHETIC})
+	public String corpus;
+
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+
+	@Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+	public int level;
+
+	private Workload workload;
+	private ForkJoinPool pool;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workload = Workload.create();
+		workload.setUp(Corpora.text(corpus, size), level);
+		pool = new ForkJoinPool();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object train() {
+		return workload.train();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object trainParallel() {
+		return workload.trainParallel(pool);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object predictNext() {
+		return workload.predictNext(next++);
+	}
+}
@@ -0,0 +1,70 @@
+package genr8.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The inputs the benchmarks are run over: either synthetic text, or a real
+ * text file, repeated or cut to the wanted size.
+ */
+final class Corpora {
+
+	/**
+	 * The name of the synthetic corpus. Any other corpus name is a file path.
+	 */
+	static final String SYNTHETIC = "synthetic";
+
+	private Corpora() {
+	}
+
+	/**
+	 * Returns the text of a corpus, in the form WordMain reads it: lower case,
+	 * with single spaces and line feeds between words.
+	 *
+	 * @param corpus SYNTHETIC or the path of a text file.
+	 * @param size the amount of characters wanted.
+	 * @return the text, exactly size characters long and ending with a line feed.
+	 */
+	static String text(String corpus, int size) throws IOException {
+		StringBuilder text = new StringBuilder(size);
+		if(SYNTHETIC.equals(corpus)) {
+			synthetic(text, size);
+		} else {
+			String file = new String(Files.readAllBytes(Paths.get(corpus)), StandardCharsets.UTF_8)
+					.toLowerCase().replaceAll("\r\n?", "\n").replaceAll("[ \t]+", " ").replaceAll("\n+", "\n");
+			if(file.isEmpty()) {
+				throw new IOException("Empty corpus: " + corpus);
+			}
+			while(text.length() < size) {
+				text.append(file, 0, Math.min(file.length(), size - text.length()));
+			}
+		}
+		text.setLength(size - 1);
+		return text.append('\n').toString();
+	}
+
+	/**
+	 * Appends words of alternating consonant and vowel clusters, so that the
+	 * chain gets a realistic amount of contexts at every level.
+	 */
+	private static void synthetic(StringBuilder text, int size) {
+		String[] onsets = {"b", "br", "c", "ch", "d", "f", "g", "gr", "h", "k", "l", "m", "n", "p",
+				"r", "s", "sh", "st", "t", "th", "tr", "v", "w", "z"};
+		String[] vowels = {"a", "e", "i", "o", "u", "ai", "ea", "ou", "y"};
+		Random random = new Random(42);
+		while(text.length() < size) {
+			int syllables = 1 + random.nextInt(4);
+			for(int i = 0; i < syllables; i++) {
+				text.append(onsets[random.nextInt(onsets.length)]);
+				text.append(vowels[random.nextInt(vowels.length)]);
+			}
+			if(random.nextInt(3) == 0) {
+				text.append(onsets[random.nextInt(onsets.length)]);
+			}
+			text.append(random.nextInt(8) == 0 ? '\n' : ' ');
+		}
+	}
+}
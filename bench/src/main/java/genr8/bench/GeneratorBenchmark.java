@@ -0,0 +1,74 @@
+package genr8.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks generating single words with WordGenerator.generateWord, both
+ * freely and within length bounds, over corpora of several sizes at levels 1
+ * to 8. generateWordInto generates within the bounds into a reused buffer
+ * through a WordCursor, and should show close to 0 B/op with -prof gc.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratorBenchmark {
+
+	@Param({Corpora.SYNTHETIC})
+	public String corpus;
+
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+
+	@Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+	public int level;
+
+	@Param({"4"})
+	public int minLength;
+
+	@Param({"10"})
+	public int maxLength;
+
+	private Workload workload;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workload = Workload.create();
+		workload.setUp(Corpora.text(corpus, size), level);
+		// Builds the length tables outside of the measurement.
+		workload.generateWord(0, minLength, maxLength);
+		workload.generateWordInto(0, minLength, maxLength);
+	}
+
+	@Benchmark
+	public Object generateWord() {
+		return workload.generateWord(next++);
+	}
+
+	@Benchmark
+	public Object generateWordBounded() {
+		return workload.generateWord(next++, minLength, maxLength);
+	}
+
+	@Benchmark
+	public int generateWordInto() {
+		return workload.generateWordInto(next++, minLength, maxLength);
+	}
+}
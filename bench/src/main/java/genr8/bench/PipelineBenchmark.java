@@ -0,0 +1,66 @@
+package genr8.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the whole pipeline of WordMain, from reading the input file to
+ * having the generated words, as one run of the tool.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelineBenchmark {
+
+	@Param({Corpora.SYNTHETIC})
+	public String corpus;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"1", "3", "5", "8"})
+	public int level;
+
+	@Param({"10000"})
+	public int words;
+
+	private File input;
+	private Workload workload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		input = File.createTempFile("genr8-bench", ".txt");
+		Files.write(input.toPath(), Corpora.text(corpus, size).getBytes(StandardCharsets.UTF_8));
+		workload = Workload.create();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.delete();
+	}
+
+	@Benchmark
+	public Object pipeline() throws IOException {
+		return workload.pipeline(input, level, words, 4, 10);
+	}
+}
@@ -0,0 +1,72 @@
+package genr8.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The operations of the generator that are benchmarked. The generator classes
+ * live in the default package, which classes in a named package (as JMH
+ * requires benchmarks to be) can't refer to. They are instead reached through
+ * this interface, implemented by BenchmarkBridge in the default package and
+ * loaded by name; see create().
+ */
+public interface Workload {
+
+	/**
+	 * Prepares the input and a trained chain and generator for the other
+	 * operations.
+	 *
+	 * @param text the input, where every character is an element.
+	 * @param level the level of the chain.
+	 */
+	void setUp(String text, int level);
+
+	/**
+	 * Trains a new chain on the input, sequentially.
+	 */
+	Object train();
+
+	/**
+	 * Trains a new chain on the input, in the given pool.
+	 */
+	Object trainParallel(ForkJoinPool pool);
+
+	/**
+	 * Predicts the element following the i:th context of the input.
+	 */
+	Object predictNext(int i);
+
+	/**
+	 * Generates a word without length bounds after the i:th separator seed.
+	 */
+	Object generateWord(int i);
+
+	/**
+	 * Generates a word within the length bounds after the i:th separator seed.
+	 */
+	Object generateWord(int i, int minLength, int maxLength);
+
+	/**
+	 * Generates a word within the length bounds after the i:th separator seed
+	 * into a reused char array, through a WordCursor, and returns its length.
+	 */
+	int generateWordInto(int i, int minLength, int maxLength);
+
+	/**
+	 * Runs the whole pipeline of WordMain: reads the input file, trains a
+	 * generator and generates the words.
+	 */
+	Object pipeline(File input, int level, int words, int minLength, int maxLength) throws IOException;
+
+	/**
+	 * Creates the Workload of the generator classes.
+	 */
+	static Workload create() {
+		try {
+			return (Workload)Class.forName("BenchmarkBridge").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException roe) {
+			throw new IllegalStateException("BenchmarkBridge not found", roe);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The Alphabet interns the symbols of an input once and sorts them into
+ * character classes: separators, which end words, comment characters, and
+ * letters, which is everything else. Each class is a bit set indexed by the
+ * code of the symbol, so telling the class of a symbol takes constant time
+ * however many symbols or separators there are.
+ *
+ * The Alphabet also counts how many times each separator occurs in the input,
+ * which is what words are seeded with.
+ *
+ * The codes are the ones of the underlying SymbolTable, so an Alphabet made
+ * for the symbols of a MarkovChain can be used with the codes of the chain.
+ */
+public class Alphabet {
+
+	public static final int SEPARATOR = 0;
+	public static final int COMMENT = 1;
+	public static final int LETTER = 2;
+
+	/**
+	 * The codes of the symbols.
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * The codes of the symbols of each class, indexed by the class.
+	 */
+	private BitSet[] classes = new BitSet[] { new BitSet(), new BitSet(), new BitSet() };
+
+	/**
+	 * The amount of times each separator occurs, indexed by code.
+	 */
+	private long[] frequencies = new long[16];
+
+	/**
+	 * Constructs a new Alphabet over the symbols of a SymbolTable. Symbols
+	 * already in the table are letters until classified otherwise.
+	 *
+	 * @param symbols the table of symbols, which new symbols are interned into.
+	 */
+	public Alphabet(SymbolTable symbols) {
+		this.symbols = symbols;
+		classes[LETTER].set(0, symbols.size());
+	}
+
+	/**
+	 * Constructs an Alphabet over the symbols of a SymbolTable with separators
+	 * given as a list, one entry per occurrence in the input, as WordGenerator
+	 * used to take them. Separators that aren't in the table are left out.
+	 *
+	 * @param symbols the table of symbols.
+	 * @param separators the separators of the input, which may repeat.
+	 * @return the new Alphabet.
+	 */
+	public static Alphabet of(SymbolTable symbols, List separators) {
+		Alphabet alphabet = new Alphabet(symbols);
+		for(int i = 0; i < separators.size(); i++) {
+			int code = symbols.codeOf(separators.get(i));
+			if(code != SymbolTable.NO_SYMBOL) {
+				alphabet.setClass(code, SEPARATOR);
+				alphabet.addFrequency(code, 1);
+			}
+		}
+		return alphabet;
+	}
+
+	/**
+	 * Returns the code of a symbol, interning it as a letter if it is new.
+	 *
+	 * @param symbol the symbol.
+	 * @return the code of the symbol.
+	 */
+	public int intern(Object symbol) {
+		int size = symbols.size();
+		int code = symbols.intern(symbol);
+		if(code == size) {
+			classes[LETTER].set(code);
+		}
+		return code;
+	}
+
+	/**
+	 * Puts a symbol in a character class, taking it out of its former class.
+	 *
+	 * @param code the code of the symbol.
+	 * @param characterClass SEPARATOR, COMMENT or LETTER.
+	 */
+	public void setClass(int code, int characterClass) {
+		for(int i = 0; i < classes.length; i++) {
+			classes[i].set(code, i == characterClass);
+		}
+	}
+
+	/**
+	 * Puts a symbol in a character class, if the symbol is in the alphabet.
+	 *
+	 * @param symbol the symbol.
+	 * @param characterClass SEPARATOR, COMMENT or LETTER.
+	 * @return true if the symbol is in the alphabet.
+	 */
+	public boolean setClass(Object symbol, int characterClass) {
+		int code = symbols.codeOf(symbol);
+		if(code == SymbolTable.NO_SYMBOL) {
+			return false;
+		}
+		setClass(code, characterClass);
+		return true;
+	}
+
+	/**
+	 * Tells if a symbol is in a character class.
+	 *
+	 * @param code the code of the symbol.
+	 * @param characterClass SEPARATOR, COMMENT or LETTER.
+	 * @return true if the symbol is in the class.
+	 */
+	public boolean is(int code, int characterClass) {
+		return code >= 0 && classes[characterClass].get(code);
+	}
+
+	/**
+	 * Tells if a symbol separates words.
+	 *
+	 * @param code the code of the symbol.
+	 * @return true if the symbol is a separator.
+	 */
+	public boolean isSeparator(int code) {
+		return code >= 0 && classes[SEPARATOR].get(code);
+	}
+
+	/**
+	 * Returns the codes of the symbols of a character class.
+	 *
+	 * @param characterClass SEPARATOR, COMMENT or LETTER.
+	 * @return a copy of the set of codes.
+	 */
+	public BitSet getClass(int characterClass) {
+		return (BitSet)classes[characterClass].clone();
+	}
+
+	/**
+	 * Adds to the amount of times a separator occurs.
+	 *
+	 * @param code the code of the separator.
+	 * @param count the amount to add.
+	 */
+	public void addFrequency(int code, long count) {
+		if(code >= frequencies.length) {
+			long[] grown = new long[Math.max(frequencies.length * 2, code + 1)];
+			System.arraycopy(frequencies, 0, grown, 0, frequencies.length);
+			frequencies = grown;
+		}
+		frequencies[code] += count;
+	}
+
+	/**
+	 * Returns the amount of times a separator occurs.
+	 *
+	 * @param code the code of the separator.
+	 * @return the amount of times, 0 if unknown.
+	 */
+	public long getFrequency(int code) {
+		return code >= 0 && code < frequencies.length ? frequencies[code] : 0;
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	public int size() {
+		return symbols.size();
+	}
+}
@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The BatchRunner runs many GenerationJobs concurrently in one JVM, so that
+ * the JVM is started once for all of them, and jobs with the same input share
+ * its corpus and trained models through JobResources.
+ *
+ * The jobs are read from a manifest of one job per line, with the arguments of
+ * WordMain, such as "in=words.txt out=names.txt cfg=names.cfg". Blank lines
+ * and lines starting with '#' are skipped. Arguments are separated by
+ * whitespace, so file names can't contain any.
+ */
+public class BatchRunner {
+
+	private int threads;
+	private JobResources resources;
+
+	/**
+	 * Constructs a new BatchRunner.
+	 *
+	 * @param threads the most jobs run at once.
+	 * @param resources the resources shared by the jobs.
+	 */
+	public BatchRunner(int threads, JobResources resources) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Thread count below 1 given; incorrect");
+		}
+		this.threads = threads;
+		this.resources = resources;
+	}
+
+	/**
+	 * Reads the jobs of a manifest, and their config files.
+	 *
+	 * @param manifest the name of the manifest.
+	 * @return the jobs, as GenerationJobs in order.
+	 * @throws IOException if the manifest or a config file can't be read.
+	 * @throws IllegalArgumentException if a line of the manifest is incorrect.
+	 */
+	public static List readManifest(String manifest) throws IOException {
+		List jobs = new ArrayList();
+		BufferedReader reader = new BufferedReader(new FileReader(manifest));
+		try {
+			String line;
+			int number = 0;
+			while((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				StringTokenizer tokens = new StringTokenizer(line);
+				String[] args = new String[tokens.countTokens()];
+				for(int i = 0; i < args.length; i++) {
+					args[i] = tokens.nextToken();
+				}
+				GenerationJob job;
+				try {
+					job = GenerationJob.parse(args);
+				} catch (IOException ioe) {
+					throw new IOException("Line " + number + " of " + manifest + ": " + ioe.getMessage(), ioe);
+				} catch (IllegalArgumentException iae) {
+					throw new IllegalArgumentException("Line " + number + " of " + manifest + ": " + iae.getMessage());
+				}
+				// Each job is published through JMX under a name of its own.
+				job.setName("WordMain-" + number);
+				jobs.add(job);
+			}
+		} finally {
+			reader.close();
+		}
+		return jobs;
+	}
+
+	/**
+	 * Runs jobs, and prints the report of each, or its error, as it finishes.
+	 * The messages of a job are kept until it finishes, so that the output of
+	 * jobs isn't mixed.
+	 *
+	 * @param jobs the jobs, as GenerationJobs.
+	 * @param out where the reports are printed.
+	 * @return the amount of jobs that failed.
+	 */
+	public int run(List jobs, final PrintStream out) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(jobs.size(), 1)));
+		List futures = new ArrayList();
+		for(int i = 0; i < jobs.size(); i++) {
+			final GenerationJob job = (GenerationJob)jobs.get(i);
+			futures.add(executor.submit(new Callable() {
+				public Object call() {
+					ByteArrayOutputStream messages = new ByteArrayOutputStream();
+					job.setLog(new PrintStream(messages, true));
+					String report;
+					boolean done = false;
+					try {
+						report = job.run(resources);
+						done = true;
+					} catch (IOException ioe) {
+						report = ioe.getMessage() + "\n";
+					} catch (RuntimeException re) {
+						report = re.getMessage() + "\n";
+					}
+					synchronized(out) {
+						out.println(job.getName() + ": " + job.getOutputFile());
+						out.print(messages.toString());
+						out.print(report);
+						out.println();
+					}
+					return Boolean.valueOf(done);
+				}
+			}));
+		}
+		executor.shutdown();
+		int failed = 0;
+		for(int i = 0; i < futures.size(); i++) {
+			try {
+				if(!((Boolean)((Future)futures.get(i)).get()).booleanValue()) {
+					failed++;
+				}
+			} catch (ExecutionException ee) {
+				// Only Errors get here, since the jobs catch their exceptions.
+				throw new IllegalStateException("Job failed", ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				throw new IllegalStateException("Interrupted while running the batch");
+			}
+		}
+		return failed;
+	}
+}
@@ -0,0 +1,221 @@
+import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The ChainCursor walks the combinations of a MarkovChain one at a time,
+ * either in the order of their nodes, which costs nothing up front, or sorted
+ * by their elements, which sorts the node ids once. Only the combinations
+ * starting with a given prefix can be walked. No strings are built while
+ * walking, so a cursor can go through chains of any size.
+ *
+ * Sorted combinations are ordered element by element, by the String form of
+ * each element, and a combination comes before the longer ones it starts.
+ */
+public class ChainCursor {
+
+	/**
+	 * The chain that is walked.
+	 */
+	private MarkovChain chain;
+
+	/**
+	 * The codes of the elements that combinations must start with.
+	 */
+	private int[] prefix;
+
+	/**
+	 * The nodes to walk in order, or null to walk all nodes in id order.
+	 */
+	private int[] order;
+
+	/**
+	 * The position of the next node, in order or amongst the node ids.
+	 */
+	private int position;
+
+	/**
+	 * The node the cursor is at, or -1 before the first call to next().
+	 */
+	private int node = -1;
+
+	/**
+	 * Constructs a new ChainCursor, placed before the first combination.
+	 *
+	 * @param chain the chain to walk.
+	 * @param sorted if the combinations should be walked sorted by their elements.
+	 * @param prefix the elements that combinations must start with, in input
+	 * order, or null to walk all combinations.
+	 */
+	public ChainCursor(MarkovChain chain, boolean sorted, List prefix) {
+		this.chain = chain;
+		if(prefix == null) {
+			this.prefix = new int[0];
+		} else {
+			this.prefix = new int[prefix.size()];
+			for(int i = 0; i < this.prefix.length; i++) {
+				this.prefix[i] = chain.symbolOf(prefix.get(i));
+			}
+		}
+		position = ContextCounts.ROOT + 1;
+		if(sorted) {
+			order = sortedNodes();
+			position = 0;
+		}
+	}
+
+	/**
+	 * Moves the cursor to the next combination.
+	 *
+	 * @return true if there was another combination, false if the cursor is past
+	 * the last one.
+	 */
+	public boolean next() {
+		if(order != null) {
+			if(position < order.length) {
+				node = order[position++];
+				return true;
+			}
+		} else {
+			while(position < chain.getNodeCount()) {
+				int candidate = position++;
+				if(matches(candidate)) {
+					node = candidate;
+					return true;
+				}
+			}
+		}
+		node = -1;
+		return false;
+	}
+
+	/**
+	 * Returns the node of the combination the cursor is at, which can be given
+	 * to the follower methods of the chain.
+	 *
+	 * @return the id of the node.
+	 */
+	public int getNode() {
+		return node;
+	}
+
+	/**
+	 * Returns the amount of elements of the combination the cursor is at.
+	 *
+	 * @return the length of the combination.
+	 */
+	public int getLength() {
+		int length = 0;
+		for(int n = node; n != ContextCounts.ROOT; n = chain.getParent(n)) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Appends the elements of the combination the cursor is at, in input order.
+	 *
+	 * @param out the StringBuilder to append to.
+	 */
+	public void appendContext(StringBuilder out) {
+		for(int n = node; n != ContextCounts.ROOT; n = chain.getParent(n)) {
+			out.append(chain.symbolAt(chain.getNodeSymbol(n)));
+		}
+	}
+
+	/**
+	 * Returns the amount of times the combination the cursor is at was followed
+	 * by anything.
+	 *
+	 * @return the sum of the counts of the followers.
+	 */
+	public long getTotal() {
+		long total = 0;
+		for(int i = chain.followerStart(node); i < chain.followerEnd(node); i++) {
+			total += chain.followerCount(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Tells if a combination starts with the prefix. The first element of a
+	 * combination is the symbol of its node, and the rest is its parent.
+	 */
+	private boolean matches(int candidate) {
+		for(int i = 0; i < prefix.length; i++) {
+			if(candidate == ContextCounts.ROOT || chain.getNodeSymbol(candidate) != prefix[i]) {
+				return false;
+			}
+			candidate = chain.getParent(candidate);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the nodes that match the prefix, sorted by their elements.
+	 */
+	private int[] sortedNodes() {
+		int[] nodes = new int[chain.getNodeCount()];
+		int size = 0;
+		for(int n = ContextCounts.ROOT + 1; n < chain.getNodeCount(); n++) {
+			if(matches(n)) {
+				nodes[size++] = n;
+			}
+		}
+		// Ranks the elements once, so that comparing combinations compares ints.
+		Integer[] codes = new Integer[chain.getSymbolCount()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(codes, new Comparator() {
+			public int compare(Object a, Object b) {
+				return String.valueOf(chain.symbolAt(((Integer)a).intValue())).compareTo(
+						String.valueOf(chain.symbolAt(((Integer)b).intValue())));
+			}
+		});
+		int[] rank = new int[codes.length];
+		for(int i = 0; i < codes.length; i++) {
+			rank[codes[i].intValue()] = i;
+		}
+		int[] sorted = Arrays.copyOf(nodes, size);
+		mergeSort(sorted, Arrays.copyOf(nodes, size), 0, size, rank);
+		return sorted;
+	}
+
+	/**
+	 * Sorts the nodes from (inclusive) to to (exclusive) of into, using from
+	 * as scratch space holding the same nodes.
+	 */
+	private void mergeSort(int[] into, int[] scratch, int from, int to, int[] rank) {
+		if(to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(scratch, into, from, middle, rank);
+		mergeSort(scratch, into, middle, to, rank);
+		int left = from;
+		int right = middle;
+		for(int i = from; i < to; i++) {
+			if(right >= to || (left < middle && compare(scratch[left], scratch[right], rank) <= 0)) {
+				into[i] = scratch[left++];
+			} else {
+				into[i] = scratch[right++];
+			}
+		}
+	}
+
+	/**
+	 * Compares the combinations of two nodes element by element.
+	 */
+	private int compare(int a, int b, int[] rank) {
+		while(a != ContextCounts.ROOT && b != ContextCounts.ROOT) {
+			int difference = rank[chain.getNodeSymbol(a)] - rank[chain.getNodeSymbol(b)];
+			if(difference != 0) {
+				return difference;
+			}
+			a = chain.getParent(a);
+			b = chain.getParent(b);
+		}
+		return (a == ContextCounts.ROOT ? 0 : 1) - (b == ContextCounts.ROOT ? 0 : 1);
+	}
+}
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.List;
+
+/**
+ * The ChainExporter writes the combinations of a MarkovChain and their
+ * followers to a Writer in one pass, one combination per line, without ever
+ * holding more than a line in memory. To write to a channel, wrap it with
+ * java.nio.channels.Channels.newWriter().
+ *
+ * Each line is the combination, a colon and its followers. By default each
+ * follower is repeated as many times as it followed the combination, which is
+ * the format MarkovChain.toString() always had. Counted lines instead list
+ * each follower once as follower=count, separated by tabs. Line feeds are
+ * written as \n in both formats.
+ *
+ * The export can be limited to the combinations starting with a prefix, and
+ * to the most common followers of each combination. It can end with
+ * statistics per combination length, each on a line starting with "# ": the
+ * amount of combinations, followers and occurrences, the branching factor
+ * (followers per combination) and the entropy of the next element in bits,
+ * averaged over the occurrences of the combinations.
+ */
+public class ChainExporter {
+
+	/**
+	 * The chain to export.
+	 */
+	private MarkovChain chain;
+
+	/**
+	 * If the combinations are written sorted by their elements.
+	 */
+	private boolean sorted = true;
+
+	/**
+	 * The elements the exported combinations start with, or null for all.
+	 */
+	private List prefix;
+
+	/**
+	 * The most followers written per combination, or 0 for all.
+	 */
+	private int topFollowers;
+
+	/**
+	 * If followers are written once with their count instead of repeated.
+	 */
+	private boolean counted;
+
+	/**
+	 * If the statistics are written after the combinations.
+	 */
+	private boolean statistics;
+
+	/**
+	 * Constructs a new ChainExporter that writes all combinations of a chain
+	 * sorted, with all their followers repeated, and without statistics.
+	 *
+	 * @param chain the chain to export.
+	 */
+	public ChainExporter(MarkovChain chain) {
+		this.chain = chain;
+	}
+
+	/**
+	 * Sets if the combinations are written sorted by their elements, or in the
+	 * order of their nodes, which starts writing right away.
+	 *
+	 * @param sorted true to sort the combinations.
+	 */
+	public void setSorted(boolean sorted) {
+		this.sorted = sorted;
+	}
+
+	/**
+	 * Limits the export to the combinations starting with the given elements.
+	 *
+	 * @param prefix the elements in input order, or null for all combinations.
+	 */
+	public void setPrefix(List prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Limits the followers written per combination to the most common ones.
+	 * Followers that are as common are taken in their order in the chain.
+	 *
+	 * @param topFollowers the most followers per combination, or 0 for all.
+	 */
+	public void setTopFollowers(int topFollowers) {
+		if(topFollowers < 0) {
+			throw new IllegalArgumentException("Negative follower count given; incorrect");
+		}
+		this.topFollowers = topFollowers;
+	}
+
+	/**
+	 * Sets if each follower is written once with its count.
+	 *
+	 * @param counted true to write counts, false to repeat the followers.
+	 */
+	public void setCounted(boolean counted) {
+		this.counted = counted;
+	}
+
+	/**
+	 * Sets if the statistics of the exported combinations are written after them.
+	 *
+	 * @param statistics true to write the statistics.
+	 */
+	public void setStatistics(boolean statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Writes the combinations to a Writer. The Writer is not closed.
+	 *
+	 * @param out the Writer to write to, preferably buffered.
+	 * @return the amount of combinations written.
+	 * @throws IOException if the Writer fails.
+	 */
+	public long export(Writer out) throws IOException {
+		int level = chain.getLevel();
+		long[] contexts = new long[level + 1];
+		long[] followers = new long[level + 1];
+		long[] occurrences = new long[level + 1];
+		double[] entropy = new double[level + 1];
+		int[] top = new int[Math.max(topFollowers, 1)];
+		StringBuilder line = new StringBuilder();
+		long written = 0;
+
+		ChainCursor cursor = new ChainCursor(chain, sorted, prefix);
+		while(cursor.next()) {
+			int node = cursor.getNode();
+			int start = chain.followerStart(node);
+			int end = chain.followerEnd(node);
+			line.setLength(0);
+			cursor.appendContext(line);
+			escape(line, 0);
+			line.append(':');
+			if(topFollowers == 0) {
+				for(int i = start; i < end; i++) {
+					appendFollower(line, i);
+				}
+			} else {
+				int size = selectTop(start, end, top);
+				for(int i = 0; i < size; i++) {
+					appendFollower(line, top[i]);
+				}
+			}
+			if(counted && line.charAt(line.length() - 1) == '\t') {
+				line.setLength(line.length() - 1);
+			}
+			line.append('\n');
+			out.append(line);
+			written++;
+
+			if(statistics) {
+				int length = cursor.getLength();
+				long total = cursor.getTotal();
+				contexts[length]++;
+				followers[length] += end - start;
+				occurrences[length] += total;
+				for(int i = start; i < end; i++) {
+					if(chain.followerCount(i) > 0) {
+						double p = (double)chain.followerCount(i) / total;
+						entropy[length] -= chain.followerCount(i) * Math.log(p) / Math.log(2);
+					}
+				}
+			}
+		}
+
+		if(statistics) {
+			out.write("# length contexts followers occurrences branching entropy\n");
+			for(int length = 1; length <= level; length++) {
+				double branching = contexts[length] == 0 ? 0.0 : (double)followers[length] / contexts[length];
+				double bits = occurrences[length] == 0 ? 0.0 : entropy[length] / occurrences[length];
+				out.write("# " + length + " " + contexts[length] + " " + followers[length] + " " +
+						occurrences[length] + " " + format(branching) + " " + format(bits) + "\n");
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Appends a follower as the format asks for.
+	 */
+	private void appendFollower(StringBuilder line, int index) {
+		int count = chain.followerCount(index);
+		if(count == 0) {
+			return;
+		}
+		Object symbol = chain.symbolAt(chain.followerSymbol(index));
+		if(counted) {
+			int from = line.length();
+			line.append(symbol);
+			escape(line, from);
+			line.append('=').append(count).append('\t');
+		} else {
+			for(int j = 0; j < count; j++) {
+				int from = line.length();
+				line.append(symbol);
+				escape(line, from);
+			}
+		}
+	}
+
+	/**
+	 * Puts the indexes of the most common followers from start to end into top,
+	 * most common first.
+	 *
+	 * @return the amount of followers put into top.
+	 */
+	private int selectTop(int start, int end, int[] top) {
+		int size = 0;
+		for(int i = start; i < end; i++) {
+			int count = chain.followerCount(i);
+			if(size == top.length && count <= chain.followerCount(top[size - 1])) {
+				continue;
+			}
+			int j = size < top.length ? size++ : size - 1;
+			while(j > 0 && chain.followerCount(top[j - 1]) < count) {
+				top[j] = top[j - 1];
+				j--;
+			}
+			top[j] = i;
+		}
+		return size;
+	}
+
+	/**
+	 * Replaces the line feeds from the given position with \n.
+	 */
+	private static void escape(StringBuilder line, int from) {
+		for(int i = from; i < line.length(); i++) {
+			if(line.charAt(i) == '\n') {
+				line.replace(i, i + 1, "\\n");
+				i++;
+			}
+		}
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 1000.0) / 1000.0);
+	}
+}
@@ -0,0 +1,255 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * The ChainSnapshot saves a trained MarkovChain to a binary file and loads it
+ * back, so that a chain doesn't have to be retrained from its input every time
+ * it is used. The file is memory mapped when loaded, and the chain reads its
+ * tables directly from the mapped pages, so loading takes about the same time
+ * regardless of the size of the chain.
+ *
+ * The file holds, in little endian order:
+ * a header (magic number, format version, level, amount of elements, the
+ * size of the element section and the amount of separators), the elements as
+ * UTF-8 strings, the tables of the CompiledChain, the separators of the
+ * Alphabet the chain was saved with, each with its code and how many times it
+ * occurred, and a CRC-32 checksum of everything before it. Only chains with
+ * String elements can be saved, and the file can be at most 2 GB.
+ */
+public class ChainSnapshot {
+
+	/**
+	 * The first four bytes of a snapshot, "GNR8".
+	 */
+	private static final int MAGIC = 0x384E5247;
+
+	/**
+	 * The version of the format. Snapshots of other versions are not loaded.
+	 * Version 2 added the node that each follower leads to, version 3 the
+	 * separators.
+	 */
+	private static final int VERSION = 3;
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	private static final int HEADER_SIZE = 32;
+
+	private ChainSnapshot() {
+	}
+
+	/**
+	 * Saves a MarkovChain to a file, replacing it if it exists.
+	 *
+	 * @param chain the chain to save.
+	 * @param file the file to save to.
+	 * @throws IOException if the file can't be written.
+	 * @throws IllegalArgumentException if the chain has elements that aren't Strings.
+	 */
+	public static void save(MarkovChain chain, File file) throws IOException {
+		save(chain, null, file);
+	}
+
+	/**
+	 * Saves a MarkovChain to a file with the separators of an Alphabet and their
+	 * frequencies, so that words are seeded from the loaded chain the same way
+	 * as from the chain that was saved.
+	 *
+	 * @param chain the chain to save.
+	 * @param alphabet the character classes of the symbols of the chain, or null
+	 * to save no separators.
+	 * @param file the file to save to.
+	 * @throws IOException if the file can't be written.
+	 * @throws IllegalArgumentException if the chain has elements that aren't Strings.
+	 */
+	public static void save(MarkovChain chain, Alphabet alphabet, File file) throws IOException {
+		SymbolTable symbols = chain.getSymbols();
+		byte[][] encoded = new byte[symbols.size()][];
+		long symbolBytes = 0;
+		for(int i = 0; i < encoded.length; i++) {
+			Object symbol = symbols.symbolAt(i);
+			if(!(symbol instanceof String)) {
+				throw new IllegalArgumentException("Only chains of String elements can be saved");
+			}
+			encoded[i] = utf8((String)symbol);
+			symbolBytes += 4 + encoded[i].length;
+		}
+		symbolBytes = (symbolBytes + 7) & ~7L;
+		BitSet separators = alphabet == null ? new BitSet() : alphabet.getClass(Alphabet.SEPARATOR);
+		CompiledChain compiled = chain.getCompiled();
+		long size = HEADER_SIZE + symbolBytes + compiled.layoutSize() + 16L * separators.cardinality() + 8;
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("Chain too large for a snapshot");
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(chain.getLevel());
+			buffer.putInt(encoded.length);
+			buffer.putInt((int)symbolBytes);
+			buffer.putInt(separators.cardinality());
+			buffer.position(HEADER_SIZE);
+			for(int i = 0; i < encoded.length; i++) {
+				buffer.putInt(encoded[i].length);
+				buffer.put(encoded[i]);
+			}
+			buffer.position(HEADER_SIZE + (int)symbolBytes);
+			compiled.write(buffer);
+			for(int code = separators.nextSetBit(0); code >= 0; code = separators.nextSetBit(code + 1)) {
+				buffer.putInt(code);
+				buffer.putInt(0);
+				buffer.putLong(alphabet.getFrequency(code));
+			}
+			buffer.putLong(checksum(buffer, buffer.position()));
+			buffer.force();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads a MarkovChain from a file without verifying its checksum, so only
+	 * the pages of the file that are used are read. See load(File,boolean).
+	 *
+	 * @param file the file to load.
+	 * @return the loaded chain.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	public static MarkovChain load(File file) throws IOException {
+		return load(file, false);
+	}
+
+	/**
+	 * Loads a MarkovChain from a file. Verifying the checksum reads the whole
+	 * file, so for the fastest start of large chains it can be skipped.
+	 *
+	 * @param file the file to load.
+	 * @param verify if the checksum of the file should be verified.
+	 * @return the loaded chain.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	public static MarkovChain load(File file, boolean verify) throws IOException {
+		return readChain(map(file, verify), file);
+	}
+
+	/**
+	 * Loads a MarkovChain from a file together with the Alphabet of the
+	 * separators it was saved with. The other symbols of the Alphabet are
+	 * letters.
+	 *
+	 * @param file the file to load.
+	 * @param verify if the checksum of the file should be verified.
+	 * @return the chain with its alphabet.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	static WordGenerator loadGenerator(File file, boolean verify) throws IOException {
+		ByteBuffer buffer = map(file, verify);
+		MarkovChain chain = readChain(buffer, file);
+		try {
+			Alphabet alphabet = new Alphabet(chain.getSymbols());
+			int separatorCount = buffer.getInt(20);
+			for(int i = 0; i < separatorCount; i++) {
+				int code = buffer.getInt();
+				buffer.getInt();
+				alphabet.setClass(code, Alphabet.SEPARATOR);
+				alphabet.addFrequency(code, buffer.getLong());
+			}
+			return new WordGenerator(chain, alphabet);
+		} catch (RuntimeException re) {
+			throw new IOException("Chain snapshot is corrupt: " + file, re);
+		}
+	}
+
+	/**
+	 * Maps a snapshot file and checks its header, and its checksum if verify.
+	 * The buffer is positioned after the magic number and version.
+	 */
+	private static ByteBuffer map(File file, boolean verify) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		MappedByteBuffer buffer;
+		try {
+			long size = channel.size();
+			if(size < HEADER_SIZE + 8 || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a chain snapshot: " + file);
+			}
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			channel.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if(buffer.getInt() != MAGIC) {
+			throw new IOException("Not a chain snapshot: " + file);
+		}
+		int version = buffer.getInt();
+		if(version != VERSION) {
+			throw new IOException("Unsupported chain snapshot version " + version + ": " + file);
+		}
+		if(verify && buffer.getLong(buffer.limit() - 8) != checksum(buffer, buffer.limit() - 8)) {
+			throw new IOException("Chain snapshot is corrupt, checksum mismatch: " + file);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Reads the chain of a mapped snapshot, and moves the buffer past its tables.
+	 */
+	private static MarkovChain readChain(ByteBuffer buffer, File file) throws IOException {
+		int level = buffer.getInt();
+		int symbolCount = buffer.getInt();
+		int symbolBytes = buffer.getInt();
+
+		try {
+			buffer.position(HEADER_SIZE);
+			SymbolTable symbols = new SymbolTable();
+			for(int i = 0; i < symbolCount; i++) {
+				byte[] encoded = new byte[buffer.getInt()];
+				buffer.get(encoded);
+				symbols.intern(new String(encoded, "UTF-8"));
+			}
+			buffer.position(HEADER_SIZE + symbolBytes);
+			CompiledChain compiled = CompiledChain.map(buffer);
+			return new MarkovChain(symbols, compiled, level);
+		} catch (RuntimeException re) {
+			// Thrown by the buffer when the sizes in the file are inconsistent.
+			throw new IOException("Chain snapshot is corrupt: " + file, re);
+		}
+	}
+
+	/**
+	 * Returns the CRC-32 of the bytes of a buffer from its start up to the
+	 * given position.
+	 */
+	private static long checksum(ByteBuffer buffer, int end) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(0);
+		view.limit(end);
+		CRC32 crc = new CRC32();
+		crc.update(view);
+		return crc.getValue();
+	}
+
+	private static byte[] utf8(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException("UTF-8 not supported");
+		}
+	}
+}
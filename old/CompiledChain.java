@@ -0,0 +1,548 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The CompiledChain is the read-only form of a MarkovChain that predictions are
+ * made from. It holds the tree of combinations and the followers of each
+ * combination grouped in flat tables, with an alias table (Walker's alias
+ * method) per combination so that a follower can be drawn with its exact
+ * probability in constant time.
+ *
+ * The chain can also be walked as a state machine: for every follower of every
+ * combination, it holds the node that generation continues from once the
+ * follower has been drawn, which is the longest combination in the chain that
+ * the combination followed by the follower ends with. Generation therefore
+ * moves from node to node without building or hashing any combinations, and
+ * backing off to a shorter combination is a step to the parent of a node.
+ *
+ * All tables are buffers, so that a CompiledChain can either wrap arrays on the
+ * heap, when compiled from a ContextCounts, or views of a memory mapped file,
+ * when loaded from a snapshot. See ChainSnapshot.
+ */
+public class CompiledChain {
+
+	/**
+	 * The key that marks a free slot in the table of children. The table uses
+	 * the same layout and probing as LongIntHashMap.
+	 */
+	private static final long FREE = -1L;
+
+	/**
+	 * The amount of nodes, including the root.
+	 */
+	private int nodeCount;
+
+	/**
+	 * The parent of each node. See ContextCounts.
+	 */
+	private IntBuffer nodeParent;
+
+	/**
+	 * The code of the first element of the combination of each node.
+	 */
+	private IntBuffer nodeSymbol;
+
+	/**
+	 * The keys of the hash table of children, (parent node << 32 | element code).
+	 * The length is a power of two.
+	 */
+	private LongBuffer childKeys;
+
+	/**
+	 * The child node stored at the same index as its key.
+	 */
+	private IntBuffer childNodes;
+
+	/**
+	 * The index of the first follower of each node in the follower tables. The
+	 * followers of a node are found from followerStart[node] up to (but not
+	 * including) followerStart[node + 1], ordered by element code.
+	 */
+	private IntBuffer followerStart;
+
+	/**
+	 * The code of each follower.
+	 */
+	private IntBuffer followerSymbol;
+
+	/**
+	 * The amount of times each follower followed its node.
+	 */
+	private IntBuffer followerCount;
+
+	/**
+	 * The total amount of times each node was followed by any element.
+	 */
+	private IntBuffer followerTotal;
+
+	/**
+	 * The probability of keeping each follower when it is drawn from the alias
+	 * table of its node, instead of taking its alias.
+	 */
+	private DoubleBuffer aliasProbability;
+
+	/**
+	 * The index of the follower that is taken when a follower isn't kept.
+	 */
+	private IntBuffer aliasIndex;
+
+	/**
+	 * The node that each follower leads to, or -1 if the follower was never
+	 * followed by anything.
+	 */
+	private IntBuffer followerNext;
+
+	private CompiledChain() {
+	}
+
+	/**
+	 * Compiles the counts of a ContextCounts. The tree of combinations is shared
+	 * with the counts, so they must not be changed afterwards.
+	 *
+	 * @param counts the counts to compile.
+	 * @return the compiled chain.
+	 */
+	public static CompiledChain compile(ContextCounts counts) {
+		return compile(counts, false);
+	}
+
+	/**
+	 * Compiles the counts of a ContextCounts, either sharing the tree of
+	 * combinations with the counts or copying it, so that the counts can go on
+	 * being changed while the compiled chain is used.
+	 *
+	 * @param counts the counts to compile.
+	 * @param copy if the tree should be copied instead of shared.
+	 * @return the compiled chain.
+	 */
+	public static CompiledChain compile(ContextCounts counts, boolean copy) {
+		CompiledChain chain = new CompiledChain();
+		int nodeCount = counts.getNodeCount();
+		chain.nodeCount = nodeCount;
+		if(copy) {
+			chain.nodeParent = IntBuffer.wrap(Arrays.copyOf(counts.parentArray(), nodeCount));
+			chain.nodeSymbol = IntBuffer.wrap(Arrays.copyOf(counts.symbolArray(), nodeCount));
+			chain.childKeys = LongBuffer.wrap(counts.childMap().keyTable().clone());
+			chain.childNodes = IntBuffer.wrap(counts.childMap().valueTable().clone());
+		} else {
+			chain.nodeParent = IntBuffer.wrap(counts.parentArray());
+			chain.nodeSymbol = IntBuffer.wrap(counts.symbolArray());
+			chain.childKeys = LongBuffer.wrap(counts.childMap().keyTable());
+			chain.childNodes = IntBuffer.wrap(counts.childMap().valueTable());
+		}
+
+		long[] keys = counts.followerKeys();
+		// Followers removed down to zero times are left out.
+		int kept = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(counts.followerCount(keys[i]) > 0) {
+				keys[kept++] = keys[i];
+			}
+		}
+		if(kept < keys.length) {
+			keys = Arrays.copyOf(keys, kept);
+		}
+		// Sorting the keys groups them by node, and the followers of each node
+		// by element code.
+		Arrays.sort(keys);
+		int[] start = new int[nodeCount + 1];
+		int[] symbol = new int[keys.length];
+		int[] count = new int[keys.length];
+		int[] total = new int[nodeCount];
+		for(int i = 0; i < keys.length; i++) {
+			int node = (int)(keys[i] >>> 32);
+			start[node + 1]++;
+			symbol[i] = (int)keys[i];
+			count[i] = counts.followerCount(keys[i]);
+			long sum = (long)total[node] + count[i];
+			// The totals are stored as ints, in the tables and in snapshots.
+			if(sum > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Followers of a node counted more than "
+						+ Integer.MAX_VALUE + " times; too many to compile");
+			}
+			total[node] = (int)sum;
+		}
+		for(int node = 0; node < nodeCount; node++) {
+			start[node + 1] += start[node];
+		}
+		double[] probability = new double[keys.length];
+		int[] alias = new int[keys.length];
+		int[] small = new int[keys.length];
+		int[] large = new int[keys.length];
+		for(int node = 0; node < nodeCount; node++) {
+			buildAliasTable(start[node], start[node + 1], count, total[node],
+					probability, alias, small, large);
+		}
+		chain.followerStart = IntBuffer.wrap(start);
+		chain.followerSymbol = IntBuffer.wrap(symbol);
+		chain.followerCount = IntBuffer.wrap(count);
+		chain.followerTotal = IntBuffer.wrap(total);
+		chain.aliasProbability = DoubleBuffer.wrap(probability);
+		chain.aliasIndex = IntBuffer.wrap(alias);
+		chain.followerNext = IntBuffer.wrap(chain.computeTransitions(counts.getLevel()));
+		return chain;
+	}
+
+	/**
+	 * Computes the node that each follower leads to. The combination c followed
+	 * by the element e leads to the longest combination that c + e ends with,
+	 * cut to the level. Dropping the first element x of c gives the parent p,
+	 * whose own follower e leads to the longest combination that p + e ends
+	 * with, so if that is all of p + e, c + e is its child for x if it exists,
+	 * and otherwise the same node as from p. Parents come before their children,
+	 * so this takes constant time per follower, except for followers that their
+	 * parent lacks because they were pruned.
+	 *
+	 * @param level the maximum length of the combinations.
+	 * @return the node of each follower.
+	 */
+	private int[] computeTransitions(int level) {
+		int[] depth = new int[nodeCount];
+		int[] next = new int[getFollowerSize()];
+		int[] scratch = new int[level + 1];
+		for(int node = 1; node < nodeCount; node++) {
+			depth[node] = depth[getParent(node)] + 1;
+		}
+		for(int node = 1; node < nodeCount; node++) {
+			int parent = getParent(node);
+			for(int i = followerStart(node); i < followerEnd(node); i++) {
+				int symbol = followerSymbol(i);
+				int shorter;
+				if(parent == 0) {
+					shorter = childOf(0, symbol);
+				} else {
+					int index = findFollower(parent, symbol);
+					shorter = index == -1 ? longestSuffix(node, symbol, level, scratch) : next[index];
+				}
+				if(shorter != -1 && depth[node] < level && depth[shorter] == depth[node]) {
+					int longer = childOf(shorter, getSymbol(node));
+					if(longer != -1) {
+						shorter = longer;
+					}
+				}
+				next[i] = shorter;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Returns the longest combination in the chain that the combination of a
+	 * node followed by an element ends with, cut to the level, by walking the
+	 * tree from the root.
+	 */
+	private int longestSuffix(int node, int symbol, int level, int[] scratch) {
+		int length = 0;
+		// Walking up from the node gives the elements in input order.
+		for(; node != 0; node = getParent(node)) {
+			scratch[length++] = getSymbol(node);
+		}
+		scratch[length++] = symbol;
+		int first = Math.max(0, length - level);
+		int found = -1;
+		int current = 0;
+		for(int i = length - 1; i >= first; i--) {
+			current = childOf(current, scratch[i]);
+			if(current == -1) {
+				break;
+			}
+			found = current;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the index of the follower of a node for an element, by binary
+	 * search since the followers of a node are ordered by element code.
+	 *
+	 * @param node the id of the node.
+	 * @param symbol the code of the element.
+	 * @return the index of the follower, or -1 if the node has no such follower.
+	 */
+	public int findFollower(int node, int symbol) {
+		int low = followerStart(node);
+		int high = followerEnd(node) - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int current = followerSymbol(middle);
+			if(current < symbol) {
+				low = middle + 1;
+			} else if(current > symbol) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds the alias table of the followers between start and end, using
+	 * Vose's variant of the alias method.
+	 *
+	 * @param start the index of the first follower.
+	 * @param end the index after the last follower.
+	 * @param count the counts of the followers.
+	 * @param total the sum of the counts between start and end.
+	 * @param probability where the probabilities of keeping each follower are put.
+	 * @param alias where the alias of each follower is put.
+	 * @param small scratch space of at least end - start elements.
+	 * @param large scratch space of at least end - start elements.
+	 */
+	private static void buildAliasTable(int start, int end, int[] count, double total,
+			double[] probability, int[] alias, int[] small, int[] large) {
+		int size = end - start;
+		int smallSize = 0;
+		int largeSize = 0;
+		for(int i = start; i < end; i++) {
+			// Each follower gets a probability scaled so that the average is 1.
+			probability[i] = (double)count[i] * size / total;
+			alias[i] = i;
+			if(probability[i] < 1.0) {
+				small[smallSize++] = i;
+			} else {
+				large[largeSize++] = i;
+			}
+		}
+		while(smallSize > 0 && largeSize > 0) {
+			int less = small[--smallSize];
+			int more = large[--largeSize];
+			alias[less] = more;
+			probability[more] -= 1.0 - probability[less];
+			if(probability[more] < 1.0) {
+				small[smallSize++] = more;
+			} else {
+				large[largeSize++] = more;
+			}
+		}
+		// What remains is only off from 1 because of rounding errors.
+		while(largeSize > 0) {
+			probability[large[--largeSize]] = 1.0;
+		}
+		while(smallSize > 0) {
+			probability[small[--smallSize]] = 1.0;
+		}
+	}
+
+	/**
+	 * Writes the tables to a buffer, in the layout that map() reads. Every table
+	 * starts at a multiple of 8 bytes from the start of the layout.
+	 *
+	 * @param buffer the buffer to write to, positioned at the start of the layout.
+	 */
+	void write(ByteBuffer buffer) {
+		int base = buffer.position();
+		buffer.putInt(nodeCount);
+		buffer.putInt(getFollowerSize());
+		buffer.putInt(childKeys.capacity());
+		buffer.putInt(0);
+		putInts(buffer, base, nodeParent, nodeCount);
+		putInts(buffer, base, nodeSymbol, nodeCount);
+		for(int i = 0; i < childKeys.capacity(); i++) {
+			buffer.putLong(childKeys.get(i));
+		}
+		putInts(buffer, base, childNodes, childNodes.capacity());
+		putInts(buffer, base, followerStart, nodeCount + 1);
+		putInts(buffer, base, followerTotal, nodeCount);
+		putInts(buffer, base, followerSymbol, getFollowerSize());
+		putInts(buffer, base, followerCount, getFollowerSize());
+		putInts(buffer, base, aliasIndex, getFollowerSize());
+		putInts(buffer, base, followerNext, getFollowerSize());
+		for(int i = 0; i < getFollowerSize(); i++) {
+			buffer.putDouble(aliasProbability.get(i));
+		}
+	}
+
+	private static void putInts(ByteBuffer buffer, int base, IntBuffer ints, int length) {
+		for(int i = 0; i < length; i++) {
+			buffer.putInt(ints.get(i));
+		}
+		if((buffer.position() - base) % 8 != 0) {
+			buffer.putInt(0);
+		}
+	}
+
+	/**
+	 * Returns the amount of bytes that write() puts in a buffer.
+	 *
+	 * @return the size of the layout in bytes.
+	 */
+	int layoutSize() {
+		long size = estimateBytes();
+		if(size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Compiled chain too large for a snapshot");
+		}
+		return (int)size;
+	}
+
+	/**
+	 * Returns the amount of bytes of the tables of the chain, which is also
+	 * about the heap they use unless they are mapped from a snapshot.
+	 *
+	 * @return the size of the tables in bytes.
+	 */
+	long estimateBytes() {
+		long size = 16;
+		size += padded(4L * nodeCount) * 2;
+		size += 8L * childKeys.capacity() + padded(4L * childNodes.capacity());
+		size += padded(4L * (nodeCount + 1)) + padded(4L * nodeCount);
+		size += padded(4L * getFollowerSize()) * 4 + 8L * getFollowerSize();
+		return size;
+	}
+
+	private static long padded(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	/**
+	 * Creates a CompiledChain that reads its tables directly from a buffer
+	 * holding the layout written by write(). Nothing is copied, so when the buffer
+	 * is memory mapped, the tables are read from the mapped pages on demand.
+	 *
+	 * @param buffer the buffer, positioned at the start of the layout. Its
+	 * position is moved past the layout.
+	 * @return the chain reading from the buffer.
+	 */
+	static CompiledChain map(ByteBuffer buffer) {
+		CompiledChain chain = new CompiledChain();
+		int nodeCount = buffer.getInt();
+		int followerSize = buffer.getInt();
+		int childCapacity = buffer.getInt();
+		buffer.getInt();
+		chain.nodeCount = nodeCount;
+		chain.nodeParent = slice(buffer, 4L * nodeCount).asIntBuffer();
+		chain.nodeSymbol = slice(buffer, 4L * nodeCount).asIntBuffer();
+		chain.childKeys = slice(buffer, 8L * childCapacity).asLongBuffer();
+		chain.childNodes = slice(buffer, 4L * childCapacity).asIntBuffer();
+		chain.followerStart = slice(buffer, 4L * (nodeCount + 1)).asIntBuffer();
+		chain.followerTotal = slice(buffer, 4L * nodeCount).asIntBuffer();
+		chain.followerSymbol = slice(buffer, 4L * followerSize).asIntBuffer();
+		chain.followerCount = slice(buffer, 4L * followerSize).asIntBuffer();
+		chain.aliasIndex = slice(buffer, 4L * followerSize).asIntBuffer();
+		chain.followerNext = slice(buffer, 4L * followerSize).asIntBuffer();
+		chain.aliasProbability = slice(buffer, 8L * followerSize).asDoubleBuffer();
+		return chain;
+	}
+
+	/**
+	 * Returns a view of the next size bytes of a buffer, and moves the buffer past
+	 * them and their padding.
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, long size) {
+		ByteBuffer view = buffer.slice().order(buffer.order());
+		view.limit((int)size);
+		buffer.position(buffer.position() + (int)padded(size));
+		return view;
+	}
+
+	/**
+	 * Returns the child of a node for the given element, i.e. the combination
+	 * of the node with the element put in front of it.
+	 *
+	 * @param node the id of the node.
+	 * @param symbol the code of the element to put in front.
+	 * @return the id of the child, or -1 if it doesn't exist.
+	 */
+	public int childOf(int node, int symbol) {
+		long key = ((long)node << 32) | symbol;
+		int mask = childKeys.capacity() - 1;
+		int slot = LongIntHashMap.hash(key) & mask;
+		while(true) {
+			long current = childKeys.get(slot);
+			if(current == key) {
+				return childNodes.get(slot);
+			} else if(current == FREE) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Draws a follower of a node from its alias table.
+	 *
+	 * @param node the id of the node, which must have followers.
+	 * @param random a uniformly distributed number from 0 (inclusive) to 1
+	 * (exclusive).
+	 * @return the code of the drawn follower.
+	 */
+	public int drawFollower(int node, double random) {
+		return followerSymbol.get(drawFollowerIndex(node, random));
+	}
+
+	/**
+	 * Draws a follower of a node from its alias table.
+	 *
+	 * @param node the id of the node, which must have followers.
+	 * @param random a uniformly distributed number from 0 (inclusive) to 1
+	 * (exclusive).
+	 * @return the index of the drawn follower.
+	 */
+	public int drawFollowerIndex(int node, double random) {
+		int start = followerStart.get(node);
+		double scaled = random * (followerStart.get(node + 1) - start);
+		int index = (int)scaled;
+		// The fraction left of the scaled number decides between the follower
+		// and its alias.
+		if(scaled - index < aliasProbability.get(start + index)) {
+			return start + index;
+		} else {
+			return aliasIndex.get(start + index);
+		}
+	}
+
+	public int getParent(int node) {
+		return nodeParent.get(node);
+	}
+
+	public int getSymbol(int node) {
+		return nodeSymbol.get(node);
+	}
+
+	public int followerStart(int node) {
+		return followerStart.get(node);
+	}
+
+	public int followerEnd(int node) {
+		return followerStart.get(node + 1);
+	}
+
+	public int followerSymbol(int index) {
+		return followerSymbol.get(index);
+	}
+
+	public int followerCount(int index) {
+		return followerCount.get(index);
+	}
+
+	/**
+	 * Returns the node that generation continues from once a follower has been
+	 * drawn.
+	 *
+	 * @param index the index of the follower.
+	 * @return the id of the node, or -1 if nothing ever followed the follower.
+	 */
+	public int followerNext(int index) {
+		return followerNext.get(index);
+	}
+
+	public int followerTotal(int node) {
+		return followerTotal.get(node);
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the total amount of followers of all nodes.
+	 *
+	 * @return the amount of followers.
+	 */
+	public int getFollowerSize() {
+		return followerSymbol.capacity();
+	}
+}
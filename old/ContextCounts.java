@@ -0,0 +1,434 @@
+import java.util.Arrays;
+
+/**
+ * The ContextCounts is the table a MarkovChain is trained into. It holds every
+ * combination of element codes up to the level of the chain, and counts how
+ * many times each combination was followed by each element.
+ *
+ * The combinations are stored as a tree read backwards: the child of a node for
+ * the element e is the combination with e put in front of it. Each combination
+ * is a node with a dense int id, and the parent of a node is therefore the same
+ * combination without its first element. A node is always created after its
+ * parent, so its id is always higher than the id of its parent.
+ *
+ * Tables counted over different parts of an input can be merged, which is what
+ * makes parallel training possible.
+ */
+public class ContextCounts {
+
+	/**
+	 * The node that represents the empty combination. All other combinations
+	 * are reached from it.
+	 */
+	public static final int ROOT = 0;
+
+	/**
+	 * The maximum length of the combinations that are counted.
+	 */
+	private int level;
+
+	/**
+	 * The edges of the tree, keyed by (parent node << 32 | element code).
+	 */
+	private LongIntHashMap children;
+
+	/**
+	 * The parent of each node, i.e. the combination without its first element.
+	 */
+	private int[] nodeParent;
+
+	/**
+	 * The code of the first element of the combination of each node.
+	 */
+	private int[] nodeSymbol;
+
+	/**
+	 * The amount of nodes in the tree, including the root.
+	 */
+	private int nodeCount;
+
+	/**
+	 * The amount of times each node was followed by each element, keyed by
+	 * (node << 32 | element code).
+	 */
+	private LongIntHashMap followerCounts;
+
+	/**
+	 * The amount of times a combination wasn't counted because it was estimated
+	 * to occur too rarely. See count(int[],int,int,CountMinSketch,int).
+	 */
+	private long rejectedContexts;
+
+	/**
+	 * Constructs a new, empty ContextCounts.
+	 *
+	 * @param level the maximum length of the combinations that are counted.
+	 */
+	public ContextCounts(int level) {
+		this.level = level;
+		children = new LongIntHashMap();
+		followerCounts = new LongIntHashMap();
+		nodeParent = new int[64];
+		nodeSymbol = new int[64];
+		nodeParent[ROOT] = ROOT;
+		nodeSymbol[ROOT] = SymbolTable.NO_SYMBOL;
+		nodeCount = 1;
+	}
+
+	/**
+	 * Counts the followers of every combination ending at the positions from
+	 * (inclusive) to to (exclusive) of the codes. Combinations may start before
+	 * from, so that counting two adjacent ranges separately gives the same counts
+	 * as counting them together.
+	 *
+	 * @param codes the element codes of the input.
+	 * @param from the first position to count combinations ending at.
+	 * @param to the position after the last one to count combinations ending at.
+	 * The last position of the codes is never counted, since nothing follows it.
+	 */
+	public void count(int[] codes, int from, int to) {
+		count(codes, from, to, null, 0);
+	}
+
+	/**
+	 * Counts the followers of the combinations ending at the positions from
+	 * (inclusive) to to (exclusive) of the codes, like count(int[],int,int), but
+	 * only the combinations of two or more elements that a sketch estimates to
+	 * occur at least threshold times. Since the combinations ending at a position
+	 * are walked shortest first, the walk stops at the first rare one, and a
+	 * combination is never counted without its end.
+	 *
+	 * @param codes the element codes of the input.
+	 * @param from the first position to count combinations ending at.
+	 * @param to the position after the last one to count combinations ending at.
+	 * @param sketch the occurrences of all combinations of the input, or null
+	 * to count all combinations.
+	 * @param threshold the estimated amount of times a combination must occur.
+	 */
+	public void count(int[] codes, int from, int to, CountMinSketch sketch, int threshold) {
+		to = Math.min(to, codes.length - 1);
+		// Registers the following element for every combination ending at the
+		// current element, shortest first.
+		for(int i = from; i < to; i++) {
+			int node = ROOT;
+			long hash = CountMinSketch.EMPTY;
+			int first = Math.max(0, i - level + 1);
+			for(int j = i; j >= first; j--) {
+				if(sketch != null) {
+					hash = CountMinSketch.extend(hash, codes[j]);
+					if(j < i && sketch.estimate(hash) < threshold) {
+						rejectedContexts++;
+						break;
+					}
+				}
+				node = childOf(node, codes[j], true);
+				addFollower(node, codes[i + 1], 1);
+			}
+		}
+	}
+
+	/**
+	 * Counts the followers of the combinations of the codes that start before
+	 * boundary and are followed by an element at or after it, and only those.
+	 * Counting the two sides of the boundary on their own, and then the codes
+	 * around it with this, gives the same counts as counting all the codes at
+	 * once, as long as the codes hold the level elements on each side.
+	 *
+	 * @param codes the element codes on both sides of the boundary.
+	 * @param boundary the position of the first element after the boundary.
+	 */
+	public void countAcross(int[] codes, int boundary) {
+		for(int i = Math.max(0, boundary - 1); i < codes.length - 1; i++) {
+			int node = ROOT;
+			int first = Math.max(0, i - level + 1);
+			for(int j = i; j >= first; j--) {
+				node = childOf(node, codes[j], true);
+				if(j < boundary) {
+					addFollower(node, codes[i + 1], 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the table holding only the combinations up to a lower
+	 * level. Since every combination is counted with all its ends, the copy has
+	 * the same counts as counting the input at that level, so the tables of
+	 * every level up to this one can be taken from one count of the input.
+	 *
+	 * @param level the level of the copy, at most the level of this table.
+	 * @return the copy.
+	 */
+	public ContextCounts truncate(int level) {
+		if(level < 1 || level > this.level) {
+			throw new IllegalArgumentException("Level " + level + " out of range 1-" + this.level);
+		}
+		ContextCounts result = new ContextCounts(level);
+		// Parents have lower ids than their children, so the depth and new id of
+		// the parent of each node are known before the node itself.
+		int[] depth = new int[nodeCount];
+		int[] mapped = new int[nodeCount];
+		mapped[ROOT] = ROOT;
+		for(int node = ROOT + 1; node < nodeCount; node++) {
+			depth[node] = depth[nodeParent[node]] + 1;
+			mapped[node] = depth[node] > level ? -1 : result.childOf(mapped[nodeParent[node]], nodeSymbol[node], true);
+		}
+		long[] keys = followerCounts.keys();
+		for(int i = 0; i < keys.length; i++) {
+			int node = (int)(keys[i] >>> 32);
+			if(mapped[node] != -1) {
+				result.addFollower(mapped[node], (int)keys[i], followerCounts.get(keys[i], 0));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Subtracts the followers of every combination ending at the positions from
+	 * (inclusive) to to (exclusive) of the codes, undoing count(). Counts never
+	 * go below zero, and combinations that aren't in the table are skipped.
+	 * Nodes are never removed, even when all their followers are.
+	 *
+	 * @param codes the element codes, with SymbolTable.NO_SYMBOL for elements
+	 * that were never counted.
+	 * @param from the first position to subtract combinations ending at.
+	 * @param to the position after the last one to subtract combinations ending at.
+	 */
+	public void uncount(int[] codes, int from, int to) {
+		to = Math.min(to, codes.length - 1);
+		for(int i = from; i < to; i++) {
+			if(codes[i + 1] < 0) {
+				continue;
+			}
+			int node = ROOT;
+			int first = Math.max(0, i - level + 1);
+			for(int j = i; j >= first && codes[j] >= 0; j--) {
+				node = childOf(node, codes[j], false);
+				if(node == -1) {
+					break;
+				}
+				long key = ((long)node << 32) | codes[i + 1];
+				int count = followerCounts.get(key, 0);
+				if(count > 0) {
+					followerCounts.put(key, count - 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds all counts of another table to this one. The other table is left
+	 * unchanged.
+	 *
+	 * @param other the table to add, counted with the same element codes.
+	 */
+	public void merge(ContextCounts other) {
+		merge(other, null);
+	}
+
+	/**
+	 * Adds all counts of another table to this one, where the other table was
+	 * counted with other element codes. The other table is left unchanged.
+	 *
+	 * @param other the table to add.
+	 * @param codes the code in this table of each element code of the other
+	 * table, or null if they are the same.
+	 */
+	public void merge(ContextCounts other, int[] codes) {
+		// Parents always have lower ids than their children, so the parent of
+		// each node has been mapped before the node itself.
+		int[] mapped = new int[other.nodeCount];
+		mapped[ROOT] = ROOT;
+		for(int node = ROOT + 1; node < other.nodeCount; node++) {
+			int symbol = other.nodeSymbol[node];
+			mapped[node] = childOf(mapped[other.nodeParent[node]], codes == null ? symbol : codes[symbol], true);
+		}
+		long[] keys = other.followerCounts.keys();
+		for(int i = 0; i < keys.length; i++) {
+			int node = (int)(keys[i] >>> 32);
+			int symbol = (int)keys[i];
+			addFollower(mapped[node], codes == null ? symbol : codes[symbol], other.followerCounts.get(keys[i], 0));
+		}
+		rejectedContexts += other.rejectedContexts;
+	}
+
+	/**
+	 * Removes the followers that followed their node fewer than minCount times.
+	 * The most common followers of each node are always kept, so that every
+	 * node can still be followed by something.
+	 *
+	 * @param minCount the amount of times a follower must have followed its node.
+	 * @return the amount of removed followers.
+	 */
+	public int pruneFollowers(int minCount) {
+		if(minCount <= 1) {
+			return 0;
+		}
+		long[] keys = followerCounts.keys();
+		int[] most = new int[nodeCount];
+		for(int i = 0; i < keys.length; i++) {
+			int node = (int)(keys[i] >>> 32);
+			most[node] = Math.max(most[node], followerCounts.get(keys[i], 0));
+		}
+		LongIntHashMap kept = new LongIntHashMap(keys.length);
+		for(int i = 0; i < keys.length; i++) {
+			int count = followerCounts.get(keys[i], 0);
+			if(count >= minCount || count == most[(int)(keys[i] >>> 32)]) {
+				kept.put(keys[i], count);
+			}
+		}
+		int pruned = keys.length - kept.size();
+		followerCounts = kept;
+		return pruned;
+	}
+
+	/**
+	 * Returns an estimate of the heap used by the table, together with the tables
+	 * of a CompiledChain compiled from it.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		long bytes = 12L * children.keyTable().length + 8L * nodeParent.length;
+		bytes += 12L * followerCounts.keyTable().length;
+		// Compiling sorts a copy of the follower keys, and adds the follower
+		// tables and the alias tables.
+		bytes += 28L * followerCounts.size() + 8L * nodeCount;
+		return bytes;
+	}
+
+	/**
+	 * Returns the amount of times a combination wasn't counted because it was
+	 * estimated to occur too rarely.
+	 *
+	 * @return the amount of rejected combinations.
+	 */
+	public long getRejectedContexts() {
+		return rejectedContexts;
+	}
+
+	/**
+	 * Returns the child of a node for the given element, i.e. the combination
+	 * of the node with the element put in front of it.
+	 *
+	 * @param node the node of the combination.
+	 * @param symbol the code of the element to put in front.
+	 * @param create if the node should be created if it doesn't exist.
+	 * @return the id of the child, or -1 if it doesn't exist and create is false.
+	 */
+	public int childOf(int node, int symbol, boolean create) {
+		long key = ((long)node << 32) | symbol;
+		int child = children.get(key, -1);
+		if(child == -1 && create) {
+			if(nodeCount == nodeParent.length) {
+				int capacity = nodeCount * 2;
+				nodeParent = Arrays.copyOf(nodeParent, capacity);
+				nodeSymbol = Arrays.copyOf(nodeSymbol, capacity);
+			}
+			child = nodeCount++;
+			nodeParent[child] = node;
+			nodeSymbol[child] = symbol;
+			children.put(key, child);
+		}
+		return child;
+	}
+
+	/**
+	 * Adds to the amount of times a node was followed by an element.
+	 *
+	 * @param node the id of the node.
+	 * @param symbol the code of the following element.
+	 * @param count the amount to add.
+	 */
+	public void addFollower(int node, int symbol, int count) {
+		followerCounts.add(((long)node << 32) | symbol, count);
+	}
+
+	/**
+	 * Returns the amount of times a node was followed by an element.
+	 *
+	 * @param key the follower as (node << 32 | element code).
+	 * @return the amount of times, or 0 if the node was never followed by the
+	 * element.
+	 */
+	public int followerCount(long key) {
+		return followerCounts.get(key, 0);
+	}
+
+	/**
+	 * Returns every counted follower as (node << 32 | element code), in no
+	 * particular order.
+	 *
+	 * @return a new array holding the followers.
+	 */
+	public long[] followerKeys() {
+		return followerCounts.keys();
+	}
+
+	/**
+	 * Returns the parent of a node, i.e. the combination without its first element.
+	 *
+	 * @param node the id of the node.
+	 * @return the id of the parent.
+	 */
+	public int getParent(int node) {
+		return nodeParent[node];
+	}
+
+	/**
+	 * Returns the code of the first element of the combination of a node.
+	 *
+	 * @param node the id of the node.
+	 * @return the code of the element.
+	 */
+	public int getSymbol(int node) {
+		return nodeSymbol[node];
+	}
+
+	/**
+	 * Returns the array of parents itself. It may be longer than the amount
+	 * of nodes.
+	 *
+	 * @return the parent of each node.
+	 */
+	int[] parentArray() {
+		return nodeParent;
+	}
+
+	/**
+	 * Returns the array of first elements itself. It may be longer than the
+	 * amount of nodes.
+	 *
+	 * @return the code of the first element of each node.
+	 */
+	int[] symbolArray() {
+		return nodeSymbol;
+	}
+
+	/**
+	 * Returns the edges of the tree, keyed by (parent node << 32 | element code).
+	 *
+	 * @return the map of children.
+	 */
+	LongIntHashMap childMap() {
+		return children;
+	}
+
+	/**
+	 * Returns the amount of nodes, including the root.
+	 *
+	 * @return the amount of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the maximum length of the combinations that are counted.
+	 *
+	 * @return the level of the table.
+	 */
+	public int getLevel() {
+		return level;
+	}
+}
@@ -0,0 +1,138 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The Corpus is an input read by a CorpusReader: the characters of all input
+ * files as element codes, ready to train a MarkovChain from, and the symbols
+ * the codes stand for. Every symbol is a String of one Unicode code point.
+ * Line feeds and spaces are the separators of its Alphabet.
+ */
+public class Corpus {
+
+	private Alphabet alphabet;
+	private int[] codes;
+	private int lineFeeds;
+	private int spaces;
+	private int files;
+
+	Corpus(Alphabet alphabet, int[] codes, int lineFeeds, int spaces, int files) {
+		this.alphabet = alphabet;
+		this.codes = codes;
+		this.lineFeeds = lineFeeds;
+		this.spaces = spaces;
+		this.files = files;
+	}
+
+	/**
+	 * Trains a MarkovChain on the corpus.
+	 *
+	 * @param level the level of the chain.
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @param limits the limits to train within, or null to keep all combinations.
+	 * @return the trained chain.
+	 */
+	public MarkovChain train(int level, ForkJoinPool pool, TrainingLimits limits) {
+		return train(level, pool, limits, false);
+	}
+
+	/**
+	 * Trains a MarkovChain on the corpus, and optionally a chain on the corpus
+	 * read backwards, see MarkovChain.getReverse().
+	 *
+	 * @param level the level of the chain.
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @param limits the limits to train within, or null to keep all combinations.
+	 * @param withReverse if the backwards chain should be trained as well.
+	 * @return the trained chain.
+	 */
+	public MarkovChain train(int level, ForkJoinPool pool, TrainingLimits limits, boolean withReverse) {
+		return new MarkovChain(alphabet.getSymbols(), codes, level, pool, limits, withReverse);
+	}
+
+	/**
+	 * Adds every word of the corpus, i.e. every run of characters between
+	 * separators, to a set.
+	 *
+	 * @param words the set to add to.
+	 */
+	public void addWords(WordSet words) {
+		SymbolTable symbols = alphabet.getSymbols();
+		StringBuilder word = new StringBuilder();
+		for(int i = 0; i < codes.length; i++) {
+			if(alphabet.isSeparator(codes[i])) {
+				if(word.length() > 0) {
+					words.add(word);
+					word.setLength(0);
+				}
+			} else {
+				word.append((String)symbols.symbolAt(codes[i]));
+			}
+		}
+	}
+
+	/**
+	 * Returns an estimate of the heap used by the corpus: its codes and about
+	 * 64 bytes per element for the element and its entries in the alphabet.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		return 4L * codes.length + 64L * alphabet.getSymbols().size();
+	}
+
+	/**
+	 * Returns the alphabet of the corpus, with line feeds and spaces as its
+	 * separators, counted as many times as they were read.
+	 *
+	 * @return the alphabet, using the same codes as the corpus.
+	 */
+	public Alphabet getAlphabet() {
+		return alphabet;
+	}
+
+	public SymbolTable getSymbols() {
+		return alphabet.getSymbols();
+	}
+
+	/**
+	 * Returns the input as element codes. The array itself is returned, so it
+	 * must not be changed.
+	 *
+	 * @return the codes.
+	 */
+	public int[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * Returns the amount of line feeds read, including the ones collapsed with
+	 * other whitespace. Carriage returns count as line feeds.
+	 *
+	 * @return the amount of line feeds.
+	 */
+	public int getLineFeeds() {
+		return lineFeeds;
+	}
+
+	/**
+	 * Returns the amount of spaces read, including the ones collapsed with
+	 * other whitespace.
+	 *
+	 * @return the amount of spaces.
+	 */
+	public int getSpaces() {
+		return spaces;
+	}
+
+	/**
+	 * Returns the amount of characters in the corpus, after collapsing whitespace.
+	 *
+	 * @return the length of the corpus.
+	 */
+	public int size() {
+		return codes.length;
+	}
+
+	public int getFileCount() {
+		return files;
+	}
+}
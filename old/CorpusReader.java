@@ -0,0 +1,510 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The CorpusReader reads the input of a MarkovChain from one or many files
+ * into a Corpus. Plain files are memory mapped, and files ending with ".gz"
+ * are decompressed, including files of many gzip members. The bytes are
+ * decoded as UTF-8 straight into Unicode code points, so characters outside
+ * of the Basic Multilingual Plane are kept whole.
+ *
+ * These rules are applied while decoding: carriage returns are line feeds,
+ * runs of spaces and line feeds are collapsed to their first character, other
+ * control characters are dropped, the rest of a line after the comment
+ * character is skipped, and everything can be made lower case. The corpus
+ * starts and ends with a line feed.
+ *
+ * Each file is decoded by its own task, in parallel, and the files are then
+ * joined in the order they were given.
+ */
+public class CorpusReader {
+
+	/**
+	 * The symbol of a line feed in the corpus.
+	 */
+	public static final String LINE_FEED = "\n";
+
+	/**
+	 * The symbol of a space in the corpus.
+	 */
+	public static final String SPACE = " ";
+
+	/**
+	 * The amount of bytes of a file mapped at once.
+	 */
+	private static final int MAP_SIZE = 1 << 28;
+
+	/**
+	 * The amount of bytes decompressed at once.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The code point that starts a comment, or -1 for none.
+	 */
+	private int commentChar;
+
+	/**
+	 * If all text should be made lower case.
+	 */
+	private boolean lowerCase;
+
+	/**
+	 * Constructs a new CorpusReader.
+	 *
+	 * @param commentChar the character that starts a comment, or null for none.
+	 * @param lowerCase if all text should be made lower case.
+	 */
+	public CorpusReader(String commentChar, boolean lowerCase) {
+		this.commentChar = commentChar == null || commentChar.length() == 0 ? -1 : commentChar.codePointAt(0);
+		this.lowerCase = lowerCase;
+	}
+
+	/**
+	 * Returns the files that an input argument stands for. The argument can be a
+	 * file, a directory, of which all files are read recursively, or a glob
+	 * pattern such as "corpus/*.txt" or "corpus/**.gz". The files of a directory
+	 * or pattern are sorted by path, so the order of the corpus is always the same.
+	 *
+	 * @param argument the file, directory or pattern.
+	 * @return the files, in order.
+	 * @throws IOException if nothing matches the argument.
+	 */
+	public static List expand(String argument) throws IOException {
+		List files = new ArrayList();
+		int wildcard = firstWildcard(argument);
+		if(wildcard == -1) {
+			File file = new File(argument);
+			if(file.isDirectory()) {
+				addFiles(file, null, files);
+			} else if(file.isFile()) {
+				files.add(file);
+			}
+		} else {
+			// Walks from the deepest directory without wildcards.
+			int slash = Math.max(argument.lastIndexOf('/', wildcard), argument.lastIndexOf(File.separatorChar, wildcard));
+			File base = new File(slash == -1 ? "." : argument.substring(0, slash + 1));
+			String pattern = slash == -1 ? argument : argument.substring(slash + 1);
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			addFiles(base, matcher, files);
+		}
+		if(files.isEmpty()) {
+			throw new IOException("No input files found at " + argument);
+		}
+		return files;
+	}
+
+	private static int firstWildcard(String argument) {
+		for(int i = 0; i < argument.length(); i++) {
+			if("*?[{".indexOf(argument.charAt(i)) != -1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the files below a directory to a list, sorted by path, keeping those
+	 * whose path relative to the directory matches the matcher, if any.
+	 */
+	private static void addFiles(File directory, PathMatcher matcher, List files) {
+		List found = new ArrayList();
+		collectFiles(directory, found);
+		File[] sorted = (File[])found.toArray(new File[found.size()]);
+		Arrays.sort(sorted);
+		for(int i = 0; i < sorted.length; i++) {
+			if(matcher == null || matcher.matches(directory.toPath().relativize(sorted[i].toPath()))) {
+				files.add(sorted[i]);
+			}
+		}
+	}
+
+	private static void collectFiles(File directory, List found) {
+		File[] children = directory.listFiles();
+		if(children == null) {
+			return;
+		}
+		for(int i = 0; i < children.length; i++) {
+			if(children[i].isDirectory()) {
+				collectFiles(children[i], found);
+			} else if(children[i].isFile()) {
+				found.add(children[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads files into a Corpus.
+	 *
+	 * @param files the files to read, as Files, in order.
+	 * @param pool the pool to decode the files in, or null to decode them one
+	 * by one on the calling thread.
+	 * @return the corpus.
+	 * @throws IOException if a file can't be read.
+	 * @throws IllegalArgumentException if the files hold no characters.
+	 */
+	public Corpus read(List files, ForkJoinPool pool) throws IOException {
+		Decoder[] decoders = new Decoder[files.size()];
+		for(int i = 0; i < decoders.length; i++) {
+			decoders[i] = new Decoder((File)files.get(i));
+		}
+		if(pool == null) {
+			for(int i = 0; i < decoders.length; i++) {
+				decoders[i].call();
+			}
+		} else {
+			List futures = pool.invokeAll(new ArrayList(Arrays.asList(decoders)));
+			for(int i = 0; i < futures.size(); i++) {
+				try {
+					((Future)futures.get(i)).get();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading " + files.get(i));
+				} catch (ExecutionException ee) {
+					if(ee.getCause() instanceof IOException) {
+						throw (IOException)ee.getCause();
+					}
+					throw new IllegalStateException("Could not read " + files.get(i), ee.getCause());
+				}
+			}
+		}
+
+		// Joins the files and interns their code points, which is cheap enough
+		// to do on one thread.
+		long length = 1;
+		int lineFeeds = 0;
+		int spaces = 0;
+		for(int i = 0; i < decoders.length; i++) {
+			length += decoders[i].size;
+			lineFeeds += decoders[i].lineFeeds;
+			spaces += decoders[i].spaces;
+		}
+		if(length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Input too large");
+		}
+		if(length < 3) {
+			throw new IllegalArgumentException("Incorrect input file");
+		}
+		Alphabet alphabet = new Alphabet(new SymbolTable());
+		Interner interner = new Interner(alphabet);
+		int[] codes = new int[(int)length];
+		int position = 0;
+		codes[position++] = interner.codeOf('\n');
+		for(int i = 0; i < decoders.length; i++) {
+			int[] points = decoders[i].codePoints;
+			for(int j = 0; j < decoders[i].size; j++) {
+				codes[position++] = interner.codeOf(points[j]);
+			}
+			// Frees the decoded file as soon as it has been interned.
+			decoders[i] = null;
+		}
+		addSeparator(alphabet, LINE_FEED, lineFeeds);
+		addSeparator(alphabet, SPACE, spaces);
+		return new Corpus(alphabet, codes, lineFeeds, spaces, files.size());
+	}
+
+	/**
+	 * Decodes a text into code points by the same rules as the files of a
+	 * corpus. Surrogate pairs are joined, and lone surrogates become U+FFFD like
+	 * malformed UTF-8 does. The reader isn't closed.
+	 *
+	 * @param reader the text to decode.
+	 * @return the code points, starting and ending with a line feed like a corpus.
+	 * @throws IOException if the text can't be read.
+	 */
+	public int[] decode(Reader reader) throws IOException {
+		Decoder decoder = new Decoder(reader);
+		decoder.add('\n');
+		decoder.call();
+		return Arrays.copyOf(decoder.codePoints, decoder.size);
+	}
+
+	/**
+	 * Makes a symbol of the corpus a separator occurring the given amount of
+	 * times. Separators that were always collapsed into others aren't symbols
+	 * of the corpus, and are left out.
+	 */
+	private static void addSeparator(Alphabet alphabet, String separator, int frequency) {
+		int code = alphabet.getSymbols().codeOf(separator);
+		if(code != SymbolTable.NO_SYMBOL) {
+			alphabet.setClass(code, Alphabet.SEPARATOR);
+			alphabet.addFrequency(code, frequency);
+		}
+	}
+
+	/**
+	 * Gives each code point the code of its one code point String, looking up
+	 * code points of the Basic Multilingual Plane in an array.
+	 */
+	private static class Interner {
+
+		private Alphabet alphabet;
+		private int[] bmpCodes = new int[0x10000];
+		private Map otherCodes = new HashMap();
+
+		Interner(Alphabet alphabet) {
+			this.alphabet = alphabet;
+			Arrays.fill(bmpCodes, -1);
+		}
+
+		int codeOf(int codePoint) {
+			if(codePoint < bmpCodes.length) {
+				if(bmpCodes[codePoint] == -1) {
+					bmpCodes[codePoint] = alphabet.intern(new String(Character.toChars(codePoint)));
+				}
+				return bmpCodes[codePoint];
+			}
+			Integer code = (Integer)otherCodes.get(Integer.valueOf(codePoint));
+			if(code == null) {
+				code = Integer.valueOf(alphabet.intern(new String(Character.toChars(codePoint))));
+				otherCodes.put(Integer.valueOf(codePoint), code);
+			}
+			return code.intValue();
+		}
+	}
+
+	/**
+	 * Decodes one file or text into code points, applying the rules of the reader.
+	 */
+	private class Decoder implements Callable {
+
+		private File file;
+
+		/**
+		 * The text to decode instead of a file, or null.
+		 */
+		private Reader reader;
+		private int[] codePoints = new int[1024];
+		private int size;
+		private int lineFeeds;
+		private int spaces;
+
+		/**
+		 * If the last character kept was whitespace. The file is read as if it
+		 * followed a line feed.
+		 */
+		private boolean whitespace = true;
+
+		/**
+		 * If the rest of the line is a comment.
+		 */
+		private boolean comment;
+
+		Decoder(File file) {
+			this.file = file;
+		}
+
+		Decoder(Reader reader) {
+			this.reader = reader;
+		}
+
+		public Object call() throws IOException {
+			if(reader != null) {
+				decodeChars();
+			} else if(file.getName().endsWith(".gz")) {
+				decodeCompressed();
+			} else {
+				decodeMapped();
+			}
+			// If the last character isn't a line feed, make it so.
+			if(size == 0 || codePoints[size - 1] != '\n') {
+				add('\n');
+			}
+			return null;
+		}
+
+		private void decodeMapped() throws IOException {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				long fileSize = channel.size();
+				grow((int)Math.min(fileSize + 1, Integer.MAX_VALUE - 8));
+				long position = 0;
+				while(position < fileSize) {
+					int length = (int)Math.min(MAP_SIZE, fileSize - position);
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+					position += decode(buffer, position + length == fileSize);
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		private void decodeCompressed() throws IOException {
+			// GZIPInputStream reads on past the end of each member into the next.
+			InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				while(true) {
+					int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+					if(read == -1) {
+						buffer.flip();
+						decode(buffer, true);
+						return;
+					}
+					buffer.position(buffer.position() + read);
+					buffer.flip();
+					decode(buffer, false);
+					buffer.compact();
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		private void decodeChars() throws IOException {
+			char[] buffer = new char[BUFFER_SIZE];
+			// A high surrogate waiting for the low one, which may be in the next read.
+			char high = 0;
+			int read;
+			while((read = reader.read(buffer)) != -1) {
+				for(int i = 0; i < read; i++) {
+					char c = buffer[i];
+					if(high != 0) {
+						if(Character.isLowSurrogate(c)) {
+							accept(Character.toCodePoint(high, c));
+							high = 0;
+							continue;
+						}
+						accept(0xFFFD);
+						high = 0;
+					}
+					if(Character.isHighSurrogate(c)) {
+						high = c;
+					} else {
+						accept(Character.isLowSurrogate(c) ? 0xFFFD : c);
+					}
+				}
+			}
+			if(high != 0) {
+				accept(0xFFFD);
+			}
+		}
+
+		/**
+		 * Decodes the bytes of a buffer, up to an incomplete character at its end
+		 * unless it is the last buffer, in which case that is a malformed one.
+		 *
+		 * @return the amount of bytes decoded.
+		 */
+		private int decode(ByteBuffer buffer, boolean last) {
+			int start = buffer.position();
+			int limit = buffer.limit();
+			int i = start;
+			while(i < limit) {
+				int b = buffer.get(i) & 0xFF;
+				if(b < 0x80) {
+					accept(b);
+					i++;
+					continue;
+				}
+				int length;
+				int codePoint;
+				if(b >= 0xF8) {
+					// Not the start of any character.
+					length = 1;
+					codePoint = 0xFFFD;
+				} else if(b >= 0xF0) {
+					length = 4;
+					codePoint = b & 0x07;
+				} else if(b >= 0xE0) {
+					length = 3;
+					codePoint = b & 0x0F;
+				} else if(b >= 0xC0) {
+					length = 2;
+					codePoint = b & 0x1F;
+				} else {
+					// A continuation byte without a start.
+					accept(0xFFFD);
+					i++;
+					continue;
+				}
+				if(i + length > limit && !last) {
+					break;
+				}
+				int j = 1;
+				for(; j < length && i + j < limit; j++) {
+					int next = buffer.get(i + j) & 0xFF;
+					if((next & 0xC0) != 0x80) {
+						break;
+					}
+					codePoint = (codePoint << 6) | (next & 0x3F);
+				}
+				if(j < length || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint < 0xE000)) {
+					codePoint = 0xFFFD;
+				}
+				accept(codePoint);
+				i += j;
+			}
+			buffer.position(i);
+			return i - start;
+		}
+
+		/**
+		 * Applies the rules of the reader to a decoded character.
+		 */
+		private void accept(int codePoint) {
+			// If it's a line feed or carriage return
+			if(codePoint == 0x000A || codePoint == 0x000D) {
+				if(!whitespace) {
+					add('\n');
+				}
+				lineFeeds++;
+				whitespace = true;
+				comment = false;
+			} else if(comment) {
+				return;
+			// If it's a blank space
+			} else if(codePoint == 0x0020) {
+				if(!whitespace) {
+					add(' ');
+				}
+				spaces++;
+				whitespace = true;
+			// If it's a comment character
+			} else if(codePoint == commentChar) {
+				comment = true;
+			// If it's an allowed character (above the 20 first ASCII:s)
+			} else if(codePoint > 0x0020) {
+				add(lowerCase ? Character.toLowerCase(codePoint) : codePoint);
+				whitespace = false;
+			// Else ignore
+			} else {
+				whitespace = false;
+			}
+		}
+
+		private void add(int codePoint) {
+			if(size == codePoints.length) {
+				grow(size * 2);
+			}
+			codePoints[size++] = codePoint;
+		}
+
+		private void grow(int capacity) {
+			if(capacity > codePoints.length) {
+				codePoints = Arrays.copyOf(codePoints, capacity);
+			}
+		}
+	}
+}
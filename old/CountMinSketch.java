@@ -0,0 +1,129 @@
+/**
+ * The CountMinSketch counts how many times each combination of elements occurs
+ * in an input, approximately, in a fixed amount of memory. Each combination is
+ * counted in one counter of each of a few rows, chosen by its hash, and its
+ * count is estimated as the lowest of those counters. Other combinations sharing
+ * a counter can only raise an estimate, so an estimate is never below the true
+ * count.
+ *
+ * It is used to train a MarkovChain within a memory budget: the input is first
+ * counted into a sketch, and only the combinations estimated to occur often
+ * enough are then counted exactly. See TrainingLimits.
+ */
+public class CountMinSketch {
+
+	/**
+	 * The hash of the empty combination, which the hashes of all combinations
+	 * are extended from. See extend().
+	 */
+	public static final long EMPTY = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The amount of rows.
+	 */
+	private static final int DEPTH = 4;
+
+	/**
+	 * The counters, row after row. The width of a row is a power of two.
+	 */
+	private int[] counters;
+
+	/**
+	 * The width of a row minus one.
+	 */
+	private int mask;
+
+	/**
+	 * Constructs a new, empty sketch.
+	 *
+	 * @param bytes the most memory the counters may use. At least 4 KB are used.
+	 */
+	public CountMinSketch(long bytes) {
+		int width = 256;
+		while((long)width * 2 * DEPTH * 4 <= bytes && width < (1 << 28)) {
+			width *= 2;
+		}
+		counters = new int[width * DEPTH];
+		mask = width - 1;
+	}
+
+	/**
+	 * Returns the hash of a combination with an element put in front of it,
+	 * so that the hashes of all combinations ending at a position can be found
+	 * by walking backwards from it, in the same way as the tree of a
+	 * ContextCounts is walked.
+	 *
+	 * @param hash the hash of the combination, EMPTY for the empty one.
+	 * @param symbol the code of the element to put in front.
+	 * @return the hash of the longer combination.
+	 */
+	public static long extend(long hash, int symbol) {
+		hash = (hash ^ symbol) * 0xBF58476D1CE4E5B9L;
+		hash ^= hash >>> 31;
+		hash *= 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Counts every combination of up to level elements ending at the positions
+	 * from (inclusive) to to (exclusive) of the codes, the same combinations as
+	 * ContextCounts.count() counts.
+	 *
+	 * @param codes the element codes of the input.
+	 * @param from the first position to count combinations ending at.
+	 * @param to the position after the last one to count combinations ending at.
+	 * @param level the maximum length of the combinations.
+	 */
+	public void count(int[] codes, int from, int to, int level) {
+		to = Math.min(to, codes.length - 1);
+		for(int i = from; i < to; i++) {
+			long hash = EMPTY;
+			int first = Math.max(0, i - level + 1);
+			for(int j = i; j >= first; j--) {
+				hash = extend(hash, codes[j]);
+				add(hash);
+			}
+		}
+	}
+
+	/**
+	 * Counts one occurrence of a combination.
+	 *
+	 * @param hash the hash of the combination.
+	 */
+	public void add(long hash) {
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32) | 1;
+		for(int row = 0; row < DEPTH; row++) {
+			int index = row * (mask + 1) + ((h1 + row * h2) & mask);
+			if(counters[index] != Integer.MAX_VALUE) {
+				counters[index]++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated amount of occurrences of a combination.
+	 *
+	 * @param hash the hash of the combination.
+	 * @return the estimate, never below the true amount.
+	 */
+	public int estimate(long hash) {
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32) | 1;
+		int estimate = Integer.MAX_VALUE;
+		for(int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, counters[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Returns the memory used by the counters.
+	 *
+	 * @return the size of the sketch in bytes.
+	 */
+	public long getBytes() {
+		return 4L * counters.length;
+	}
+}
@@ -0,0 +1,563 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A GenerationJob reads its input, or loads a model, and writes the words
+ * generated from it to an output file, as set by a GeneratorConfig. It is what
+ * WordMain runs for the command line, and it can be run in-process just the
+ * same: nothing is kept in static fields, and errors are thrown, with messages
+ * that can be shown to the user, instead of ending the JVM.
+ *
+ * Jobs run with the same JobResources share their corpora and trained models,
+ * see BatchRunner.
+ */
+public class GenerationJob {
+
+	/**
+	 * The arguments of a job, as given to WordMain or on a line of a manifest.
+	 */
+	public static final String USAGE = "Usage: java WordMain in=filname out=filename cfg=filename [model=filename [verify=1]] [metrics=filename] [debug=filename]\n" +
+			"Input can be given many times, as files, directories or glob patterns like in=corpus/*.txt\n" +
+			"A model file is loaded without verifying its checksum unless verify=1 is given";
+
+	/**
+	 * The character that delimits words.
+	 */
+	private static final String LINE_FEED = "\n";
+
+	private GeneratorConfig config;
+	private List inputFiles;
+	private String outputFile;
+	private String configFile;
+	private String modelFile;
+
+	/**
+	 * If the checksum of a loaded model file is verified, which reads the
+	 * whole file.
+	 */
+	private boolean verifyModel;
+	private String metricsFile;
+
+	/**
+	 * The file the trained Markov chain is exported to, or null for none.
+	 */
+	private String debugFile;
+
+	/**
+	 * The name the metrics of the job are published under through JMX.
+	 */
+	private String name = "WordMain";
+
+	/**
+	 * Where the words that couldn't be generated are reported.
+	 */
+	private PrintStream log = System.out;
+
+	/**
+	 * The key of the model the job generates from in the registry of its
+	 * resources, or null if the model isn't shared.
+	 */
+	private String modelKey;
+
+	/**
+	 * Constructs a new GenerationJob.
+	 *
+	 * @param config the settings of the job.
+	 * @param inputFiles the inputs as Strings, each a file, a directory or a glob
+	 * pattern; see CorpusReader.expand(). May be empty if a model file is loaded.
+	 * @param outputFile the file to write the words to.
+	 */
+	public GenerationJob(GeneratorConfig config, List inputFiles, String outputFile) {
+		this.config = config;
+		this.inputFiles = new ArrayList(inputFiles);
+		this.outputFile = outputFile;
+	}
+
+	/**
+	 * Constructs a job from arguments like those of WordMain, such as
+	 * "in=words.txt", "out=names.txt" and "cfg=names.cfg", reading its config
+	 * file.
+	 *
+	 * @param args the arguments.
+	 * @return the job.
+	 * @throws IOException if the config file can't be read.
+	 * @throws IllegalArgumentException with USAGE as the message if an argument
+	 * is missing, or if the config file can't be parsed.
+	 */
+	public static GenerationJob parse(String[] args) throws IOException {
+		List inputFiles = new ArrayList();
+		String outputFile = null;
+		String configFile = null;
+		String modelFile = null;
+		boolean verifyModel = false;
+		String metricsFile = null;
+		String debugFile = null;
+		for(int i=0; i<args.length; i++) {
+			if(args[i].startsWith("in=") && args[i].length() > 3) {
+				inputFiles.add(args[i].substring(3));
+			} else if (args[i].startsWith("out=") && args[i].length() > 4) {
+				outputFile = args[i].substring(4);
+			} else if (args[i].startsWith("cfg=") && args[i].length() > 4) {
+				configFile = args[i].substring(4);
+			} else if (args[i].startsWith("model=") && args[i].length() > 6) {
+				modelFile = args[i].substring(6);
+			} else if (args[i].startsWith("verify=")) {
+				verifyModel = args[i].substring(7).equals("1");
+			} else if (args[i].startsWith("metrics=") && args[i].length() > 8) {
+				metricsFile = args[i].substring(8);
+			} else if (args[i].startsWith("debug=") && args[i].length() > 6) {
+				debugFile = args[i].substring(6);
+			}
+		}
+		if((inputFiles.isEmpty() && (modelFile == null || !new File(modelFile).exists())) ||
+				outputFile == null || configFile == null) {
+			throw new IllegalArgumentException(USAGE);
+		}
+		GenerationJob job = new GenerationJob(GeneratorConfig.read(configFile), inputFiles, outputFile);
+		job.configFile = configFile;
+		job.modelFile = modelFile;
+		job.verifyModel = verifyModel;
+		job.metricsFile = metricsFile;
+		job.debugFile = debugFile;
+		return job;
+	}
+
+	/**
+	 * Runs the job on its own, reading its input and training its model.
+	 *
+	 * @return the report of the job, as lines.
+	 * @throws IOException if a file can't be read or written.
+	 * @throws IllegalArgumentException if the config is incorrect or no word
+	 * can be generated with it.
+	 */
+	public String run() throws IOException {
+		return run(null);
+	}
+
+	/**
+	 * Runs the job, taking its corpus and model from shared resources if it
+	 * reads an input. The generated words are the same either way.
+	 *
+	 * @param resources the resources shared with other jobs, or null for none.
+	 * @return the report of the job, as lines.
+	 * @throws IOException if a file can't be read or written.
+	 * @throws IllegalArgumentException if the config is incorrect or no word
+	 * can be generated with it.
+	 */
+	public String run(JobResources resources) throws IOException {
+		config.validate();
+
+		// A model file that exists replaces the input file, one that doesn't is
+		// written after training on the input file.
+		boolean loadModel = modelFile != null && new File(modelFile).exists();
+		if(inputFiles.isEmpty() && !loadModel) {
+			throw new IllegalArgumentException("No input files or model file given.");
+		}
+
+		int level = config.getLevel();
+		String prefix = config.getPrefix();
+		String infix = config.getInfix();
+		String suffix = config.getSuffix();
+		int minWordLength = config.getMinWordLength();
+		int maxWordLength = config.getMaxWordLength();
+		int wordsToGenerate = config.getWordsToGenerate();
+		long randomSeed = config.getRandomSeed();
+		boolean onlyNewWords = config.isOnlyNewWords();
+		boolean printAsList = config.isPrintAsList();
+
+		Corpus corpus = null;
+		// The words of the input, only kept when generating new words. A loaded
+		// model has no input, so then only repeated words are avoided.
+		WordSet inputWords = onlyNewWords && !loadModel ? new WordSet() : null;
+
+		WordGenerator wordGen;
+		if(loadModel) {
+			try {
+				// The model holds the separators of its input and their frequencies.
+				wordGen = WordGenerator.load(new File(modelFile), verifyModel);
+				level = wordGen.getMarkovChain().getLevel();
+			} catch (IOException ioe) {
+				throw new IOException("Model file incorrect or unreadable: " + ioe.getMessage(), ioe);
+			}
+		} else {
+			// Each input argument can be a file, a directory or a glob pattern,
+			// and the files are decoded in parallel.
+			ForkJoinPool pool = config.getThreads() > 1 ? new ForkJoinPool(config.getThreads()) : null;
+			try {
+				List files = new ArrayList();
+				String contentHash = null;
+				try {
+					for(int i = 0; i < inputFiles.size(); i++) {
+						files.addAll(CorpusReader.expand((String)inputFiles.get(i)));
+					}
+					if(resources == null) {
+						corpus = new CorpusReader(config.getCommentChar(), config.isLowerCaseMode()).read(files, pool);
+					} else {
+						contentHash = ModelRegistry.contentHash(files);
+						corpus = resources.getCorpus(files, contentHash, config.isLowerCaseMode(),
+								config.getCommentChar(), pool);
+					}
+				} catch (FileNotFoundException fnfe) {
+					throw new FileNotFoundException("Input file not found at specified location.");
+				} catch (IOException ioe) {
+					throw new IOException("Input file incorrect or unreadable: " + ioe.getMessage(), ioe);
+				}
+				if(inputWords != null) {
+					corpus.addWords(inputWords);
+				}
+				wordGen = train(corpus, contentHash, resources, pool);
+			} finally {
+				if(pool != null) {
+					pool.shutdown();
+				}
+			}
+			wordGen.setKnownWords(inputWords);
+			if(modelFile != null) {
+				try {
+					wordGen.save(new File(modelFile));
+				} catch (IOException ioe) {
+					throw new IOException("Could not write to model file. Check file permissions.", ioe);
+				}
+			}
+		}
+
+		// Checks that words within the length bounds can be generated at all
+		// before generating any.
+		if((infix.length() > 0 || suffix.length() > 0) && wordGen.getMarkovChain().getReverse() == null) {
+			throw new IllegalArgumentException("Words with a given middle or end can't be generated from a model file, give the input instead.");
+		}
+		boolean possible;
+		if(printAsList) {
+			possible = wordGen.canGenerate(LINE_FEED, false, minWordLength, maxWordLength) ||
+					wordGen.canGenerate(" ", false, minWordLength, maxWordLength);
+		} else {
+			possible = wordGen.canGenerate(LINE_FEED, true, minWordLength, maxWordLength);
+		}
+		if(!possible) {
+			throw new IllegalArgumentException("No word between " + minWordLength + " and " + maxWordLength +
+					" characters can be generated, try a lower level or other lengths.");
+		}
+
+		// Publishes the metrics through JMX, so that a long run can be watched
+		// with a tool like JConsole.
+		Metrics.register(wordGen.getMetrics(), "GenerationMetrics", name);
+		Metrics.register(wordGen.getMarkovChain().getTrainingMetrics(), "TrainingMetrics", name);
+		long generationStart = System.nanoTime();
+
+		try {
+
+			// The words are written on a thread of their own, compressed if the
+			// output file is named like "names.txt.gz".
+			final WordWriter writer = new WordWriter(new File(outputFile), config.getLineFeedOut(),
+					Charset.defaultCharset(), outputFile.endsWith(".gz"));
+
+			try {
+				if(config.hasFragments()) {
+					// Builds each word outwards from its fragments, on this thread.
+					SplittableRandom random = new SplittableRandom(randomSeed);
+					WordSet emitted = onlyNewWords ? new WordSet() : null;
+					for(int i = 1; i <= wordsToGenerate; i++) {
+						String word = wordGen.generateConstrained(prefix, infix, suffix, minWordLength, maxWordLength, random);
+						for(int tries = 1; word != null && emitted != null && !emitted.add(word); tries++) {
+							wordGen.getMetrics().recordDuplicate();
+							word = tries < WordGenerator.MAX_NOVELTY_TRIES ? wordGen.generateConstrained(prefix,
+									infix, suffix, minWordLength, maxWordLength, random) : null;
+						}
+						if(word == null) {
+							log.println("Could not generate word #" + i +
+									" with the given fragments, try a lower level or other lengths.");
+						} else {
+							writeWord(writer, word);
+							if(!printAsList) {
+								writer.write(" ");
+							}
+						}
+					}
+				} else if(printAsList && config.isMostProbableFirst()) {
+					// Lists the most probable words after a line feed, or after a space
+					// in an input without line feeds, most probable first.
+					String seed = wordGen.canGenerate(LINE_FEED, false, minWordLength, maxWordLength) ? LINE_FEED : " ";
+					WordEnumerator words = wordGen.enumerate(seed, false, minWordLength, maxWordLength, wordsToGenerate);
+					int listed = 0;
+					while(words.hasNext()) {
+						writeWord(writer, (String)words.next());
+						listed++;
+					}
+					if(listed < wordsToGenerate) {
+						log.println("Only " + listed + " words could be listed, try a lower level or other lengths.");
+					}
+				} else if(printAsList) {
+					// The words don't depend on each other, so they are generated in
+					// parallel and written in order as they become ready.
+					int generated = wordGen.generate(wordsToGenerate, randomSeed, minWordLength, maxWordLength,
+							config.getThreads(), onlyNewWords, new WordSink() {
+								public void accept(int index, String word) {
+									if(word == null) {
+										log.println("Could not generate word #" + (index + 1) +
+												", try a lower level.");
+									} else {
+										writeWord(writer, word);
+									}
+								}
+							});
+					if(generated < wordsToGenerate) {
+						log.println("Only " + generated + " new words could be generated, try a lower level.");
+					}
+				} else {
+					SplittableRandom random = new SplittableRandom(randomSeed);
+
+					// Sets the "last" word to a LF to simulate the start of a sentence.
+					StringBuilder lastWord = new StringBuilder(LINE_FEED);
+					WordSet emitted = onlyNewWords ? new WordSet() : null;
+					// The words are generated into one builder by a cursor, which
+					// only looks up the seed when it changes.
+					WordCursor cursor = wordGen.newCursor(true, minWordLength, maxWordLength);
+					StringBuilder word = new StringBuilder();
+
+					for(int i = 1; i <= wordsToGenerate; i++) {
+						// The seed is the end of the last word, as long as the level.
+						cursor.setSeed(lastWord);
+						// Generate the word with the given seed and set it to generate an ending
+						// whitespace. The word is always within the length bounds, or none is
+						// generated if none can follow the seed.
+						word.setLength(0);
+						int length = cursor.generateWord(word, random);
+						// A repeated word is retried, without its ending whitespace.
+						for(int tries = 1; length != -1 && emitted != null &&
+								!emitted.add(word.substring(0, length - 1)); tries++) {
+							wordGen.getMetrics().recordDuplicate();
+							word.setLength(0);
+							length = tries < WordGenerator.MAX_NOVELTY_TRIES ? cursor.generateWord(word, random) : -1;
+						}
+						if(length == -1) {
+							log.println("Could not generate word #" + i +
+									", try a lower level.");
+						} else {
+							lastWord.setLength(0);
+							if(config.isPrintAsNames()) {
+								lastWord.append(formatWord(word.toString()));
+							} else {
+								lastWord.append(word);
+							}
+							writer.write(lastWord);
+						}
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException ioe) {
+			throw new IOException("Could not write to output file. Check file permissions.", ioe);
+		}
+		long generationNanos = System.nanoTime() - generationStart;
+		if(modelKey != null) {
+			// The samplers of the job are cached in the shared model now.
+			resources.getRegistry().weigh(modelKey);
+		}
+		if(metricsFile != null) {
+			try {
+				PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(metricsFile)));
+				writer.print("run.level=" + level + "\n");
+				writer.print("run.threads=" + config.getThreads() + "\n");
+				writer.print("run.seed=" + randomSeed + "\n");
+				writer.print("run.generation.ms=" + generationNanos / 1000000 + "\n");
+				writer.print("run.words.per.second=" +
+						(generationNanos == 0 ? 0 : wordsToGenerate * 1000000000L / generationNanos) + "\n");
+				writer.print(wordGen.getMarkovChain().getTrainingMetrics().summary());
+				writer.print(wordGen.getMetrics().summary());
+				writer.close();
+			} catch (IOException ioe) {
+				throw new IOException("Could not write to metrics file. Check file permissions.", ioe);
+			}
+		}
+		if(debugFile != null) {
+			// Streams the chain with counted followers and statistics, since
+			// repeated followers make the file many times larger.
+			try {
+				BufferedWriter writer = new BufferedWriter(new FileWriter(debugFile));
+				ChainExporter exporter = new ChainExporter(wordGen.getMarkovChain());
+				exporter.setCounted(true);
+				exporter.setStatistics(true);
+				exporter.export(writer);
+				writer.close();
+			} catch (IOException ioe) {
+				throw new IOException("Could not write to debug file. Check file permissions.", ioe);
+			}
+		}
+
+		StringWriter report = new StringWriter();
+		PrintWriter out = new PrintWriter(report);
+		if(loadModel) {
+			out.println("Model file: " + modelFile + ", " + wordGen.getMarkovChain().getNodeCount() + " nodes loaded.");
+		} else {
+			out.println("Input files: " + inputFiles + ", " + corpus.getFileCount() + " files, " +
+					corpus.size() + " characters read.");
+		}
+		out.println("Output file: " + outputFile + ", " + wordsToGenerate + " words written.");
+		out.println("Configuration file: " + configFile);
+		out.println("Complexity level: " + level);
+		out.println("Maxmimum word length: " + maxWordLength);
+		out.println("Minimum word length: " + minWordLength);
+		out.println("Print as list: " + printAsList);
+		out.println("Print as names: " + config.isPrintAsNames());
+		out.println("Make all text lower case: " + config.isLowerCaseMode());
+		out.println("Comment character: " + config.getCommentChar());
+		out.println("Random seed: " + randomSeed);
+		out.println("Only new words: " + onlyNewWords);
+		out.println("Most probable words: " + config.isMostProbableFirst());
+		if(config.hasFragments()) {
+			out.println("Words start with \"" + prefix + "\", contain \"" + infix +
+					"\" and end with \"" + suffix + "\".");
+		}
+		if(config.getMemoryBudget() > 0) {
+			TrainingMetrics training = wordGen.getMarkovChain().getTrainingMetrics();
+			out.println("Memory budget: " + config.getMemoryBudget() + " MB, combinations kept above " +
+					training.getContextThreshold() + " occurrences, " + training.getPrunedFollowers() +
+					" followers pruned.");
+		}
+		out.close();
+		return report.toString();
+	}
+
+	/**
+	 * Trains the chain of a corpus, or takes it from the registry of the
+	 * resources. A shared model is handed out through WordGenerator.share(),
+	 * since the known words and the metrics of a generator belong to its job,
+	 * while its samplers are cached in the registry's generator.
+	 */
+	private WordGenerator train(final Corpus corpus, String contentHash, JobResources resources,
+			final ForkJoinPool pool) throws IOException {
+		final int level = config.getLevel();
+		final TrainingLimits limits;
+		String key = ModelRegistry.key(contentHash, level, config.isLowerCaseMode(), config.getCommentChar());
+		if(config.getMemoryBudget() > 0) {
+			// Drops the rarest combinations of the input to stay within the budget.
+			limits = new TrainingLimits(config.getMemoryBudget() * 1024L * 1024L, 2, config.getMinFollowerCount());
+			key += "/budget=" + config.getMemoryBudget() + "/followers=" + config.getMinFollowerCount();
+		} else {
+			limits = null;
+		}
+		// Words are only built backwards from an infix or suffix.
+		final boolean withReverse = config.getInfix().length() > 0 || config.getSuffix().length() > 0;
+		if(withReverse) {
+			key += "/reverse=1";
+		}
+		if(resources == null) {
+			return new WordGenerator(corpus.train(level, pool, limits, withReverse), corpus.getAlphabet());
+		}
+		WordGenerator shared = resources.getRegistry().get(key, new Callable() {
+			public Object call() {
+				return new WordGenerator(corpus.train(level, pool, limits, withReverse), corpus.getAlphabet());
+			}
+		});
+		modelKey = key;
+		return shared.share();
+	}
+
+	/**
+	 * Formats a generated word for the output, as a name if printAsNames and
+	 * followed by a line feed if printAsList.
+	 *
+	 * @param word the generated word.
+	 * @return the formatted word.
+	 */
+	private String formatWord(String word) {
+		if(config.isPrintAsNames()) {
+			word = word.substring(0,1).toUpperCase() + word.substring(1);
+		}
+		if(config.isPrintAsList()) {
+			word += LINE_FEED;
+		}
+		return word;
+	}
+
+	/**
+	 * Writes a generated word formatted like by formatWord(), without building
+	 * the formatted word. The writer replaces the line feeds with the output
+	 * line feed.
+	 *
+	 * @param writer the writer of the output.
+	 * @param word the generated word.
+	 */
+	private void writeWord(WordWriter writer, String word) {
+		if(config.isPrintAsNames() && !Character.isHighSurrogate(word.charAt(0))) {
+			writer.write(word.substring(0,1).toUpperCase());
+			writer.write(word, 1, word.length());
+		} else {
+			// Half a surrogate pair isn't upper cased, so such a name is written whole.
+			writer.write(word);
+		}
+		if(config.isPrintAsList()) {
+			writer.write(LINE_FEED);
+		}
+	}
+
+	public GeneratorConfig getConfig() {
+		return config;
+	}
+
+	public String getOutputFile() {
+		return outputFile;
+	}
+
+	/**
+	 * @param configFile the name of the config file, shown in the report.
+	 */
+	public void setConfigFile(String configFile) {
+		this.configFile = configFile;
+	}
+
+	/**
+	 * @param modelFile the model file to load, or to save the trained model to
+	 * if it doesn't exist, or null for none.
+	 */
+	public void setModelFile(String modelFile) {
+		this.modelFile = modelFile;
+	}
+
+	/**
+	 * @param metricsFile the file to write the metrics to, or null for none.
+	 */
+	public void setMetricsFile(String metricsFile) {
+		this.metricsFile = metricsFile;
+	}
+
+	/**
+	 * @param debugFile the file to export the trained chain to, or null for none.
+	 */
+	public void setDebugFile(String debugFile) {
+		this.debugFile = debugFile;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name the name the metrics of the job are published under through JMX.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param log where the words that couldn't be generated are reported.
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+}
@@ -0,0 +1,245 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The GenerationMetrics counts what happens when a WordGenerator generates
+ * words, so that it can be seen why words fail or batches are slow. Any amount
+ * of threads can record to it without locking. The metrics can be published
+ * through JMX with Metrics.register(), and written as a summary with summary().
+ *
+ * Words within length bounds are drawn directly by a LengthConstrainedSampler,
+ * so they need one try each. For comparison, the metrics also tell how many
+ * tries each word would have needed if words were generated freely and
+ * rejected when outside the bounds, and why they would have been rejected.
+ */
+public class GenerationMetrics implements GenerationMetricsMBean {
+
+	private LongAdder wordsGenerated = new LongAdder();
+	private LongAdder wordsFailed = new LongAdder();
+	private LongAdder tries = new LongAdder();
+	private LongAdder nullPredictions = new LongAdder();
+	private LongAdder noWordInBounds = new LongAdder();
+	private LongAdder knownWords = new LongAdder();
+	private LongAdder duplicates = new LongAdder();
+
+	/**
+	 * The sums over all bounded words of the expected tries under rejection,
+	 * and of the probabilities of a freely generated word being too short or
+	 * too long (or never ending).
+	 */
+	private DoubleAdder expectedTries = new DoubleAdder();
+	private DoubleAdder tooShortShare = new DoubleAdder();
+	private DoubleAdder tooLongShare = new DoubleAdder();
+	private LongAdder boundedWords = new LongAdder();
+
+	/**
+	 * The amount of times a context of each length wasn't found in the chain
+	 * and a shorter one had to be used. Index 0 is unused.
+	 */
+	private AtomicLongArray contextMisses;
+
+	private LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Constructs new, empty metrics.
+	 *
+	 * @param level the level of the generator, the longest context that can miss.
+	 */
+	public GenerationMetrics(int level) {
+		contextMisses = new AtomicLongArray(level + 1);
+	}
+
+	/**
+	 * Records a generated word, or a failure to generate one.
+	 *
+	 * @param word the generated word, or null if none could be generated.
+	 * @param tries the amount of tries the generation took.
+	 * @param nanos the time the generation took.
+	 */
+	public void recordWord(String word, int tries, long nanos) {
+		recordWord(word != null, tries, nanos);
+	}
+
+	/**
+	 * Records a generated word, or a failure to generate one, for words that
+	 * aren't generated as Strings.
+	 *
+	 * @param generated if a word was generated.
+	 * @param tries the amount of tries the generation took.
+	 * @param nanos the time the generation took.
+	 */
+	public void recordWord(boolean generated, int tries, long nanos) {
+		if(generated) {
+			wordsGenerated.increment();
+		} else {
+			wordsFailed.increment();
+		}
+		this.tries.add(tries);
+		latency.record(nanos);
+	}
+
+	/**
+	 * Records that a word was drawn within length bounds from a context.
+	 *
+	 * @param inBounds the probability that a free word from the context is within
+	 * the bounds.
+	 * @param tooShort the probability that a free word from the context is too short.
+	 */
+	public void recordBounded(double inBounds, double tooShort) {
+		if(inBounds <= 0.0) {
+			noWordInBounds.increment();
+			return;
+		}
+		boundedWords.increment();
+		expectedTries.add(1.0 / inBounds);
+		tooShortShare.add(tooShort);
+		tooLongShare.add(Math.max(0.0, 1.0 - inBounds - tooShort));
+	}
+
+	/**
+	 * Records that no follower could be predicted during free generation.
+	 */
+	public void recordNullPrediction() {
+		nullPredictions.increment();
+	}
+
+	/**
+	 * Records that a generated word was rejected because it is a known word.
+	 */
+	public void recordKnownWord() {
+		knownWords.increment();
+	}
+
+	/**
+	 * Records that a generated word was rejected because it was already generated.
+	 */
+	public void recordDuplicate() {
+		duplicates.increment();
+	}
+
+	/**
+	 * Records that a context wasn't found in the chain.
+	 *
+	 * @param length the length of the context that missed.
+	 */
+	public void recordContextMiss(int length) {
+		if(length > 0 && length < contextMisses.length()) {
+			contextMisses.incrementAndGet(length);
+		}
+	}
+
+	public long getWordsGenerated() {
+		return wordsGenerated.sum();
+	}
+
+	public long getWordsFailed() {
+		return wordsFailed.sum();
+	}
+
+	public long getNullPredictions() {
+		return nullPredictions.sum();
+	}
+
+	public long getNoWordInBounds() {
+		return noWordInBounds.sum();
+	}
+
+	public long getKnownWordRejections() {
+		return knownWords.sum();
+	}
+
+	public long getDuplicateRejections() {
+		return duplicates.sum();
+	}
+
+	public double getTriesPerWord() {
+		long words = wordsGenerated.sum();
+		return words == 0 ? 0.0 : (double)tries.sum() / words;
+	}
+
+	public double getExpectedTriesUnderRejection() {
+		long words = boundedWords.sum();
+		return words == 0 ? 0.0 : expectedTries.sum() / words;
+	}
+
+	public double getExpectedTooShortShare() {
+		long words = boundedWords.sum();
+		return words == 0 ? 0.0 : tooShortShare.sum() / words;
+	}
+
+	public double getExpectedTooLongShare() {
+		long words = boundedWords.sum();
+		return words == 0 ? 0.0 : tooLongShare.sum() / words;
+	}
+
+	public long[] getContextMissesByLevel() {
+		long[] misses = new long[contextMisses.length()];
+		for(int i = 0; i < misses.length; i++) {
+			misses[i] = contextMisses.get(i);
+		}
+		return misses;
+	}
+
+	public double getLatencyMeanMicros() {
+		return latency.getMean() / 1000.0;
+	}
+
+	public double getLatencyP50Micros() {
+		return latency.percentile(0.50) / 1000.0;
+	}
+
+	public double getLatencyP99Micros() {
+		return latency.percentile(0.99) / 1000.0;
+	}
+
+	public double getLatencyMaxMicros() {
+		return latency.getMax() / 1000.0;
+	}
+
+	public void reset() {
+		wordsGenerated.reset();
+		wordsFailed.reset();
+		tries.reset();
+		nullPredictions.reset();
+		noWordInBounds.reset();
+		knownWords.reset();
+		duplicates.reset();
+		expectedTries.reset();
+		tooShortShare.reset();
+		tooLongShare.reset();
+		boundedWords.reset();
+		for(int i = 0; i < contextMisses.length(); i++) {
+			contextMisses.set(i, 0);
+		}
+		latency.reset();
+	}
+
+	/**
+	 * Returns the metrics as lines of "generation.name=value", for machines to read.
+	 *
+	 * @return the summary of the metrics.
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		Metrics.line(summary, "generation.words.generated", getWordsGenerated());
+		Metrics.line(summary, "generation.words.failed", getWordsFailed());
+		Metrics.line(summary, "generation.tries.per.word", getTriesPerWord());
+		Metrics.line(summary, "generation.rejected.null.prediction", getNullPredictions());
+		Metrics.line(summary, "generation.rejected.no.word.in.bounds", getNoWordInBounds());
+		Metrics.line(summary, "generation.rejected.known.word", getKnownWordRejections());
+		Metrics.line(summary, "generation.rejected.duplicate", getDuplicateRejections());
+		Metrics.line(summary, "generation.rejection.expected.tries.per.word", getExpectedTriesUnderRejection());
+		Metrics.line(summary, "generation.rejection.expected.too.short", getExpectedTooShortShare());
+		Metrics.line(summary, "generation.rejection.expected.too.long", getExpectedTooLongShare());
+		long[] misses = getContextMissesByLevel();
+		for(int i = 1; i < misses.length; i++) {
+			Metrics.line(summary, "generation.context.misses.level." + i, misses[i]);
+		}
+		Metrics.line(summary, "generation.latency.mean.us", getLatencyMeanMicros());
+		Metrics.line(summary, "generation.latency.p50.us", getLatencyP50Micros());
+		Metrics.line(summary, "generation.latency.p99.us", getLatencyP99Micros());
+		Metrics.line(summary, "generation.latency.max.us", getLatencyMaxMicros());
+		return summary.toString();
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * The management interface of GenerationMetrics, as published through JMX.
+ */
+public interface GenerationMetricsMBean {
+
+	public long getWordsGenerated();
+
+	public long getWordsFailed();
+
+	public long getNullPredictions();
+
+	public long getNoWordInBounds();
+
+	public long getKnownWordRejections();
+
+	public long getDuplicateRejections();
+
+	public double getTriesPerWord();
+
+	public double getExpectedTriesUnderRejection();
+
+	public double getExpectedTooShortShare();
+
+	public double getExpectedTooLongShare();
+
+	public long[] getContextMissesByLevel();
+
+	public double getLatencyMeanMicros();
+
+	public double getLatencyP50Micros();
+
+	public double getLatencyP99Micros();
+
+	public double getLatencyMaxMicros();
+
+	public void reset();
+}
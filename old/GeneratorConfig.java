@@ -0,0 +1,328 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+import java.util.SplittableRandom;
+
+/**
+ * The GeneratorConfig holds the settings of a GenerationJob: how the input is
+ * read, how the Markov chain is trained and which words are generated. A new
+ * config has the defaults of WordMain, except for the level, the amount of
+ * words and the length bounds, which must always be set.
+ *
+ * A config can be read from a config file of lines like
+ * "Complexity level            =[3]", see read(). Nothing is read or checked
+ * until a job runs, so a config can be built in code and reused by many jobs,
+ * as long as it isn't changed while they run.
+ */
+public class GeneratorConfig {
+
+	private int level;
+	private int wordsToGenerate;
+	private int maxWordLength;
+	private int minWordLength;
+	private boolean printAsList = true;
+	private boolean printAsNames = false;
+	private boolean lowerCaseMode = true;
+	private String commentChar;
+	private String lineFeedOut = "\n";
+	private long randomSeed = new SplittableRandom().nextLong();
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean onlyNewWords = false;
+	private boolean mostProbableFirst = false;
+	private String prefix = "";
+	private String infix = "";
+	private String suffix = "";
+	private int memoryBudget = 0;
+	private int minFollowerCount = 1;
+
+	/**
+	 * Reads a config file. Each line names a setting and gives its value
+	 * within "=[" and "]", as in "Random seed                 =[42]". The
+	 * spacing before "=[" doesn't matter, and lines that aren't settings are
+	 * skipped. Settings that aren't given keep their defaults.
+	 *
+	 * @param file the name of the config file.
+	 * @return the config.
+	 * @throws IOException if the file can't be read.
+	 * @throws IllegalArgumentException if a value can't be parsed.
+	 */
+	public static GeneratorConfig read(String file) throws IOException {
+		GeneratorConfig config = new GeneratorConfig();
+		BufferedReader reader;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+		} catch (FileNotFoundException fnfe) {
+			throw new FileNotFoundException("Configuration file not found at specified location.");
+		}
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				int open = line.indexOf("=[");
+				int close = line.lastIndexOf(']');
+				if(open == -1 || close < open + 2) {
+					continue;
+				}
+				config.set(line.substring(0, open).trim(), line.substring(open + 2, close));
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Incorrect config file; could not parse the numbers.");
+		} catch (IOException ioe) {
+			throw new IOException("Configuration file incorrect or unreadable.", ioe);
+		} finally {
+			reader.close();
+		}
+		return config;
+	}
+
+	/**
+	 * Sets a setting by its name in a config file.
+	 *
+	 * @param name the name, such as "Complexity level".
+	 * @param value the value as written in a config file.
+	 * @throws NumberFormatException if a number can't be parsed.
+	 */
+	private void set(String name, String value) {
+		if(name.equals("Complexity level")) {
+			level = Integer.parseInt(value);
+		} else if(name.equals("Number of words to generate")) {
+			wordsToGenerate = Integer.parseInt(value);
+		} else if(name.equals("Maximum allowed word length")) {
+			maxWordLength = Integer.parseInt(value);
+		} else if(name.equals("Minimum allowed word length")) {
+			minWordLength = Integer.parseInt(value);
+		} else if(name.equals("Print as list")) {
+			printAsList = flag(value, printAsList);
+		} else if(name.equals("Print as names")) {
+			printAsNames = flag(value, printAsNames);
+		} else if(name.equals("Make all text lower case")) {
+			lowerCaseMode = flag(value, lowerCaseMode);
+		} else if(name.equals("Comment character")) {
+			// Should only be one character long
+			commentChar = value.length() > 0 ? value.substring(0, 1) : null;
+		} else if(name.equals("Line feed style")) {
+			if(value.equals("U")) {
+				lineFeedOut = "\n";
+			} else if(value.equals("W")) {
+				lineFeedOut = "\r\n";
+			} else if(value.equals("M")) {
+				lineFeedOut = "\r";
+			}
+		} else if(name.equals("Random seed")) {
+			// Optional, a random seed is used if not given
+			if(value.length() > 0) {
+				randomSeed = Long.parseLong(value);
+			}
+		} else if(name.equals("Threads")) {
+			// Optional, all processors are used if not given
+			if(value.length() > 0) {
+				threads = Integer.parseInt(value);
+			}
+		} else if(name.equals("Only new words")) {
+			onlyNewWords = flag(value, onlyNewWords);
+		} else if(name.equals("Most probable words")) {
+			mostProbableFirst = flag(value, mostProbableFirst);
+		} else if(name.equals("Words start with")) {
+			prefix = value;
+		} else if(name.equals("Words contain")) {
+			infix = value;
+		} else if(name.equals("Words end with")) {
+			suffix = value;
+		} else if(name.equals("Memory budget (MB)")) {
+			// Optional, all combinations are kept if not given
+			if(value.length() > 0) {
+				memoryBudget = Integer.parseInt(value);
+			}
+		} else if(name.equals("Minimum follower count")) {
+			// Optional, only used with a memory budget
+			if(value.length() > 0) {
+				minFollowerCount = Integer.parseInt(value);
+			}
+		}
+	}
+
+	private static boolean flag(String value, boolean current) {
+		if(value.equals("1")) {
+			return true;
+		} else if(value.equals("0")) {
+			return false;
+		}
+		return current;
+	}
+
+	/**
+	 * Checks that the settings can be used.
+	 *
+	 * @throws IllegalArgumentException if a setting is out of range.
+	 */
+	public void validate() {
+		if(level < 1 || wordsToGenerate < 1 || maxWordLength < 1 ||
+				minWordLength < 1 || threads < 1 || memoryBudget < 0 || minFollowerCount < 1) {
+			throw new IllegalArgumentException("Incorrect config file; zero or negative values.");
+		}
+	}
+
+	/**
+	 * Tells if the words are built from fragments, see WordGenerator.generateConstrained().
+	 *
+	 * @return true if a prefix, infix or suffix is set.
+	 */
+	public boolean hasFragments() {
+		return prefix.length() > 0 || infix.length() > 0 || suffix.length() > 0;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public int getWordsToGenerate() {
+		return wordsToGenerate;
+	}
+
+	public void setWordsToGenerate(int wordsToGenerate) {
+		this.wordsToGenerate = wordsToGenerate;
+	}
+
+	public int getMaxWordLength() {
+		return maxWordLength;
+	}
+
+	public void setMaxWordLength(int maxWordLength) {
+		this.maxWordLength = maxWordLength;
+	}
+
+	public int getMinWordLength() {
+		return minWordLength;
+	}
+
+	public void setMinWordLength(int minWordLength) {
+		this.minWordLength = minWordLength;
+	}
+
+	public boolean isPrintAsList() {
+		return printAsList;
+	}
+
+	public void setPrintAsList(boolean printAsList) {
+		this.printAsList = printAsList;
+	}
+
+	public boolean isPrintAsNames() {
+		return printAsNames;
+	}
+
+	public void setPrintAsNames(boolean printAsNames) {
+		this.printAsNames = printAsNames;
+	}
+
+	public boolean isLowerCaseMode() {
+		return lowerCaseMode;
+	}
+
+	public void setLowerCaseMode(boolean lowerCaseMode) {
+		this.lowerCaseMode = lowerCaseMode;
+	}
+
+	public String getCommentChar() {
+		return commentChar;
+	}
+
+	/**
+	 * @param commentChar the character that starts a comment, or null for none.
+	 */
+	public void setCommentChar(String commentChar) {
+		this.commentChar = commentChar;
+	}
+
+	public String getLineFeedOut() {
+		return lineFeedOut;
+	}
+
+	/**
+	 * @param lineFeedOut the character(s) that replace all line feeds in the
+	 * output, such as "\r\n".
+	 */
+	public void setLineFeedOut(String lineFeedOut) {
+		this.lineFeedOut = lineFeedOut;
+	}
+
+	public long getRandomSeed() {
+		return randomSeed;
+	}
+
+	public void setRandomSeed(long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public boolean isOnlyNewWords() {
+		return onlyNewWords;
+	}
+
+	public void setOnlyNewWords(boolean onlyNewWords) {
+		this.onlyNewWords = onlyNewWords;
+	}
+
+	public boolean isMostProbableFirst() {
+		return mostProbableFirst;
+	}
+
+	public void setMostProbableFirst(boolean mostProbableFirst) {
+		this.mostProbableFirst = mostProbableFirst;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public void setPrefix(String prefix) {
+		this.prefix = prefix == null ? "" : prefix;
+	}
+
+	public String getInfix() {
+		return infix;
+	}
+
+	public void setInfix(String infix) {
+		this.infix = infix == null ? "" : infix;
+	}
+
+	public String getSuffix() {
+		return suffix;
+	}
+
+	public void setSuffix(String suffix) {
+		this.suffix = suffix == null ? "" : suffix;
+	}
+
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget the most megabytes the chain may use, or 0 for no limit.
+	 */
+	public void setMemoryBudget(int memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public int getMinFollowerCount() {
+		return minFollowerCount;
+	}
+
+	public void setMinFollowerCount(int minFollowerCount) {
+		this.minFollowerCount = minFollowerCount;
+	}
+}
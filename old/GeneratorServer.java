@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The GeneratorServer keeps WordGenerators trained on one input file resident
+ * and serves words over HTTP, so that generating a batch doesn't cost a JVM
+ * start and a retraining every time. One generator is trained per level, the
+ * first time the level is asked for, and is then shared by all requests. The
+ * generators are kept in a ModelRegistry, so that levels not asked for
+ * recently are dropped when the generators outgrow the cache.
+ *
+ * Requests are made as
+ * GET /generate?count=N&amp;level=L&amp;min=A&amp;max=B[&amp;seed=S]
+ * and answered with the words as UTF-8 text, one per line. Each request is
+ * handled on its own virtual thread when the JVM supports them (Java 21 and
+ * later), and on a pooled platform thread otherwise. The metrics of each
+ * generator are published through JMX, named after its level.
+ *
+ * The input can be a file, a directory or a glob pattern; see CorpusReader.
+ *
+ * Usage: java GeneratorServer in=filename [port=n] [comment=c] [lowercase=0|1] [cache=MB]
+ */
+public class GeneratorServer {
+
+	/**
+	 * The highest level that can be asked for.
+	 */
+	private static final int MAX_LEVEL = 12;
+
+	/**
+	 * The most words that can be asked for in one request.
+	 */
+	private static final int MAX_COUNT = 1000000;
+
+	/**
+	 * The longest words that can be asked for. The tables of the length bounded
+	 * generation grow with the maximum length, for every node of the chain.
+	 */
+	private static final int MAX_LENGTH = 64;
+
+	/**
+	 * The input of the generators, shared by all levels.
+	 */
+	private Corpus corpus;
+
+	/**
+	 * The hash of the input and how it was read, which together with the level
+	 * make the keys of the generators.
+	 */
+	private String contentHash;
+	private boolean lowerCase;
+	private String commentChar;
+
+	/**
+	 * The generator of each level. A level asked for by many requests at once
+	 * is only trained once.
+	 */
+	private ModelRegistry registry;
+
+	/**
+	 * Constructs a new GeneratorServer for an already read input, keeping the
+	 * generators of all levels asked for.
+	 *
+	 * @param corpus the input to generate words from.
+	 */
+	public GeneratorServer(Corpus corpus) {
+		this(corpus, "corpus@" + System.identityHashCode(corpus), false, null, new ModelRegistry(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Constructs a new GeneratorServer for an already read input, keeping its
+	 * generators in a registry that may be shared with other servers.
+	 *
+	 * @param corpus the input to generate words from.
+	 * @param contentHash the hash of the input files, see ModelRegistry.contentHash().
+	 * @param lowerCase if the input was made lower case.
+	 * @param commentChar the character that started comments in the input, or null.
+	 * @param registry the registry to keep the generators in.
+	 */
+	public GeneratorServer(Corpus corpus, String contentHash, boolean lowerCase, String commentChar,
+			ModelRegistry registry) {
+		this.corpus = corpus;
+		this.contentHash = contentHash;
+		this.lowerCase = lowerCase;
+		this.commentChar = commentChar;
+		this.registry = registry;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String inputFile = null;
+		String commentChar = "#";
+		boolean lowerCase = true;
+		int port = 8080;
+		// Keeps the generators within a quarter of the heap by default.
+		long cacheBytes = Runtime.getRuntime().maxMemory() / 4;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=") && args[i].length() > 3) {
+				inputFile = args[i].substring(3);
+			} else if(args[i].startsWith("port=")) {
+				port = Integer.parseInt(args[i].substring(5));
+			} else if(args[i].startsWith("comment=") && args[i].length() > 8) {
+				commentChar = args[i].substring(8, 9);
+			} else if(args[i].startsWith("lowercase=")) {
+				lowerCase = args[i].substring(10).equals("1");
+			} else if(args[i].startsWith("cache=")) {
+				cacheBytes = Long.parseLong(args[i].substring(6)) * 1024L * 1024L;
+			}
+		}
+		if(inputFile == null) {
+			System.out.println("Usage: java GeneratorServer in=filename [port=n] [comment=c] [lowercase=0|1] [cache=MB]");
+			System.exit(0);
+		}
+
+		List files = CorpusReader.expand(inputFile);
+		Corpus corpus = new CorpusReader(commentChar, lowerCase).read(files, ForkJoinPool.commonPool());
+		ModelRegistry registry = new ModelRegistry(cacheBytes);
+		Metrics.register(registry.getMetrics(), "RegistryMetrics", "GeneratorServer");
+		new GeneratorServer(corpus, ModelRegistry.contentHash(files), lowerCase, commentChar, registry).start(port);
+		System.out.println("Serving words from " + inputFile + " on port " + port + ".");
+	}
+
+	/**
+	 * Starts serving requests on the given port.
+	 *
+	 * @param port the port to listen on.
+	 * @return the started server, which can be stopped by the caller.
+	 * @throws IOException if the port can't be bound.
+	 */
+	public HttpServer start(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/generate", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleGenerate(exchange);
+			}
+		});
+		server.setExecutor(requestExecutor());
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread if the JVM
+	 * supports them, or else a pool of platform threads. The virtual thread
+	 * executor is looked up by reflection so that the server still runs on JVMs
+	 * before Java 21.
+	 */
+	private static ExecutorService requestExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handleGenerate(HttpExchange exchange) throws IOException {
+		try {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				respond(exchange, 405, "Only GET is supported\n");
+				return;
+			}
+			Map parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			int count = intParameter(parameters, "count", 1, MAX_COUNT, 1);
+			int level = intParameter(parameters, "level", 1, MAX_LEVEL, 3);
+			int min = intParameter(parameters, "min", 1, MAX_LENGTH, 1);
+			int max = intParameter(parameters, "max", min, MAX_LENGTH, Math.max(min, 12));
+			long seed;
+			if(parameters.containsKey("seed")) {
+				seed = Long.parseLong((String)parameters.get("seed"));
+			} else {
+				seed = new SplittableRandom().nextLong();
+			}
+
+			final StringBuilder body = new StringBuilder(count * 8);
+			// Each request generates on its own thread; requests are concurrent
+			// with each other instead.
+			generator(level).generate(count, seed, min, max, 1, new WordSink() {
+				public void accept(int index, String word) {
+					if(word != null) {
+						body.append(word).append('\n');
+					}
+				}
+			});
+			respond(exchange, 200, body.toString());
+		} catch (IllegalArgumentException iae) {
+			respond(exchange, 400, iae.getMessage() + "\n");
+		} catch (RuntimeException re) {
+			respond(exchange, 500, "Could not generate words: " + re + "\n");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Returns the generator of a level, training it if it isn't in the registry.
+	 * Requests for a level that is being trained wait for that training instead
+	 * of starting another one.
+	 */
+	private WordGenerator generator(int level) {
+		final int trainLevel = level;
+		try {
+			return registry.get(ModelRegistry.key(contentHash, level, lowerCase, commentChar), new Callable() {
+				public Object call() {
+					WordGenerator generator = new WordGenerator(corpus.train(trainLevel, null, null), corpus.getAlphabet());
+					String name = "level " + trainLevel;
+					Metrics.register(generator.getMetrics(), "GenerationMetrics", name);
+					Metrics.register(generator.getMarkovChain().getTrainingMetrics(), "TrainingMetrics", name);
+					return generator;
+				}
+			});
+		} catch (IOException ioe) {
+			// Training from a corpus in memory reads no files.
+			throw new IllegalStateException("Could not train level " + level, ioe);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static Map parseQuery(String query) throws UnsupportedEncodingException {
+		Map parameters = new HashMap();
+		if(query == null) {
+			return parameters;
+		}
+		String[] pairs = query.split("&");
+		for(int i = 0; i < pairs.length; i++) {
+			int equals = pairs[i].indexOf('=');
+			if(equals > 0) {
+				parameters.put(URLDecoder.decode(pairs[i].substring(0, equals), "UTF-8"),
+						URLDecoder.decode(pairs[i].substring(equals + 1), "UTF-8"));
+			}
+		}
+		return parameters;
+	}
+
+	private static int intParameter(Map parameters, String name, int min, int max, int missing) {
+		String value = (String)parameters.get(name);
+		if(value == null) {
+			return missing;
+		}
+		int number;
+		try {
+			number = Integer.parseInt(value);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Parameter " + name + " is not a number");
+		}
+		if(number < min || number > max) {
+			throw new IllegalArgumentException("Parameter " + name + " must be from " + min + " to " + max);
+		}
+		return number;
+	}
+}
@@ -0,0 +1,60 @@
+import java.io.IOException;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The JobResources are shared by GenerationJobs run in the same JVM, so that
+ * an input used by many jobs is read once, and a model trained with the same
+ * parameters is trained once. Corpora are keyed by the hash of their files and
+ * how they are read. Both are kept in a ModelRegistry, within its memory
+ * budget, so a corpus that isn't used anymore is evicted like a model.
+ *
+ * Like a model, a corpus is read by the first job asking for it, and jobs
+ * asking for it meanwhile wait for that read.
+ */
+public class JobResources {
+
+	private ModelRegistry registry;
+
+	/**
+	 * Constructs new, empty JobResources.
+	 *
+	 * @param registry the registry the corpora and trained models are kept in.
+	 */
+	public JobResources(ModelRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Returns the corpus of input files, reading it if it isn't in the registry.
+	 *
+	 * @param files the input files, in order; see CorpusReader.expand().
+	 * @param contentHash the hash of the files, see ModelRegistry.contentHash().
+	 * @param lowerCase if the input is made lower case.
+	 * @param commentChar the character that starts a comment, or null for none.
+	 * @param pool the pool to read in, or null to read sequentially.
+	 * @return the corpus.
+	 * @throws IOException if the files can't be read.
+	 */
+	public Corpus getCorpus(final List files, String contentHash, final boolean lowerCase,
+			final String commentChar, final ForkJoinPool pool) throws IOException {
+		// A corpus doesn't depend on the level, so all are keyed as level 0.
+		String key = ModelRegistry.key(contentHash, 0, lowerCase, commentChar);
+		return registry.getCorpus(key, new Callable() {
+			public Object call() throws IOException {
+				return new CorpusReader(commentChar, lowerCase).read(files, pool);
+			}
+		});
+	}
+
+	/**
+	 * Returns the registry the trained models are kept in.
+	 *
+	 * @return the registry.
+	 */
+	public ModelRegistry getRegistry() {
+		return registry;
+	}
+}
@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds that any amount of threads can
+ * record to without locking. Latencies are counted in buckets that grow
+ * exponentially, with eight buckets per power of two, so a percentile is
+ * accurate to within 12.5 percent whatever the size of the latencies.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The amount of buckets per power of two, as a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/**
+	 * The amount of latencies recorded in each bucket.
+	 */
+	private AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BUCKET_BITS);
+
+	private LongAdder count = new LongAdder();
+	private LongAdder sum = new LongAdder();
+	private volatile long max;
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		sum.add(nanos);
+		// Racing updates of the maximum may lose a value, which is acceptable
+		// for monitoring.
+		if(nanos > max) {
+			max = nanos;
+		}
+	}
+
+	/**
+	 * Returns the bucket of a latency: the position of its highest bit, followed
+	 * by the bits below it.
+	 */
+	private static int bucketOf(long nanos) {
+		if(nanos < (1L << SUB_BUCKET_BITS)) {
+			return (int)nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int fraction = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + fraction;
+	}
+
+	/**
+	 * Returns the highest latency that falls in a bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if(bucket < (1 << SUB_BUCKET_BITS)) {
+			return bucket;
+		}
+		int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		long fraction = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+		long lower = (1L << exponent) | (fraction << (exponent - SUB_BUCKET_BITS));
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Returns a latency that the given share of all recorded latencies are at
+	 * or below.
+	 *
+	 * @param share the share, from 0 to 1, for example 0.99 for the 99th percentile.
+	 * @return the latency in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long percentile(double share) {
+		long total = 0;
+		long[] counts = new long[buckets.length()];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long target = (long)Math.ceil(share * total);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= target && counts[i] > 0) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean of the recorded latencies.
+	 *
+	 * @return the mean latency in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double)sum.sum() / n;
+	}
+
+	/**
+	 * Forgets all recorded latencies.
+	 */
+	public void reset() {
+		for(int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max = 0;
+	}
+}
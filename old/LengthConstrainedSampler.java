@@ -0,0 +1,437 @@
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * The LengthConstrainedSampler generates words from a MarkovChain that are
+ * always within given length bounds. Instead of generating words freely and
+ * throwing away the ones that are too short or too long, it precomputes for
+ * every node of the chain the probability that a word continuing from the node
+ * has each of the allowed remaining lengths. Words are then drawn directly
+ * amongst the words within the bounds, with the same relative probabilities
+ * as they would have had when generated freely, so every draw is accepted.
+ *
+ * The table holds one probability per node and allowed length, so the memory
+ * used grows with both the size of the chain and the maximum word length.
+ */
+public class LengthConstrainedSampler {
+
+	/**
+	 * The Markov chain that words are generated from.
+	 */
+	private MarkovChain markovChain;
+
+	/**
+	 * The codes of the elements that separate words.
+	 */
+	private BitSet separators;
+
+	/**
+	 * If the separator ending a word is part of the word (and its length).
+	 */
+	private boolean generateWhitespace;
+
+	/**
+	 * The minimum amount of non-separator elements in a word.
+	 */
+	private int minLetters;
+
+	/**
+	 * The maximum amount of non-separator elements in a word.
+	 */
+	private int maxLetters;
+
+	/**
+	 * The probability that a word continuing from a node has exactly n more
+	 * non-separator elements, stored at node * (maxLetters + 1) + n.
+	 */
+	private double[] mass;
+
+	/**
+	 * The highest probability of any one word continuing from a node with
+	 * exactly n more non-separator elements, stored like mass. Only used for
+	 * enumerating words, so computed when first needed. Without whitespace,
+	 * the words ending with different separators are the same word, so the
+	 * separators count together.
+	 */
+	private volatile double[] best;
+
+	/**
+	 * Constructs a new LengthConstrainedSampler and computes its tables.
+	 *
+	 * @param markovChain the Markov chain to generate words from.
+	 * @param separators the codes of the elements that separate words. The set
+	 * is not copied, and must not be changed afterwards.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param generateWhitespace if the separator ending a word should be
+	 * appended to it, in which case it counts towards the length of the word.
+	 * @throws IllegalArgumentException if the minimum length is above the
+	 * maximum, or the tables for the maximum length would be too large.
+	 */
+	public LengthConstrainedSampler(MarkovChain markovChain, BitSet separators,
+			int minLength, int maxLength, boolean generateWhitespace) {
+		if(minLength > maxLength) {
+			throw new IllegalArgumentException("Minimum length above maximum length; incorrect");
+		}
+		this.markovChain = markovChain;
+		this.separators = separators;
+		this.generateWhitespace = generateWhitespace;
+		int separatorLength = generateWhitespace ? 1 : 0;
+		minLetters = Math.max(0, minLength - separatorLength);
+		maxLetters = maxLength - separatorLength;
+		computeMass();
+	}
+
+	/**
+	 * Computes the probability of each remaining length for every node, from
+	 * the shortest length up, since the probability of n more elements from a
+	 * node only depends on the probabilities of n - 1 more elements from the
+	 * nodes following it.
+	 */
+	private void computeMass() {
+		int nodeCount = markovChain.getNodeCount();
+		if(maxLetters < 0) {
+			mass = new double[0];
+			return;
+		}
+		int width = maxLetters + 1;
+		mass = new double[tableSize(nodeCount, width)];
+		for(int n = 0; n < width; n++) {
+			for(int node = 0; node < nodeCount; node++) {
+				double sum = 0.0;
+				for(int i = markovChain.followerStart(node); i < markovChain.followerEnd(node); i++) {
+					sum += markovChain.followerProbability(node, i) * continuationMass(i, n);
+				}
+				mass[node * width + n] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Returns the size of a table of width lengths for every node, which must
+	 * fit in an array.
+	 */
+	private static int tableSize(int nodeCount, int width) {
+		long size = (long)nodeCount * width;
+		if(size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Maximum length " + (width - 1) + " too large for a chain of "
+					+ nodeCount + " nodes");
+		}
+		return (int)size;
+	}
+
+	/**
+	 * Returns the probability that a word has exactly n more non-separator
+	 * elements once the given follower has been generated.
+	 *
+	 * @param index the index of the follower.
+	 * @param n the amount of non-separator elements left, including the follower.
+	 * @return the probability of the remaining length.
+	 */
+	private double continuationMass(int index, int n) {
+		if(isSeparator(markovChain.followerSymbol(index))) {
+			return n == 0 ? 1.0 : 0.0;
+		}
+		int next = markovChain.followerNext(index);
+		if(n == 0 || next == -1) {
+			return 0.0;
+		}
+		return mass[next * (maxLetters + 1) + n - 1];
+	}
+
+	boolean isSeparator(int symbol) {
+		return symbol >= 0 && separators.get(symbol);
+	}
+
+	/**
+	 * Returns the highest probability of any one word continuing from a node
+	 * that ends within the length bounds, which bounds the probability of every
+	 * word starting with the elements generated so far, and is reached by one.
+	 *
+	 * @param node the id of the node the word is at.
+	 * @param letters the amount of non-separator elements generated so far.
+	 * @return the highest probability, 0 if no word within the bounds follows.
+	 */
+	double bestCompletion(int node, int letters) {
+		if(node == -1 || letters > maxLetters) {
+			return 0.0;
+		}
+		double[] table = bestTable();
+		int width = maxLetters + 1;
+		double max = 0.0;
+		for(int n = Math.max(0, minLetters - letters); n <= maxLetters - letters; n++) {
+			max = Math.max(max, table[node * width + n]);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the table of the highest probabilities, computed like the mass
+	 * table but with the most probable follower in place of the sum over all
+	 * followers, and the sum over the separators in place of the most probable
+	 * one when whitespace isn't generated. Two threads may compute it at once;
+	 * both get an equal table.
+	 */
+	private double[] bestTable() {
+		double[] table = best;
+		if(table != null) {
+			return table;
+		}
+		int nodeCount = markovChain.getNodeCount();
+		int width = maxLetters + 1;
+		table = new double[tableSize(nodeCount, width)];
+		for(int n = 0; n < width; n++) {
+			for(int node = 0; node < nodeCount; node++) {
+				double max = 0.0;
+				double ending = 0.0;
+				for(int i = markovChain.followerStart(node); i < markovChain.followerEnd(node); i++) {
+					double p = markovChain.followerProbability(node, i);
+					if(isSeparator(markovChain.followerSymbol(i))) {
+						if(n != 0) {
+							continue;
+						}
+						if(generateWhitespace) {
+							max = Math.max(max, p);
+						} else {
+							ending += p;
+						}
+					} else {
+						int next = markovChain.followerNext(i);
+						if(n != 0 && next != -1) {
+							max = Math.max(max, p * table[next * width + n - 1]);
+						}
+					}
+				}
+				table[node * width + n] = Math.max(max, ending);
+			}
+		}
+		best = table;
+		return table;
+	}
+
+	int getMinLetters() {
+		return minLetters;
+	}
+
+	int getMaxLetters() {
+		return maxLetters;
+	}
+
+	boolean isGenerateWhitespace() {
+		return generateWhitespace;
+	}
+
+	MarkovChain getMarkovChain() {
+		return markovChain;
+	}
+
+	/**
+	 * Returns an estimate of the amount of bytes used by the tables of the
+	 * sampler, which hold a double per node of the chain and length.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		double[] table = best;
+		return 8L * mass.length + (table == null ? 0 : 8L * table.length);
+	}
+
+	/**
+	 * Returns the probability that a word generated freely from the given node
+	 * would be within the length bounds.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @return the probability of a word within the bounds, 0 if none is possible.
+	 */
+	public double probability(int node) {
+		if(node == -1 || maxLetters < 0) {
+			return 0.0;
+		}
+		double sum = 0.0;
+		for(int n = minLetters; n <= maxLetters; n++) {
+			sum += mass[node * (maxLetters + 1) + n];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the probability that a word generated freely from the given node
+	 * would be shorter than the minimum length.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @return the probability of a too short word.
+	 */
+	public double shortProbability(int node) {
+		if(node == -1 || maxLetters < 0) {
+			return 0.0;
+		}
+		double sum = 0.0;
+		for(int n = 0; n < minLetters; n++) {
+			sum += mass[node * (maxLetters + 1) + n];
+		}
+		return sum;
+	}
+
+	/**
+	 * Generates a word within the length bounds, starting from the given node.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @return a word within the length bounds, or null if no such word can be
+	 * generated from the node.
+	 */
+	public String generateWord(int node) {
+		return generateWord(node, MarkovChain.threadRandom());
+	}
+
+	/**
+	 * Generates a word within the length bounds, starting from the given node.
+	 * The sampler is not changed by generating, so any amount of threads can
+	 * generate from it at once, each with its own random number generator.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @param random the random number generator to draw with.
+	 * @return a word within the length bounds, or null if no such word can be
+	 * generated from the node.
+	 */
+	public String generateWord(int node, SplittableRandom random) {
+		StringBuilder word = new StringBuilder();
+		return generateWord(node, random, word) == -1 ? null : word.toString();
+	}
+
+	/**
+	 * Generates a word within the length bounds like
+	 * generateWord(int,SplittableRandom), with the same draws, but appends it
+	 * to a StringBuilder instead of returning it, so that nothing is allocated
+	 * once the builder has grown to the longest word.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @param random the random number generator to draw with.
+	 * @param word the builder to append the word to.
+	 * @return the amount of chars appended, or -1 if no word within the length
+	 * bounds can be generated from the node, in which case nothing is appended.
+	 */
+	public int generateWord(int node, SplittableRandom random, StringBuilder word) {
+		// Chooses the amount of non-separator elements of the word first.
+		int n = drawLength(node, random);
+		if(n == -1) {
+			return -1;
+		}
+		return generateWord(node, n, random, word);
+	}
+
+	/**
+	 * Draws the amount of non-separator elements of a word continuing from a
+	 * node, amongst the lengths within the bounds, with the probabilities they
+	 * would have when generated freely.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @param random the random number generator to draw with.
+	 * @return the amount of elements, or -1 if no word within the length bounds
+	 * can be generated from the node.
+	 */
+	int drawLength(int node, SplittableRandom random) {
+		double total = probability(node);
+		if(total <= 0.0) {
+			return -1;
+		}
+		int width = maxLetters + 1;
+		double target = random.nextDouble() * total;
+		int n = -1;
+		for(int length = minLetters; length <= maxLetters; length++) {
+			double weight = mass[node * width + length];
+			if(weight > 0.0) {
+				n = length;
+				if((target -= weight) < 0.0) {
+					break;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the probability that a word generated freely from the given node
+	 * has exactly n more non-separator elements.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @param n the amount of non-separator elements, from 0 to the maximum.
+	 * @return the probability of the length, 0 if n is outside the bounds.
+	 */
+	double lengthMass(int node, int n) {
+		if(node == -1 || n < 0 || n > maxLetters) {
+			return 0.0;
+		}
+		return mass[node * (maxLetters + 1) + n];
+	}
+
+	/**
+	 * Generates a word with exactly n more non-separator elements, starting
+	 * from the given node, as generated freely amongst the words of that length.
+	 *
+	 * @param node the id of the node to start from, or -1.
+	 * @param n the amount of non-separator elements of the word.
+	 * @param random the random number generator to draw with.
+	 * @return the word, or null if no word of the length follows the node.
+	 */
+	String generateWord(int node, int n, SplittableRandom random) {
+		StringBuilder word = new StringBuilder();
+		return generateWord(node, n, random, word) == -1 ? null : word.toString();
+	}
+
+	/**
+	 * Generates a word with exactly n more non-separator elements like
+	 * generateWord(int,int,SplittableRandom), appending it to a StringBuilder.
+	 *
+	 * @return the amount of chars appended, or -1 if no word of the length
+	 * follows the node.
+	 */
+	int generateWord(int node, int n, SplittableRandom random, StringBuilder word) {
+		if(lengthMass(node, n) <= 0.0) {
+			return -1;
+		}
+		int length = word.length();
+		while(true) {
+			int chosen = drawFollower(node, n, random);
+			int symbol = markovChain.followerSymbol(chosen);
+			if(isSeparator(symbol)) {
+				if(generateWhitespace) {
+					word.append((String)markovChain.symbolAt(symbol));
+				}
+				return word.length() - length;
+			}
+			word.append((String)markovChain.symbolAt(symbol));
+			node = markovChain.followerNext(chosen);
+			n--;
+		}
+	}
+
+	/**
+	 * Draws the next element of a word with exactly n more non-separator
+	 * elements, amongst the followers of a node that can end the word after
+	 * that many, with the probabilities they would have when generated freely.
+	 * Drawing a separator ends the word, and n must then be 0. Otherwise the
+	 * word goes on from the node the follower leads to with n - 1 elements.
+	 *
+	 * @param node the id of the node the word is at, which must have a word of
+	 * the length, see lengthMass().
+	 * @param n the amount of non-separator elements left.
+	 * @param random the random number generator to draw with.
+	 * @return the index of the follower.
+	 */
+	int drawFollower(int node, int n, SplittableRandom random) {
+		int start = markovChain.followerStart(node);
+		int end = markovChain.followerEnd(node);
+		double target = random.nextDouble() * mass[node * (maxLetters + 1) + n];
+		int chosen = -1;
+		for(int i = start; i < end; i++) {
+			double weight = markovChain.followerProbability(node, i) * continuationMass(i, n);
+			if(weight > 0.0) {
+				chosen = i;
+				if((target -= weight) < 0.0) {
+					break;
+				}
+			}
+		}
+		return chosen;
+	}
+}
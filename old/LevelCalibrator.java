@@ -0,0 +1,539 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The LevelCalibrator finds a good Markov level for an input and a config,
+ * instead of guessing the "Complexity level" setting. Every tenth line of the
+ * input is held out, and chains of every level in a range are trained on the
+ * rest and measured on three things:
+ *
+ * - how well the chain predicts the held out lines, as cross-entropy in bits
+ * per character, which falls as the level rises until the chain only knows
+ * its input by heart;
+ * - the acceptance rate: the share of the words generated within the length
+ * bounds of the config that are kept, which if it only asks for new words are
+ * those that are neither a word of the input nor a repeat. High levels mostly
+ * repeat their input, and a word fails once MAX_NOVELTY_TRIES tries in a row
+ * are rejected. The share of free words that would be within the bounds is
+ * reported as well;
+ * - how many accepted words a second are generated.
+ *
+ * The input is counted only once, at the highest level, and the tables of the
+ * lower levels are truncated copies of it, see ContextCounts.truncate(). The
+ * levels are then done one at a time: a level is compiled, its held out lines
+ * are scored in parallel shards, and its speed is measured alone. Its chain
+ * is dropped before the next level is compiled, so only one chain is held next
+ * to the counts at once.
+ *
+ * The recommended level is the fastest one whose cross-entropy is within
+ * QUALITY_TOLERANCE of the best one, amongst the levels that fail at most
+ * MAX_FAILURE of their words.
+ */
+public class LevelCalibrator {
+
+	private static final String USAGE = "Usage: java LevelCalibrator in=filename [in=filename ...] cfg=configfile [levels=min-max] [report=filename]";
+
+	/**
+	 * Every line with an index of this many times n, minus one, is held out.
+	 */
+	private static final int HOLD_OUT_EVERY = 10;
+
+	/**
+	 * The largest share of words that may fail for a level to be recommended.
+	 */
+	public static final double MAX_FAILURE = 0.01;
+
+	/**
+	 * How much more cross-entropy than the best level a recommended level may
+	 * have, as a share of the best.
+	 */
+	public static final double QUALITY_TOLERANCE = 0.02;
+
+	/**
+	 * The amount of words generated to measure the acceptance rate and speed.
+	 */
+	private static final int SAMPLE_WORDS = 20000;
+
+	/**
+	 * The amount of held out characters scored by each task.
+	 */
+	private static final int SCORE_SHARD_SIZE = 1 << 15;
+
+	private GeneratorConfig config;
+	private int minLevel;
+	private int maxLevel;
+
+	/**
+	 * Constructs a new LevelCalibrator.
+	 *
+	 * @param config the config whose length bounds, comment character, case
+	 * and novelty settings words are generated with. Its level is ignored.
+	 * @param minLevel the lowest level to try.
+	 * @param maxLevel the highest level to try.
+	 */
+	public LevelCalibrator(GeneratorConfig config, int minLevel, int maxLevel) {
+		if(minLevel < 1 || maxLevel < minLevel) {
+			throw new IllegalArgumentException("Incorrect level range " + minLevel + "-" + maxLevel);
+		}
+		this.config = config;
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+	}
+
+	public static void main(String[] args) throws IOException {
+		List inputFiles = new ArrayList();
+		String configFile = null;
+		String reportFile = null;
+		int minLevel = 1;
+		int maxLevel = 8;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].startsWith("in=") && args[i].length() > 3) {
+					inputFiles.add(args[i].substring(3));
+				} else if(args[i].startsWith("cfg=") && args[i].length() > 4) {
+					configFile = args[i].substring(4);
+				} else if(args[i].startsWith("report=") && args[i].length() > 7) {
+					reportFile = args[i].substring(7);
+				} else if(args[i].startsWith("levels=")) {
+					String range = args[i].substring(7);
+					int dash = range.indexOf('-');
+					minLevel = Integer.parseInt(dash == -1 ? range : range.substring(0, dash));
+					maxLevel = Integer.parseInt(dash == -1 ? range : range.substring(dash + 1));
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			inputFiles.clear();
+		}
+		if(inputFiles.isEmpty() || configFile == null) {
+			System.out.println(USAGE);
+			return;
+		}
+
+		try {
+			GeneratorConfig config = GeneratorConfig.read(configFile);
+			List files = new ArrayList();
+			for(int i = 0; i < inputFiles.size(); i++) {
+				files.addAll(CorpusReader.expand((String)inputFiles.get(i)));
+			}
+			String report = new LevelCalibrator(config, minLevel, maxLevel).calibrate(files).toString();
+			System.out.print(report);
+			if(reportFile != null) {
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(reportFile),
+						StandardCharsets.UTF_8));
+				out.print(report);
+				out.close();
+				if(out.checkError()) {
+					throw new IOException("Could not write to report file. Check file permissions.");
+				}
+			}
+		} catch (FileNotFoundException fnfe) {
+			System.out.println(fnfe.getMessage());
+		} catch (IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+		} catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the input files and calibrates the level on them.
+	 *
+	 * @param files the input files, as Files, in order.
+	 * @return the measurements of every level and the recommended level.
+	 * @throws IOException if a file can't be read.
+	 */
+	public Report calibrate(List files) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, config.getThreads()));
+		try {
+			Corpus corpus = new CorpusReader(config.getCommentChar(), config.isLowerCaseMode()).read(files, pool);
+			return calibrate(corpus, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Calibrates the level on an already read input.
+	 *
+	 * @param corpus the input.
+	 * @param pool the pool to train and score in.
+	 * @return the measurements of every level and the recommended level.
+	 * @throws IllegalArgumentException if the input has too few lines to hold
+	 * any out.
+	 */
+	public Report calibrate(Corpus corpus, ForkJoinPool pool) {
+		int[] codes = corpus.getCodes();
+		int lineFeed = corpus.getSymbols().codeOf(CorpusReader.LINE_FEED);
+		// Both parts start with the line feed that starts the input, and each
+		// line keeps the line feed that ends it.
+		int[] training = new int[codes.length];
+		int[] heldOut = new int[codes.length];
+		int trainingSize = 1;
+		int heldOutSize = 1;
+		training[0] = lineFeed;
+		heldOut[0] = lineFeed;
+		int line = 0;
+		for(int start = 1; start < codes.length; line++) {
+			int end = start;
+			while(codes[end] != lineFeed) {
+				end++;
+			}
+			end++;
+			if(line % HOLD_OUT_EVERY == HOLD_OUT_EVERY - 1) {
+				System.arraycopy(codes, start, heldOut, heldOutSize, end - start);
+				heldOutSize += end - start;
+			} else {
+				System.arraycopy(codes, start, training, trainingSize, end - start);
+				trainingSize += end - start;
+			}
+			start = end;
+		}
+		if(heldOutSize < 2) {
+			throw new IllegalArgumentException("The input has fewer than " + HOLD_OUT_EVERY
+					+ " lines, so none can be held out.");
+		}
+		int[] trainingCodes = Arrays.copyOf(training, trainingSize);
+		int[] heldOutCodes = Arrays.copyOf(heldOut, heldOutSize);
+
+		Report report = new Report(trainingSize, heldOutSize);
+		long start = System.nanoTime();
+		ContextCounts counts = MarkovChain.count(trainingCodes, maxLevel, pool);
+		report.countMillis = (System.nanoTime() - start) / 1000000;
+
+		SymbolTable symbols = corpus.getSymbols();
+		Alphabet alphabet = corpus.getAlphabet();
+		WordSet trainingWords = new WordSet();
+		addWords(trainingCodes, alphabet, symbols, trainingWords);
+		for(int level = minLevel; level <= maxLevel; level++) {
+			Level result = compileAndScore(counts, level, symbols, alphabet, heldOutCodes, pool);
+			// Measuring drops the generator of the level.
+			measureGeneration(result, trainingWords);
+			report.levels.add(result);
+		}
+		report.recommend();
+		return report;
+	}
+
+	/**
+	 * Compiles the chain of a level from the counts of the highest level, and
+	 * scores the held out input with it in the pool.
+	 */
+	private Level compileAndScore(ContextCounts counts, int level, SymbolTable symbols, Alphabet alphabet,
+			int[] heldOut, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		ContextCounts truncated = level == counts.getLevel() ? counts : counts.truncate(level);
+		MarkovChain chain = new MarkovChain(symbols, CompiledChain.compile(truncated), level);
+		Level result = new Level(level);
+		result.compileMillis = (System.nanoTime() - start) / 1000000;
+		result.nodes = chain.getNodeCount();
+		result.generator = new WordGenerator(chain, alphabet);
+		double bits = ((Double)pool.invoke(new ScoreTask(chain, symbols.size(), heldOut, 0, heldOut.length - 1)))
+				.doubleValue();
+		result.bitsPerChar = bits / (heldOut.length - 1);
+		return result;
+	}
+
+	/**
+	 * Measures the acceptance rate and speed of a level by generating words
+	 * within the length bounds of the config from it, on the calling thread.
+	 */
+	private void measureGeneration(Level level, final WordSet trainingWords) {
+		WordGenerator generator = level.generator;
+		int minLength = config.getMinWordLength();
+		int maxLength = config.getMaxWordLength();
+		level.inBounds = Math.max(generator.probabilityInBounds(CorpusReader.LINE_FEED, false, minLength, maxLength),
+				generator.probabilityInBounds(CorpusReader.SPACE, false, minLength, maxLength));
+		if(level.inBounds == 0.0) {
+			level.generator = null;
+			return;
+		}
+		final boolean onlyNewWords = config.isOnlyNewWords();
+		// The words generated, and the ones of them that would be kept.
+		final int[] counted = new int[2];
+		// The first round only warms up the generator, the second is measured.
+		long nanos = 0;
+		for(int round = 0; round < 2; round++) {
+			counted[0] = 0;
+			counted[1] = 0;
+			final WordSet emitted = new WordSet();
+			WordSink sink = new WordSink() {
+				public void accept(int index, String word) {
+					if(word != null) {
+						counted[0]++;
+						if(!onlyNewWords || !trainingWords.contains(word) && emitted.add(word)) {
+							counted[1]++;
+						}
+					}
+				}
+			};
+			long start = System.nanoTime();
+			generator.generate(SAMPLE_WORDS, config.getRandomSeed() + round, minLength, maxLength, 1, sink);
+			nanos = Math.max(1, System.nanoTime() - start);
+		}
+		level.acceptance = counted[0] == 0 ? 0.0 : (double)counted[1] / counted[0];
+		level.wordsPerSecond = counted[1] * 1e9 / nanos;
+		// Frees the chain, only the measurements are kept.
+		level.generator = null;
+	}
+
+	/**
+	 * Adds every run of characters between separators of the codes to a set.
+	 */
+	private static void addWords(int[] codes, Alphabet alphabet, SymbolTable symbols, WordSet words) {
+		StringBuilder word = new StringBuilder();
+		for(int i = 0; i < codes.length; i++) {
+			if(alphabet.isSeparator(codes[i])) {
+				if(word.length() > 0) {
+					words.add(word);
+					word.setLength(0);
+				}
+			} else {
+				word.append((String)symbols.symbolAt(codes[i]));
+			}
+		}
+	}
+
+	/**
+	 * Sums the information, in bits, of the characters of a range of the held
+	 * out input given the characters before them, splitting the range in halves
+	 * until they are small enough.
+	 *
+	 * The probability of a character is estimated like in PPM compression: the
+	 * longest combination before it that is in the chain predicts it from the
+	 * counts of its followers, and a character that never followed it escapes to
+	 * the next shorter combination, with a probability proportional to the
+	 * amount of different followers. A character that never followed even a
+	 * single character is given an equal share of the alphabet.
+	 */
+	private static class ScoreTask extends RecursiveTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private MarkovChain chain;
+		private int alphabetSize;
+		private int[] codes;
+		private int from;
+		private int to;
+
+		ScoreTask(MarkovChain chain, int alphabetSize, int[] codes, int from, int to) {
+			this.chain = chain;
+			this.alphabetSize = alphabetSize;
+			this.codes = codes;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected Object compute() {
+			if(to - from > SCORE_SHARD_SIZE) {
+				int middle = (from + to) >>> 1;
+				ScoreTask right = new ScoreTask(chain, alphabetSize, codes, middle, to);
+				right.fork();
+				double left = ((Double)new ScoreTask(chain, alphabetSize, codes, from, middle).compute()).doubleValue();
+				return Double.valueOf(left + ((Double)right.join()).doubleValue());
+			}
+			CompiledChain compiled = chain.getCompiled();
+			int level = chain.getLevel();
+			double bits = 0.0;
+			// Predicts the character after each position of the range.
+			for(int i = from; i < to; i++) {
+				int first = Math.max(0, i - level + 1);
+				int node = chain.longestContext(codes, first, i - first + 1);
+				int symbol = codes[i + 1];
+				double probability = 1.0;
+				while(true) {
+					if(node == -1 || node == ContextCounts.ROOT) {
+						probability /= alphabetSize + 1;
+						break;
+					}
+					int total = compiled.followerTotal(node);
+					int distinct = compiled.followerEnd(node) - compiled.followerStart(node);
+					int index = compiled.findFollower(node, symbol);
+					if(index != -1) {
+						probability *= (double)compiled.followerCount(index) / (total + distinct);
+						break;
+					}
+					probability *= (double)distinct / (total + distinct);
+					node = compiled.getParent(node);
+				}
+				bits -= Math.log(probability) / Math.log(2.0);
+			}
+			return Double.valueOf(bits);
+		}
+	}
+
+	/**
+	 * The measurements of one level.
+	 */
+	public static class Level {
+
+		private int level;
+		private int nodes;
+		private long compileMillis;
+		private double bitsPerChar;
+		private double inBounds;
+		private double acceptance;
+		private double wordsPerSecond;
+
+		/**
+		 * The generator of the level, only kept until it has been measured.
+		 */
+		private WordGenerator generator;
+
+		Level(int level) {
+			this.level = level;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public int getNodeCount() {
+			return nodes;
+		}
+
+		/**
+		 * Returns the cross-entropy of the held out input under the chain.
+		 *
+		 * @return the bits per character.
+		 */
+		public double getBitsPerChar() {
+			return bitsPerChar;
+		}
+
+		/**
+		 * Returns the share of freely generated words that are within the
+		 * length bounds.
+		 *
+		 * @return the share, from 0 to 1.
+		 */
+		public double getInBounds() {
+			return inBounds;
+		}
+
+		/**
+		 * Returns the share of the words generated within the length bounds that
+		 * are kept, i.e. all of them unless only new words are asked for.
+		 *
+		 * @return the acceptance rate, from 0 to 1.
+		 */
+		public double getAcceptance() {
+			return acceptance;
+		}
+
+		/**
+		 * Returns the share of words that can't be generated, because all
+		 * MAX_NOVELTY_TRIES tries for them are rejected.
+		 *
+		 * @return the failure rate, from 0 to 1.
+		 */
+		public double getFailure() {
+			return Math.pow(1.0 - acceptance, WordGenerator.MAX_NOVELTY_TRIES);
+		}
+
+		/**
+		 * Returns the amount of accepted words generated a second on one thread.
+		 *
+		 * @return the words a second.
+		 */
+		public double getWordsPerSecond() {
+			return wordsPerSecond;
+		}
+	}
+
+	/**
+	 * The measurements of all levels, and the recommended level.
+	 */
+	public static class Report {
+
+		private int trainingSize;
+		private int heldOutSize;
+		private long countMillis;
+		private List levels = new ArrayList();
+		private Level recommended;
+
+		Report(int trainingSize, int heldOutSize) {
+			this.trainingSize = trainingSize;
+			this.heldOutSize = heldOutSize;
+		}
+
+		/**
+		 * Picks the fastest level that fails few enough words and predicts the
+		 * held out input nearly as well as the best such level.
+		 */
+		void recommend() {
+			double best = Double.MAX_VALUE;
+			for(int i = 0; i < levels.size(); i++) {
+				Level level = (Level)levels.get(i);
+				if(level.getFailure() <= MAX_FAILURE) {
+					best = Math.min(best, level.bitsPerChar);
+				}
+			}
+			for(int i = 0; i < levels.size(); i++) {
+				Level level = (Level)levels.get(i);
+				if(level.getFailure() <= MAX_FAILURE && level.bitsPerChar <= best * (1.0 + QUALITY_TOLERANCE)
+						&& (recommended == null || level.wordsPerSecond > recommended.wordsPerSecond)) {
+					recommended = level;
+				}
+			}
+		}
+
+		/**
+		 * Returns the measurements of every level, lowest level first.
+		 *
+		 * @return the levels, as Level objects.
+		 */
+		public List getLevels() {
+			return levels;
+		}
+
+		/**
+		 * Returns the recommended level.
+		 *
+		 * @return the level, or null if every level fails too many words.
+		 */
+		public Level getRecommended() {
+			return recommended;
+		}
+
+		/**
+		 * Returns the report as a table, one line per level.
+		 *
+		 * @return the report.
+		 */
+		public String toString() {
+			StringWriter text = new StringWriter();
+			PrintWriter out = new PrintWriter(text);
+			out.println("Level calibration: " + trainingSize + " characters trained, " + heldOutSize
+					+ " held out (every " + HOLD_OUT_EVERY + "th line), counted in " + countMillis + " ms.");
+			out.println("Level     Nodes  Compile ms  Bits/char  In bounds  Accepted    Failed   Words/s");
+			for(int i = 0; i < levels.size(); i++) {
+				Level level = (Level)levels.get(i);
+				out.println(String.format("%5d %9d %11d %10.3f %10.3f %9.3f %9.3f %9.0f", level.level,
+						level.nodes, level.compileMillis, level.bitsPerChar, level.inBounds, level.acceptance,
+						level.getFailure(), level.wordsPerSecond));
+			}
+			if(recommended == null) {
+				out.println("Every level fails more than " + MAX_FAILURE + " of its words; try other lengths.");
+			} else {
+				out.println("Recommended level: " + recommended.level + " (the fastest level within "
+						+ Math.round(QUALITY_TOLERANCE * 100) + "% of the best bits/char amongst levels failing at most "
+						+ MAX_FAILURE + " of their words).");
+			}
+			out.flush();
+			return text.toString();
+		}
+	}
+}
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive longs to primitive ints, using open addressing with
+ * linear probing. It is used by the MarkovChain to store its tables without
+ * boxing keys or values, which keeps both the memory use and the time spent
+ * hashing low even for large inputs.
+ *
+ * Keys must not be negative, since negative keys are used to mark free slots.
+ * Entries can not be removed; the map only grows.
+ */
+public class LongIntHashMap {
+
+	/**
+	 * The key that marks a free slot in the table.
+	 */
+	private static final long FREE = -1L;
+
+	/**
+	 * The highest share of used slots before the table is grown.
+	 */
+	private static final double LOAD_FACTOR = 0.6;
+
+	/**
+	 * The keys of the table. The length is always a power of two.
+	 */
+	private long[] keys;
+
+	/**
+	 * The values of the table, stored at the same index as their key.
+	 */
+	private int[] values;
+
+	/**
+	 * The number of entries in the map.
+	 */
+	private int size;
+
+	/**
+	 * The number of entries that can be stored before the table is grown.
+	 */
+	private int threshold;
+
+	/**
+	 * Constructs a new, empty map with a small initial capacity.
+	 */
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Constructs a new, empty map that can hold the given amount of entries
+	 * without growing.
+	 *
+	 * @param expectedSize the amount of entries expected to be stored.
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = 16;
+		while(capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Returns the value stored for the given key.
+	 *
+	 * @param key the key to look up, not negative.
+	 * @param missing the value to return if the key isn't in the map.
+	 * @return the value of the key, or missing if the key isn't in the map.
+	 */
+	public int get(long key, int missing) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(true) {
+			long current = keys[slot];
+			if(current == key) {
+				return values[slot];
+			} else if(current == FREE) {
+				return missing;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Stores a value for the given key, replacing any old value.
+	 *
+	 * @param key the key to store, not negative.
+	 * @param value the value to store.
+	 */
+	public void put(long key, int value) {
+		if(key < 0) {
+			throw new IllegalArgumentException("Negative key given; incorrect");
+		}
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(true) {
+			long current = keys[slot];
+			if(current == key) {
+				values[slot] = value;
+				return;
+			} else if(current == FREE) {
+				keys[slot] = key;
+				values[slot] = value;
+				if(++size > threshold) {
+					grow();
+				}
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Adds a delta to the value stored for the given key. A key that isn't in
+	 * the map is treated as having the value 0.
+	 *
+	 * @param key the key to update, not negative.
+	 * @param delta the amount to add to the value.
+	 * @return the new value of the key.
+	 */
+	public int add(long key, int delta) {
+		if(key < 0) {
+			throw new IllegalArgumentException("Negative key given; incorrect");
+		}
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(true) {
+			long current = keys[slot];
+			if(current == key) {
+				return values[slot] += delta;
+			} else if(current == FREE) {
+				keys[slot] = key;
+				values[slot] = delta;
+				if(++size > threshold) {
+					grow();
+				}
+				return delta;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns all keys in the map, in no particular order.
+	 *
+	 * @return a new array holding the keys of the map.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int j = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != FREE) {
+				result[j++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the amount of entries in the map.
+	 *
+	 * @return the amount of entries in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the table of keys itself, with free slots marked by -1. Together
+	 * with valueTable() and hash(), it allows lookups in a copy of the table.
+	 *
+	 * @return the table of keys.
+	 */
+	long[] keyTable() {
+		return keys;
+	}
+
+	/**
+	 * Returns the table of values itself, stored at the same index as their key.
+	 *
+	 * @return the table of values.
+	 */
+	int[] valueTable() {
+		return values;
+	}
+
+	/**
+	 * Spreads the bits of a key so that keys that only differ in their high bits
+	 * still end up in different slots.
+	 *
+	 * @param key the key to hash.
+	 * @return the hash of the key.
+	 */
+	static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		threshold = (int)(capacity * LOAD_FACTOR);
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		int mask = keys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != FREE) {
+				int slot = hash(oldKeys[i]) & mask;
+				while(keys[slot] != FREE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -1,15 +1,17 @@
+import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 
 import java.util.List;
-import java.util.Set;
-import java.util.Iterator;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The MarkovChain is the class that represents a simple mathematical markov chain.
@@ -29,15 +31,11 @@ import java.util.TreeMap;
  * is high, the processing will be slow, but the prediction will be better. But if the
  * level is too high related to the input size, the prediction wouldn't be useful.
  * A low level makes faster processing but not as good prediction capabilites.
+ * The JMH benchmarks in the bench module measure training and prediction times
+ * for levels 1 to 8.
  */
 public class MarkovChain {
 
-	/**
-	 * A list of objects that is the input for the MarkovChain. The objects must
-	 * implement equals().
-	 */
-	private List inputList;
-
 	/**
 	 * The delimiter between parts of the chain. If null it isn't used.
 	 */
@@ -57,12 +55,56 @@ public class MarkovChain {
 	private int markovLevel;
 
 	/**
-	 * The MarkovChain as a HashMap. Contains a key for each combination of elements
-	 * of the maximum length of inputLevel found in the input list and a value in
-	 * form of another HashMap that holds statistics of each possible object that
-	 * follows the current object.
+	 * The node that represents the empty combination. All other combinations
+	 * are reached from it.
+	 */
+	private static final int ROOT = ContextCounts.ROOT;
+
+	/**
+	 * The random number generator of each thread. See threadRandom().
+	 */
+	private static final ThreadLocal THREAD_RANDOM = new ThreadLocal() {
+		protected Object initialValue() {
+			return new SplittableRandom();
+		}
+	};
+
+	/**
+	 * The smallest part of the input that is counted on its own when training
+	 * in parallel. Smaller parts cost more to merge than they save.
+	 */
+	private static final int MIN_SHARD_SIZE = 1 << 16;
+
+	/**
+	 * Interns every element of the input to a dense int code, which is what the
+	 * tables of the chain are built from.
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * The combinations of elements found in the input and the amount of times
+	 * each was followed by each element. See ContextCounts. Only held while
+	 * training; compile() drops them once the tables are built.
+	 */
+	private ContextCounts counts;
+
+	/**
+	 * The tables that predictions are made from, compiled from the counts after
+	 * training or mapped from a snapshot.
+	 */
+	private CompiledChain compiled;
+
+	/**
+	 * The time and heap used by each phase of training. Empty for a chain
+	 * loaded from a snapshot.
 	 */
-	private Map markovChain;
+	private TrainingMetrics trainingMetrics = new TrainingMetrics();
+
+	/**
+	 * The chain trained on the input read backwards, or null if none was
+	 * trained. See getReverse().
+	 */
+	private MarkovChain reverse;
 
 	/**
 	 *
@@ -71,65 +113,616 @@ public class MarkovChain {
 	 * prediction).
 	 */
 	public MarkovChain(List inputList, int markovLevel) {
-		this.inputList = inputList;
+		this(inputList, markovLevel, null);
+	}
+
+	/**
+	 * Constructs a MarkovChain that is trained in parallel. The input is split
+	 * into shards that are counted by separate tasks of the pool and then merged.
+	 * The resulting chain is identical to one trained sequentially.
+	 *
+	 * @param inputList a List consisting of the input to the MarkovChain.
+	 * @param markovLevel the level of the MarkovChain (higher level means better
+	 * prediction).
+	 * @param pool the pool to train in, or null to train sequentially.
+	 */
+	public MarkovChain(List inputList, int markovLevel, ForkJoinPool pool) {
+		this(inputList, markovLevel, pool, null);
+	}
+
+	/**
+	 * Constructs a MarkovChain that is trained within memory limits, dropping
+	 * the rarest combinations and followers of the input so that the tables fit
+	 * in the budget. Predictions from a dropped combination use the longest end
+	 * of it that was kept. See TrainingLimits.
+	 *
+	 * @param inputList a List consisting of the input to the MarkovChain.
+	 * @param markovLevel the level of the MarkovChain (higher level means better
+	 * prediction).
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @param limits the limits to train within, or null to keep all combinations.
+	 */
+	public MarkovChain(List inputList, int markovLevel, ForkJoinPool pool, TrainingLimits limits) {
 		this.markovLevel = markovLevel;
 		loopAround = true;
-		markovChain = new HashMap();
-		processChain();
+		symbols = new SymbolTable();
+		processChain(inputList, pool, limits);
+		trainingMetrics.startPhase();
+		compile();
+		trainingMetrics.endPhase(TrainingMetrics.COMPILE);
+		trainingMetrics.recordSize(compiled.getNodeCount(), compiled.getFollowerSize());
+	}
+
+	/**
+	 * Constructs a MarkovChain from an input that is already interned, such as
+	 * a Corpus read by a CorpusReader, without a List of the input.
+	 *
+	 * @param symbols the codes of the elements of the input.
+	 * @param codes the input as element codes.
+	 * @param markovLevel the level of the MarkovChain.
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @param limits the limits to train within, or null to keep all combinations.
+	 */
+	public MarkovChain(SymbolTable symbols, int[] codes, int markovLevel, ForkJoinPool pool,
+			TrainingLimits limits) {
+		this.symbols = symbols;
+		this.markovLevel = markovLevel;
+		loopAround = true;
+		processCodes(codes, pool, limits);
+		trainingMetrics.startPhase();
+		compile();
+		trainingMetrics.endPhase(TrainingMetrics.COMPILE);
+		trainingMetrics.recordSize(compiled.getNodeCount(), compiled.getFollowerSize());
+	}
+
+	/**
+	 * Constructs a MarkovChain from an input that is already interned, and
+	 * optionally also a chain trained on the input read backwards, which
+	 * predicts the element before a combination instead of after it. Both
+	 * chains share the element codes.
+	 *
+	 * @param symbols the codes of the elements of the input.
+	 * @param codes the input as element codes.
+	 * @param markovLevel the level of the MarkovChain.
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @param limits the limits to train each chain within, or null to keep all
+	 * combinations.
+	 * @param withReverse if the backwards chain should be trained as well.
+	 */
+	public MarkovChain(SymbolTable symbols, int[] codes, int markovLevel, ForkJoinPool pool,
+			TrainingLimits limits, boolean withReverse) {
+		this(symbols, codes, markovLevel, pool, limits);
+		if(withReverse) {
+			int[] reversed = new int[codes.length];
+			for(int i = 0; i < codes.length; i++) {
+				reversed[i] = codes[codes.length - 1 - i];
+			}
+			reverse = new MarkovChain(symbols, reversed, markovLevel, pool, limits);
+		}
+	}
+
+	/**
+	 * Constructs a MarkovChain from already compiled tables, as loaded from a
+	 * snapshot. Such a chain has no input or counts.
+	 *
+	 * @param symbols the codes of the elements of the chain.
+	 * @param compiled the tables to make predictions from.
+	 * @param markovLevel the level of the chain.
+	 */
+	MarkovChain(SymbolTable symbols, CompiledChain compiled, int markovLevel) {
+		this.symbols = symbols;
+		this.compiled = compiled;
+		this.markovLevel = markovLevel;
+		loopAround = true;
+	}
+
+	/**
+	 * Saves the chain to a binary snapshot file that load() can read, so that
+	 * it doesn't have to be retrained. See ChainSnapshot for the format.
+	 *
+	 * @param file the file to save to.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void save(File file) throws IOException {
+		ChainSnapshot.save(this, file);
+	}
+
+	/**
+	 * Loads a chain saved by save(). The file is memory mapped and the tables of
+	 * the chain are read directly from it, without verifying its checksum; see
+	 * ChainSnapshot.load(File,boolean).
+	 *
+	 * @param file the file to load.
+	 * @return the loaded chain.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	public static MarkovChain load(File file) throws IOException {
+		return ChainSnapshot.load(file);
 	}
 
 	/**
 	 * Processes the chain by looping through the whole inputList and registering
 	 * all the next following elements for each combination of elements of the
-	 * of a size up to or equal to the markovLevel.
-	 */
-	private void processChain() {
-		List objectCombo = new ArrayList();
-		// Loops through the whole inputList and adds it to the MarkovChain
-		for(int i = 0; i < inputList.size() -1; i++) {
-
-			Object element = inputList.get(i);
-
-			if(i < markovLevel) {
-				// If still under the level, just build up the combo
-				objectCombo.add(element);
-			} else {
-				// Add one, remove the first
-				objectCombo.remove(0);
-				objectCombo.add(element);
+	 * of a size up to or equal to the markovLevel. The list isn't kept once it
+	 * has been interned into codes.
+	 *
+	 * @param inputList the input, of objects that implement equals().
+	 * @param pool the pool to count the shards of the input in, or null to
+	 * count the whole input at once.
+	 * @param limits the limits to count within, or null to count everything.
+	 */
+	private void processChain(List inputList, ForkJoinPool pool, TrainingLimits limits) {
+		trainingMetrics.startPhase();
+		int[] codes = new int[inputList.size()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = symbols.intern(inputList.get(i));
+		}
+		trainingMetrics.endPhase(TrainingMetrics.INTERN);
+		processCodes(codes, pool, limits);
+	}
+
+	/**
+	 * Registers the followers of every combination of the already interned
+	 * input.
+	 */
+	private void processCodes(int[] codes, ForkJoinPool pool, TrainingLimits limits) {
+		if(limits != null) {
+			countWithin(codes, pool, limits);
+			return;
+		}
+		trainingMetrics.startPhase();
+		counts = countCodes(codes, pool, null, 0, Long.MAX_VALUE);
+		trainingMetrics.endPhase(TrainingMetrics.COUNT);
+	}
+
+	/**
+	 * Counts the codes of the input within memory limits: sketches all
+	 * combinations, then counts the ones above a threshold exactly, doubling the
+	 * threshold until the counts fit, and finally prunes rare followers.
+	 */
+	private void countWithin(int[] codes, ForkJoinPool pool, TrainingLimits limits) {
+		trainingMetrics.startPhase();
+		CountMinSketch sketch = new CountMinSketch(limits.getSketchBytes());
+		sketch.count(codes, 0, codes.length, markovLevel);
+		trainingMetrics.endPhase(TrainingMetrics.SKETCH);
+
+		trainingMetrics.startPhase();
+		long maxBytes = limits.getMaxBytes() - sketch.getBytes();
+		int threshold = limits.getMinContextCount();
+		int retries = 0;
+		while(true) {
+			counts = countCodes(codes, pool, sketch, threshold, maxBytes);
+			// Above the length of the input, only single elements are left to drop.
+			if(counts != null || threshold > codes.length) {
+				break;
 			}
+			threshold = (int)Math.min(2L * threshold, Integer.MAX_VALUE);
+			retries++;
+		}
+		if(counts == null) {
+			throw new IllegalStateException("The single elements of the input alone exceed the memory budget");
+		}
+		int prunedFollowers = counts.pruneFollowers(limits.getMinFollowerCount());
+		trainingMetrics.endPhase(TrainingMetrics.COUNT);
+		trainingMetrics.recordPruning(threshold, retries, counts.getRejectedContexts(),
+				prunedFollowers, sketch.getBytes());
+	}
 
-			int size = objectCombo.size();
-			List tmpList = new ArrayList(objectCombo);
-			for(int j = 0; j < size; j++) {
-				addToMap(tmpList.subList(j,size),i);
+	/**
+	 * Counts the codes of the input, in parallel if a pool is given.
+	 *
+	 * @return the counts, or null if they grew beyond maxBytes.
+	 */
+	private ContextCounts countCodes(int[] codes, ForkJoinPool pool, CountMinSketch sketch,
+			int threshold, long maxBytes) {
+		ContextCounts result;
+		if(pool == null) {
+			result = new ContextCounts(markovLevel);
+			// Checks the size between shards, so that counts far beyond the budget
+			// are never built.
+			for(int from = 0; from < codes.length; from += MIN_SHARD_SIZE) {
+				result.count(codes, from, Math.min(codes.length, from + MIN_SHARD_SIZE), sketch, threshold);
+				if(result.estimateBytes() > maxBytes) {
+					return null;
+				}
 			}
+		} else {
+			int shardSize = Math.max(MIN_SHARD_SIZE, codes.length / (pool.getParallelism() * 4));
+			result = (ContextCounts)pool.invoke(new CountTask(codes, 0, codes.length, markovLevel,
+					shardSize, sketch, threshold, maxBytes, new AtomicBoolean()));
+			if(result == null) {
+				return null;
+			}
+		}
+		return result.estimateBytes() > maxBytes ? null : result;
+	}
 
+	/**
+	 * Counts the followers of every combination of an interned input, in
+	 * parallel if a pool is given, without compiling them into a chain.
+	 *
+	 * @param codes the input as element codes.
+	 * @param level the maximum length of the combinations.
+	 * @param pool the pool to count in, or null to count sequentially.
+	 * @return the counts.
+	 */
+	static ContextCounts count(int[] codes, int level, ForkJoinPool pool) {
+		if(pool == null) {
+			ContextCounts counts = new ContextCounts(level);
+			counts.count(codes, 0, codes.length);
+			return counts;
 		}
+		int shardSize = Math.max(MIN_SHARD_SIZE, codes.length / (pool.getParallelism() * 4));
+		return (ContextCounts)pool.invoke(new CountTask(codes, 0, codes.length, level, shardSize, null, 0,
+				Long.MAX_VALUE, new AtomicBoolean()));
 	}
 
-	private void addToMap(List objectCombo, int i) {
-		if(objectCombo.size() <= 0) {
-			throw new NullPointerException("Combination list was empty");
-		} else {
-			int nextElementIndex = i + 1;
-			List tmpList;
-
-			if(markovChain.containsKey(objectCombo)) {
-				// Gets the old list to update it
-				tmpList = (List)markovChain.get(objectCombo);
-			} else {
-				// Creates a new list
-				tmpList = new ArrayList();
+	/**
+	 * Counts a range of the input by splitting it in two halves that are counted
+	 * in parallel and merged, until the range is small enough to be counted on
+	 * its own. Each range only registers combinations ending inside it, but reads
+	 * up to markovLevel - 1 elements before it, so no combination is lost at the
+	 * edges of the shards.
+	 *
+	 * The size of the counts is checked like in the sequential count, after every
+	 * MIN_SHARD_SIZE elements of a shard and after every merge. Once any range
+	 * outgrows maxBytes, all ranges stop and the task returns null.
+	 */
+	private static class CountTask extends RecursiveTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private int[] codes;
+		private int from;
+		private int to;
+		private int level;
+		private int shardSize;
+		private CountMinSketch sketch;
+		private int threshold;
+		private long maxBytes;
+
+		/**
+		 * Set once any range has outgrown maxBytes, shared by all ranges.
+		 */
+		private AtomicBoolean exceeded;
+
+		CountTask(int[] codes, int from, int to, int level, int shardSize,
+				CountMinSketch sketch, int threshold, long maxBytes, AtomicBoolean exceeded) {
+			this.codes = codes;
+			this.from = from;
+			this.to = to;
+			this.level = level;
+			this.shardSize = shardSize;
+			this.sketch = sketch;
+			this.threshold = threshold;
+			this.maxBytes = maxBytes;
+			this.exceeded = exceeded;
+		}
+
+		protected Object compute() {
+			if(to - from <= shardSize) {
+				ContextCounts shard = new ContextCounts(level);
+				for(int start = from; start < to; start += MIN_SHARD_SIZE) {
+					if(exceeded.get()) {
+						return null;
+					}
+					shard.count(codes, start, Math.min(to, start + MIN_SHARD_SIZE), sketch, threshold);
+					if(shard.estimateBytes() > maxBytes) {
+						exceeded.set(true);
+						return null;
+					}
+				}
+				return shard;
+			}
+			int middle = (from + to) >>> 1;
+			CountTask right = new CountTask(codes, middle, to, level, shardSize, sketch, threshold,
+					maxBytes, exceeded);
+			right.fork();
+			ContextCounts left = (ContextCounts)new CountTask(codes, from, middle, level, shardSize,
+					sketch, threshold, maxBytes, exceeded).compute();
+			// The right half is joined even when the left one failed, but stops
+			// at its next check.
+			ContextCounts rightCounts = (ContextCounts)right.join();
+			if(left == null || rightCounts == null) {
+				return null;
 			}
+			left.merge(rightCounts);
+			if(left.estimateBytes() > maxBytes) {
+				exceeded.set(true);
+				return null;
+			}
+			return left;
+		}
+	}
 
-			// Adds the next element from the input list.
-			tmpList.add(inputList.get(nextElementIndex));
-			// Re-adds the list to the map
-			markovChain.put(objectCombo, tmpList);
+	/**
+	 * Compiles the follower counts into the tables that predictions are made
+	 * from, and drops the counts, which nothing reads afterwards.
+	 */
+	private void compile() {
+		if(counts == null) {
+			throw new IllegalStateException("The counts of the chain have already been compiled");
 		}
+		compiled = CompiledChain.compile(counts);
+		counts = null;
 	}
 
+	/**
+	 * Returns the node of a combination of element codes.
+	 *
+	 * @param context an array holding the codes of the combination.
+	 * @param offset the index of the first element of the combination.
+	 * @param length the amount of elements in the combination.
+	 * @return the id of the node, or -1 if the combination isn't in the chain.
+	 */
+	public int findContext(int[] context, int offset, int length) {
+		if(length <= 0 || length > markovLevel) {
+			return -1;
+		}
+		int node = ROOT;
+		for(int i = offset + length - 1; i >= offset && node != -1; i--) {
+			if(context[i] < 0) {
+				return -1;
+			}
+			node = compiled.childOf(node, context[i]);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the node of the longest combination in the chain that the given
+	 * combination of element codes ends with.
+	 *
+	 * @param context an array holding the codes of the combination.
+	 * @param offset the index of the first element of the combination.
+	 * @param length the amount of elements in the combination.
+	 * @return the id of the node, or -1 if not even the last element of the
+	 * combination is in the chain.
+	 */
+	public int longestContext(int[] context, int offset, int length) {
+		if(length > markovLevel) {
+			offset += length - markovLevel;
+			length = markovLevel;
+		}
+		int node = ROOT;
+		for(int i = offset + length - 1; i >= offset && context[i] >= 0; i--) {
+			int child = compiled.childOf(node, context[i]);
+			if(child == -1) {
+				break;
+			}
+			node = child;
+		}
+		if(node == ROOT) {
+			return -1;
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the node that follows a node when the given element is predicted.
+	 * That is the node of the combination of the node with the element appended,
+	 * cut to the level of the chain. If that combination isn't in the chain,
+	 * the longest combination it ends with is used instead. When the element is
+	 * a follower of the node, this takes constant time; see followerNext().
+	 *
+	 * @param node the id of the node.
+	 * @param symbol the code of the appended element.
+	 * @return the id of the following node, or -1 if not even the element itself
+	 * is in the chain.
+	 */
+	public int nextContext(int node, int symbol) {
+		int index = node == ROOT ? -1 : compiled.findFollower(node, symbol);
+		if(index != -1) {
+			return compiled.followerNext(index);
+		}
+		int[] context = new int[markovLevel];
+		int length = 0;
+		// Walking up from the node gives the elements in input order.
+		for(; node != ROOT; node = compiled.getParent(node)) {
+			context[length++] = compiled.getSymbol(node);
+		}
+		if(length == markovLevel) {
+			System.arraycopy(context, 1, context, 0, --length);
+		}
+		context[length++] = symbol;
+		return longestContext(context, 0, length);
+	}
+
+	/**
+	 * Returns the index of the first follower of a node. The followers of a node
+	 * are found from followerStart(node) up to (but not including)
+	 * followerEnd(node).
+	 *
+	 * @param node the id of the node.
+	 * @return the index of the first follower.
+	 */
+	public int followerStart(int node) {
+		return compiled.followerStart(node);
+	}
+
+	/**
+	 * Returns the index after the last follower of a node.
+	 *
+	 * @param node the id of the node.
+	 * @return the index after the last follower.
+	 */
+	public int followerEnd(int node) {
+		return compiled.followerEnd(node);
+	}
+
+	/**
+	 * Returns the element code of a follower.
+	 *
+	 * @param index the index of the follower.
+	 * @return the code of the follower.
+	 */
+	public int followerSymbol(int index) {
+		return compiled.followerSymbol(index);
+	}
+
+	/**
+	 * Returns the node that generation continues from once a follower has been
+	 * drawn: the longest combination in the chain that the combination of its
+	 * node followed by the follower ends with. Together with getParent(), which
+	 * backs off to the next shorter combination, this lets the chain be walked
+	 * as a state machine, in constant time per element.
+	 *
+	 * @param index the index of the follower.
+	 * @return the id of the node, or -1 if nothing ever followed the follower.
+	 */
+	public int followerNext(int index) {
+		return compiled.followerNext(index);
+	}
+
+	/**
+	 * Draws a follower of a node with its probability.
+	 *
+	 * @param node the id of the node.
+	 * @param random the random number generator to draw with.
+	 * @return the index of the drawn follower, or -1 if the node has no followers.
+	 */
+	public int drawFollower(int node, SplittableRandom random) {
+		if(compiled.followerStart(node) == compiled.followerEnd(node)) {
+			return -1;
+		}
+		return compiled.drawFollowerIndex(node, random.nextDouble());
+	}
+
+	/**
+	 * Returns the amount of times a follower followed its node in the input.
+	 *
+	 * @param index the index of the follower.
+	 * @return the amount of times.
+	 */
+	public int followerCount(int index) {
+		return compiled.followerCount(index);
+	}
+
+	/**
+	 * Returns the parent of a node, i.e. the node of its combination without
+	 * the first element. The parent of a combination of one element is the root,
+	 * node 0, which has no followers.
+	 *
+	 * @param node the id of the node.
+	 * @return the id of the parent.
+	 */
+	public int getParent(int node) {
+		return compiled.getParent(node);
+	}
+
+	/**
+	 * Returns the code of the first element of the combination of a node.
+	 *
+	 * @param node the id of the node.
+	 * @return the code of the element.
+	 */
+	public int getNodeSymbol(int node) {
+		return compiled.getSymbol(node);
+	}
+
+	/**
+	 * Returns the probability of a follower given its node.
+	 *
+	 * @param node the id of the node.
+	 * @param index the index of the follower.
+	 * @return the share of times the node was followed by the follower.
+	 */
+	public double followerProbability(int node, int index) {
+		return (double)compiled.followerCount(index) / compiled.followerTotal(node);
+	}
+
+	/**
+	 * Returns an estimate of the heap used by the chain: its tables and about
+	 * 64 bytes per element for the element and its table entries.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		long bytes = compiled.estimateBytes() + 64L * symbols.size();
+		if(reverse != null) {
+			bytes += reverse.compiled.estimateBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the chain trained on the input read backwards, whose
+	 * combinations are read backwards as well: its followers of the codes
+	 * (c, b, a) are the elements found before "abc" in the input. Only chains
+	 * trained with it have one, and it isn't saved in snapshots.
+	 *
+	 * @return the backwards chain, or null if none was trained.
+	 */
+	public MarkovChain getReverse() {
+		return reverse;
+	}
+
+	SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	CompiledChain getCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Returns the time and heap used by each phase of training the chain.
+	 *
+	 * @return the training metrics, empty if the chain was loaded from a snapshot.
+	 */
+	public TrainingMetrics getTrainingMetrics() {
+		return trainingMetrics;
+	}
+
+	/**
+	 * Returns the level of the chain.
+	 *
+	 * @return the level of the chain.
+	 */
+	public int getLevel() {
+		return markovLevel;
+	}
+
+	/**
+	 * Returns the amount of nodes in the chain. Node ids are dense, from 0 up
+	 * to (but not including) this amount.
+	 *
+	 * @return the amount of nodes.
+	 */
+	public int getNodeCount() {
+		return compiled.getNodeCount();
+	}
+
+	/**
+	 * Returns the amount of distinct elements in the input. Element codes are
+	 * dense, from 0 up to (but not including) this amount.
+	 *
+	 * @return the amount of distinct elements.
+	 */
+	public int getSymbolCount() {
+		return symbols.size();
+	}
+
+	/**
+	 * Returns the code of an element in the input.
+	 *
+	 * @param symbol the element to look up.
+	 * @return the code of the element, or SymbolTable.NO_SYMBOL if the element
+	 * isn't in the input.
+	 */
+	public int symbolOf(Object symbol) {
+		return symbols.codeOf(symbol);
+	}
+
+	/**
+	 * Returns the element with the given code.
+	 *
+	 * @param code the code of the element.
+	 * @return the element with the given code.
+	 */
+	public Object symbolAt(int code) {
+		return symbols.symbolAt(code);
+	}
 
 	/**
 	 * Returns a prediction of the next element by making a random draw
@@ -140,34 +733,90 @@ public class MarkovChain {
 	 * @return an object representing the random based prediction of the next element.
 	 */
 	public Object predictNext(List seed) {
-		if(markovChain.containsKey(seed)) {
-			List possibleNextElements = (List)markovChain.get(seed);
-			int randomIndex = (int)Math.round(Math.random()*(possibleNextElements.size()-1));
-			return possibleNextElements.get(randomIndex);
-		} else {
+		return predictNext(seed, threadRandom());
+	}
+
+	/**
+	 * Returns a prediction of the next element by making a random draw
+	 * amongst the registered follower objects of the specified seed.
+	 *
+	 * @param seed a list of of objects that the next element
+	 * will be predicted from.
+	 * @param random the random number generator to draw with.
+	 * @return an object representing the random based prediction of the next element.
+	 */
+	public Object predictNext(List seed, SplittableRandom random) {
+		int[] context = new int[seed.size()];
+		for(int i = 0; i < context.length; i++) {
+			context[i] = symbols.codeOf(seed.get(i));
+		}
+		int next = predictNext(context, 0, context.length, random);
+		if(next == SymbolTable.NO_SYMBOL) {
 			return null;
 		}
+		return symbols.symbolAt(next);
 	}
 
-	public String toString() {
-		TreeMap sortedKeys = new TreeMap();
-		List sortedList = new ArrayList();
-		Set keySet = markovChain.keySet();
-		Iterator it = keySet.iterator();
-		while(it.hasNext()) {
-			List next = (List)it.next();
-			sortedKeys.put(MarkovChain.listToString(next), next);
+	/**
+	 * Returns a prediction of the next element by making a random draw amongst
+	 * the registered followers of the specified combination of element codes.
+	 *
+	 * @param context an array holding the codes of the combination.
+	 * @param offset the index of the first element of the combination.
+	 * @param length the amount of elements in the combination.
+	 * @return the code of the predicted element, or SymbolTable.NO_SYMBOL if the
+	 * combination isn't in the chain.
+	 */
+	public int predictNext(int[] context, int offset, int length) {
+		return predictNext(context, offset, length, threadRandom());
+	}
+
+	/**
+	 * Returns a prediction of the next element by making a random draw amongst
+	 * the registered followers of the specified combination of element codes.
+	 *
+	 * @param context an array holding the codes of the combination.
+	 * @param offset the index of the first element of the combination.
+	 * @param length the amount of elements in the combination.
+	 * @param random the random number generator to draw with.
+	 * @return the code of the predicted element, or SymbolTable.NO_SYMBOL if the
+	 * combination isn't in the chain.
+	 */
+	public int predictNext(int[] context, int offset, int length, SplittableRandom random) {
+		int node = findContext(context, offset, length);
+		// A combination can be left without followers when they were removed.
+		if(node == -1 || compiled.followerStart(node) == compiled.followerEnd(node)) {
+			return SymbolTable.NO_SYMBOL;
 		}
-		String returnString = "";
-		Set sortedKeyStrings = sortedKeys.keySet();
-		Iterator it2 = sortedKeyStrings.iterator();
-		while(it2.hasNext()) {
-			String keyString = (String)it2.next();
-			returnString += keyString + ":";
-			returnString += MarkovChain.listToString((List)markovChain.get(sortedKeys.get(keyString)));
-			returnString += "\n";
+		return compiled.drawFollower(node, random.nextDouble());
+	}
+
+	/**
+	 * Returns a random number generator owned by the calling thread, for the
+	 * methods that aren't given one. Each thread gets its own generator with an
+	 * unpredictable seed, so threads never contend for one.
+	 *
+	 * @return the random number generator of the calling thread.
+	 */
+	static SplittableRandom threadRandom() {
+		return (SplittableRandom)THREAD_RANDOM.get();
+	}
+
+	/**
+	 * Returns every combination of the chain with its followers, sorted, one
+	 * per line. Large chains are better written with a ChainExporter, which
+	 * streams them instead.
+	 *
+	 * @return the combinations of the chain.
+	 */
+	public String toString() {
+		StringWriter out = new StringWriter();
+		try {
+			new ChainExporter(this).export(out);
+		} catch (IOException ioe) {
+			// A StringWriter never fails.
 		}
-		return returnString;
+		return out.toString();
 	}
 
 	/**
@@ -190,18 +839,19 @@ public class MarkovChain {
 	 *
 	 * @param list the list to be converted,
 	 * @return the list as a String, where each element of the given list is
-	 * represented as a part of the returned String.
+	 * represented as a part of the returned String, by its toString() if it
+	 * isn't a String.
 	 */
 	public static String listToString(List list) {
-		String returnString = "";
+		StringBuilder returnString = new StringBuilder();
 		for(int i =0;i<list.size();i++) {
-			String currentChar = (String)list.get(i);
+			String currentChar = String.valueOf(list.get(i));
 			if(currentChar.equals("\n")) {
 				currentChar = "\\n";
 			}
-			returnString += currentChar;
+			returnString.append(currentChar);
 		}
-		return returnString;
+		return returnString.toString();
 	}
 
 	/*
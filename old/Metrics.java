@@ -0,0 +1,54 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Helpers for publishing metrics through JMX and writing their summaries.
+ */
+public class Metrics {
+
+	private Metrics() {
+	}
+
+	/**
+	 * Publishes metrics through the platform MBean server, as
+	 * genr8:type=(type),name=(name). Metrics already published under the same
+	 * name are replaced.
+	 *
+	 * @param metrics the metrics, implementing a standard MBean interface.
+	 * @param type the type part of the name, e.g. "GenerationMetrics".
+	 * @param name the name part of the name, e.g. the level of a generator.
+	 */
+	public static void register(Object metrics, String type, String name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = new ObjectName("genr8:type=" + type + ",name=" + ObjectName.quote(name));
+			try {
+				server.registerMBean(metrics, objectName);
+			} catch (InstanceAlreadyExistsException iaee) {
+				server.unregisterMBean(objectName);
+				server.registerMBean(metrics, objectName);
+			}
+		} catch (JMException jme) {
+			throw new IllegalArgumentException("Could not register metrics: " + jme.getMessage());
+		}
+	}
+
+	/**
+	 * Appends a line of "name=value" to a summary.
+	 */
+	static void line(StringBuilder summary, String name, Object value) {
+		summary.append(name).append('=').append(value).append('\n');
+	}
+
+	static void line(StringBuilder summary, String name, long value) {
+		summary.append(name).append('=').append(value).append('\n');
+	}
+
+	static void line(StringBuilder summary, String name, double value) {
+		summary.append(name).append('=').append(Math.round(value * 1000.0) / 1000.0).append('\n');
+	}
+}
@@ -0,0 +1,356 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The ModelRegistry keeps trained WordGenerators in memory, so that a model
+ * that is asked for again isn't trained again. Models are keyed by a hash of
+ * the contents of their input files together with the parameters they were
+ * trained with, so the same input under another name is found, and a changed
+ * input is trained anew. The registry also keeps the corpora that models are
+ * trained from, see getCorpus(), so that they count against the same budget.
+ *
+ * The models are kept within a memory budget, weighed by the estimated size of
+ * their generators, see WordGenerator.estimateBytes(), and corpora by
+ * Corpus.estimateBytes(). A generator grows as it
+ * caches the tables of new length bounds, so a model is weighed again every
+ * time it is used, and callers that have used it through WordGenerator.share()
+ * weigh it again with weigh() when done. When the models don't fit, the ones
+ * used least recently are evicted until they do. A model larger than the whole
+ * budget is still kept, alone.
+ *
+ * A model is built on demand by the first caller asking for it. Callers asking
+ * for the same model while it is being built wait for that build instead of
+ * starting another one.
+ */
+public class ModelRegistry {
+
+	/**
+	 * The amount of bytes of a file hashed at once.
+	 */
+	private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The memory budget in bytes.
+	 */
+	private long maxBytes;
+
+	/**
+	 * The models by key, least recently used first, and their weights. Guarded
+	 * by the registry.
+	 */
+	private LinkedHashMap models = new LinkedHashMap(16, 0.75f, true);
+	private Map weights = new HashMap();
+
+	/**
+	 * The estimated size of the models.
+	 */
+	private long bytes;
+
+	/**
+	 * The builds in progress as FutureTasks, by key.
+	 */
+	private ConcurrentHashMap building = new ConcurrentHashMap();
+
+	private RegistryMetrics metrics;
+
+	/**
+	 * Constructs a new, empty ModelRegistry.
+	 *
+	 * @param maxBytes the most bytes the models may use together.
+	 */
+	public ModelRegistry(long maxBytes) {
+		if(maxBytes < 1) {
+			throw new IllegalArgumentException("Memory budget below 1 given; incorrect");
+		}
+		this.maxBytes = maxBytes;
+		metrics = new RegistryMetrics(maxBytes);
+	}
+
+	/**
+	 * Returns the generator trained on input files with the given parameters,
+	 * reading and training it if it isn't in the registry.
+	 *
+	 * @param files the input files, in order; see CorpusReader.expand().
+	 * @param level the level of the chain.
+	 * @param lowerCase if the input is made lower case.
+	 * @param commentChar the character that starts a comment, or null for none.
+	 * @param pool the pool to read and train in, or null to do it sequentially.
+	 * @return the generator.
+	 * @throws IOException if the files can't be read.
+	 */
+	public WordGenerator get(final List files, final int level, final boolean lowerCase,
+			final String commentChar, final ForkJoinPool pool) throws IOException {
+		String key = key(contentHash(files), level, lowerCase, commentChar);
+		return get(key, new Callable() {
+			public Object call() throws IOException {
+				Corpus corpus = new CorpusReader(commentChar, lowerCase).read(files, pool);
+				return new WordGenerator(corpus.train(level, pool, null), corpus.getAlphabet());
+			}
+		});
+	}
+
+	/**
+	 * Returns the generator of a key, building it with the given Callable if it
+	 * isn't in the registry. If another caller is building it already, that
+	 * build is waited for instead.
+	 *
+	 * @param key the key of the model, see key().
+	 * @param builder returns the WordGenerator of the key when called.
+	 * @return the generator.
+	 * @throws IOException if the builder threw one.
+	 */
+	public WordGenerator get(String key, Callable builder) throws IOException {
+		return (WordGenerator)getModel(key, builder);
+	}
+
+	/**
+	 * Returns the corpus of a key, reading it with the given Callable if it
+	 * isn't in the registry, like get() builds a model. A corpus is kept and
+	 * evicted like a model, so the corpora shared by jobs stay within the
+	 * budget too.
+	 *
+	 * @param key the key of the corpus, see key(), with level 0.
+	 * @param reader returns the Corpus of the key when called.
+	 * @return the corpus.
+	 * @throws IOException if the reader threw one.
+	 */
+	public Corpus getCorpus(String key, Callable reader) throws IOException {
+		return (Corpus)getModel(key, reader);
+	}
+
+	/**
+	 * Returns the WordGenerator or Corpus of a key, building it if it isn't in
+	 * the registry.
+	 */
+	private Object getModel(String key, Callable builder) throws IOException {
+		Object model = lookup(key);
+		if(model != null) {
+			return model;
+		}
+		FutureTask task = new FutureTask(builder);
+		FutureTask running = (FutureTask)building.putIfAbsent(key, task);
+		if(running == null) {
+			running = task;
+			try {
+				// The model may have been added between the lookup and now.
+				model = lookup(key);
+				if(model != null) {
+					return model;
+				}
+				long start = System.nanoTime();
+				task.run();
+				try {
+					put(key, task.get());
+					metrics.recordMiss(System.nanoTime() - start, false);
+				} catch (ExecutionException ee) {
+					metrics.recordMiss(System.nanoTime() - start, true);
+				} catch (InterruptedException ie) {
+					// The task has run, so this isn't thrown.
+				}
+			} finally {
+				building.remove(key, task);
+			}
+		} else {
+			metrics.recordSharedBuild();
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building model " + key);
+		} catch (ExecutionException ee) {
+			if(ee.getCause() instanceof IOException) {
+				throw (IOException)ee.getCause();
+			} else if(ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)ee.getCause();
+			}
+			throw new IllegalStateException("Could not build model " + key, ee.getCause());
+		}
+	}
+
+	/**
+	 * Returns the model of a key if it is in the registry, making it the most
+	 * recently used and weighing it again.
+	 */
+	private synchronized Object lookup(String key) {
+		Object model = models.get(key);
+		if(model != null) {
+			metrics.recordHit();
+			weigh(key);
+		}
+		return model;
+	}
+
+	/**
+	 * Weighs the model of a key again, if it is in the registry, and evicts the
+	 * least recently used models until the models fit within the budget. Called
+	 * after the caches of the model have grown.
+	 *
+	 * @param key the key of the model.
+	 */
+	public synchronized void weigh(String key) {
+		Object model = models.get(key);
+		if(model != null) {
+			long weight = estimateBytes(model);
+			bytes += weight - ((Long)weights.put(key, Long.valueOf(weight))).longValue();
+			evict();
+		}
+	}
+
+	/**
+	 * Returns the estimated size of a WordGenerator or Corpus.
+	 */
+	private static long estimateBytes(Object model) {
+		if(model instanceof Corpus) {
+			return ((Corpus)model).estimateBytes();
+		}
+		return ((WordGenerator)model).estimateBytes();
+	}
+
+	/**
+	 * Adds a model, evicting the least recently used ones until the models fit
+	 * within the budget again.
+	 */
+	private synchronized void put(String key, Object model) {
+		long weight = estimateBytes(model);
+		remove(key);
+		models.put(key, model);
+		weights.put(key, Long.valueOf(weight));
+		bytes += weight;
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used models until the models fit within the
+	 * budget, keeping at least the most recently used one.
+	 */
+	private synchronized void evict() {
+		Iterator it = models.keySet().iterator();
+		while(bytes > maxBytes && models.size() > 1) {
+			Object eldest = it.next();
+			long evicted = ((Long)weights.remove(eldest)).longValue();
+			it.remove();
+			bytes -= evicted;
+			metrics.recordEviction(evicted);
+		}
+		metrics.recordSize(models.size(), bytes);
+	}
+
+	/**
+	 * Removes the model of a key from the registry, if it is there. Callers
+	 * already holding the generator can keep using it.
+	 *
+	 * @param key the key of the model.
+	 */
+	public synchronized void remove(String key) {
+		if(models.remove(key) != null) {
+			bytes -= ((Long)weights.remove(key)).longValue();
+			metrics.recordSize(models.size(), bytes);
+		}
+	}
+
+	/**
+	 * Removes all models from the registry.
+	 */
+	public synchronized void clear() {
+		models.clear();
+		weights.clear();
+		bytes = 0;
+		metrics.recordSize(0, 0);
+	}
+
+	/**
+	 * Tells if the model of a key is in the registry, without using it.
+	 *
+	 * @param key the key of the model.
+	 * @return true if the model is in the registry.
+	 */
+	public synchronized boolean contains(String key) {
+		return weights.containsKey(key);
+	}
+
+	/**
+	 * Returns the key of a model.
+	 *
+	 * @param contentHash the hash of the input, see contentHash().
+	 * @param level the level of the chain.
+	 * @param lowerCase if the input is made lower case.
+	 * @param commentChar the character that starts a comment, or null for none.
+	 * @return the key.
+	 */
+	public static String key(String contentHash, int level, boolean lowerCase, String commentChar) {
+		int comment = commentChar == null || commentChar.length() == 0 ? -1 : commentChar.codePointAt(0);
+		return contentHash + "/level=" + level + "/lowercase=" + (lowerCase ? 1 : 0) + "/comment=" + comment;
+	}
+
+	/**
+	 * Returns the SHA-256 of the contents of files, as hex. The length of each
+	 * file is hashed before its contents, so the same bytes split differently
+	 * between files hash differently.
+	 *
+	 * @param files the files, in order.
+	 * @return the hash.
+	 * @throws IOException if a file can't be read.
+	 */
+	public static String contentHash(List files) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("SHA-256 not supported");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+		for(int i = 0; i < files.size(); i++) {
+			FileChannel channel = FileChannel.open(((File)files.get(i)).toPath(), StandardOpenOption.READ);
+			try {
+				buffer.clear();
+				buffer.putLong(channel.size());
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+				while(channel.read(buffer) != -1) {
+					buffer.flip();
+					digest.update(buffer);
+					buffer.clear();
+				}
+			} finally {
+				channel.close();
+			}
+		}
+		byte[] hash = digest.digest();
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for(int i = 0; i < hash.length; i++) {
+			hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Returns the usage of the registry, which can be published through JMX
+	 * with Metrics.register().
+	 *
+	 * @return the metrics.
+	 */
+	public RegistryMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The OnlineChain keeps a MarkovChain up to date as input is added to it or
+ * removed from it, without training it again from the whole input.
+ *
+ * New sequences are counted into tables that are kept between updates, so
+ * adding or removing a sequence costs time in proportion to its length. The
+ * counts become visible to predictions when publish() is called, which compiles
+ * them into a new, immutable MarkovChain and swaps it in as the current one.
+ * Threads generating from current() keep the chain they got, and so always see
+ * a consistent state, while the next one is being built. Publishing compiles
+ * the whole chain, so many updates should be published at once.
+ *
+ * Updates and publishing are synchronized with each other, but current() never
+ * waits for them. A WordGenerator is made for a single chain, so a new one
+ * should be made for each published chain that is to be used.
+ */
+public class OnlineChain {
+
+	/**
+	 * The level of the chain.
+	 */
+	private int level;
+
+	/**
+	 * The codes of the elements, added to as new elements are seen. Published
+	 * chains get copies of it.
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * The symbols that the current chain was published with, reused as long
+	 * as no new elements have been seen.
+	 */
+	private SymbolTable publishedSymbols;
+
+	/**
+	 * The counts of all added sequences, less the removed ones.
+	 */
+	private ContextCounts counts;
+
+	/**
+	 * The chain that predictions are currently made from.
+	 */
+	private volatile MarkovChain current;
+
+	/**
+	 * The amount of times a chain has been published.
+	 */
+	private volatile long epoch;
+
+	/**
+	 * Constructs a new, empty OnlineChain.
+	 *
+	 * @param level the level of the chain.
+	 */
+	public OnlineChain(int level) {
+		if(level < 1) {
+			throw new IllegalArgumentException("Level below 1 given; incorrect");
+		}
+		this.level = level;
+		symbols = new SymbolTable();
+		counts = new ContextCounts(level);
+		publish();
+	}
+
+	/**
+	 * Adds a sequence to the counts. Combinations are only counted within the
+	 * sequence, so a sequence usually starts and ends with a separator, like the
+	 * input of WordMain.
+	 *
+	 * @param sequence the elements to add, which must implement equals().
+	 */
+	public synchronized void append(List sequence) {
+		int[] codes = new int[sequence.size()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = symbols.intern(sequence.get(i));
+		}
+		counts.count(codes, 0, codes.length);
+	}
+
+	/**
+	 * Removes a sequence that was added before from the counts. Combinations
+	 * left without followers are no longer predicted from, and predictions from
+	 * longer combinations back off past them.
+	 *
+	 * @param sequence the elements to remove.
+	 */
+	public synchronized void remove(List sequence) {
+		int[] codes = new int[sequence.size()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = symbols.codeOf(sequence.get(i));
+		}
+		counts.uncount(codes, 0, codes.length);
+	}
+
+	/**
+	 * Adds every sequence of an Iterable to the counts and publishes them.
+	 *
+	 * @param sequences an Iterable of Lists of elements.
+	 * @return the published chain.
+	 */
+	public synchronized MarkovChain train(Iterable sequences) {
+		Iterator it = sequences.iterator();
+		while(it.hasNext()) {
+			append((List)it.next());
+		}
+		return publish();
+	}
+
+	/**
+	 * Adds a text to the counts and publishes them. The text is decoded into
+	 * code points by the rules of a CorpusReader, the same way as the files
+	 * WordMain reads, and added as one sequence of one code point Strings,
+	 * starting and ending with a line feed.
+	 *
+	 * @param reader the text to add. The reader isn't closed.
+	 * @param corpusReader the rules to decode the text by.
+	 * @return the published chain.
+	 * @throws IOException if the text can't be read.
+	 */
+	public synchronized MarkovChain train(Reader reader, CorpusReader corpusReader) throws IOException {
+		int[] codes = corpusReader.decode(reader);
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = symbols.intern(new String(Character.toChars(codes[i])));
+		}
+		counts.count(codes, 0, codes.length);
+		return publish();
+	}
+
+	/**
+	 * Compiles the counts into a new chain and makes it the current one.
+	 *
+	 * @return the published chain.
+	 */
+	public synchronized MarkovChain publish() {
+		if(publishedSymbols == null || publishedSymbols.size() != symbols.size()) {
+			publishedSymbols = new SymbolTable(symbols);
+		}
+		CompiledChain compiled = CompiledChain.compile(counts, true);
+		current = new MarkovChain(publishedSymbols, compiled, level);
+		epoch++;
+		return current;
+	}
+
+	/**
+	 * Returns the chain published last. It never changes, so it can be used for
+	 * as long as needed.
+	 *
+	 * @return the current chain.
+	 */
+	public MarkovChain current() {
+		return current;
+	}
+
+	/**
+	 * Returns the amount of times a chain has been published, which tells if
+	 * current() has changed.
+	 *
+	 * @return the current epoch.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+}
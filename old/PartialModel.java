@@ -0,0 +1,583 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The PartialModel holds the counts of a MarkovChain trained on some of the
+ * shards of an input, so that an input too large for one machine can be
+ * trained on many and the parts merged into the chain of the whole input.
+ *
+ * An input is split into a known amount of shards, each a run of whole input
+ * files in the order CorpusReader would read them. Next to the counts of its
+ * shards, a partial model keeps the first and last level elements of each run
+ * of adjacent shards it holds. When two runs meet in a merge, the combinations
+ * across the boundary between them are counted from those elements, so the
+ * counts of all shards merged equal the counts of the whole input, whatever
+ * order the partial models are merged in.
+ *
+ * Each element keeps the shard and position where it was first seen, and the
+ * elements of the finished chain are ordered by it, which gives them the same
+ * codes as training on the whole input at once. Partial models are written in
+ * a canonical order, so merging the same shards in any order writes the same
+ * file.
+ *
+ * Partial models have no backwards chain, and are counted without memory
+ * limits.
+ */
+public class PartialModel {
+
+	/**
+	 * The first four bytes of a partial model file, "GNP8".
+	 */
+	private static final int MAGIC = 0x384E5047;
+
+	/**
+	 * The version of the format. Files of other versions are not read.
+	 */
+	private static final int VERSION = 1;
+
+	private int level;
+	private int shardCount;
+
+	/**
+	 * The elements of the shards, in the order they were interned.
+	 */
+	private SymbolTable symbols = new SymbolTable();
+
+	/**
+	 * Where each element was first seen, as (shard << 32 | position), indexed
+	 * by code.
+	 */
+	private long[] firstSeen = new long[16];
+
+	private ContextCounts counts;
+
+	/**
+	 * The runs of adjacent shards held, sorted by their first shard.
+	 */
+	private List segments = new ArrayList();
+
+	private long lineFeeds;
+	private long spaces;
+	private long size;
+	private int fileCount;
+
+	private PartialModel(int level, int shardCount) {
+		this.level = level;
+		this.shardCount = shardCount;
+	}
+
+	/**
+	 * Trains a partial model on one shard of an input.
+	 *
+	 * @param corpus the files of the shard, read by a CorpusReader.
+	 * @param shard the index of the shard, from 0.
+	 * @param shardCount the amount of shards the input is split into.
+	 * @param level the level of the chain.
+	 * @param pool the pool to count in, or null to count sequentially.
+	 * @return the partial model of the shard.
+	 */
+	public static PartialModel train(Corpus corpus, int shard, int shardCount, int level, ForkJoinPool pool) {
+		if(shard < 0 || shard >= shardCount) {
+			throw new IllegalArgumentException("Shard " + shard + " out of range 0-" + (shardCount - 1));
+		}
+		if(level < 1) {
+			throw new IllegalArgumentException("Level must be at least 1");
+		}
+		PartialModel model = new PartialModel(level, shardCount);
+		// Every corpus starts with a line feed, which the whole input only has
+		// once, before the first shard.
+		int[] corpusCodes = corpus.getCodes();
+		int from = shard == 0 ? 0 : 1;
+		SymbolTable corpusSymbols = corpus.getSymbols();
+		int[] mapped = new int[corpusSymbols.size()];
+		Arrays.fill(mapped, -1);
+		int[] codes = new int[corpusCodes.length - from];
+		for(int i = 0; i < codes.length; i++) {
+			int code = corpusCodes[from + i];
+			if(mapped[code] == -1) {
+				mapped[code] = model.addSymbol(corpusSymbols.symbolAt(code), (long)shard << 32 | i);
+			}
+			codes[i] = mapped[code];
+		}
+		model.counts = MarkovChain.count(codes, level, pool);
+		int edge = Math.min(level, codes.length);
+		model.segments.add(new Segment(shard, shard, Arrays.copyOfRange(codes, 0, edge),
+				Arrays.copyOfRange(codes, codes.length - edge, codes.length)));
+		model.lineFeeds = corpus.getLineFeeds();
+		model.spaces = corpus.getSpaces();
+		model.size = codes.length;
+		model.fileCount = corpus.getFileCount();
+		return model;
+	}
+
+	/**
+	 * Interns a new element.
+	 */
+	private int addSymbol(Object symbol, long seen) {
+		int code = symbols.intern(symbol);
+		if(code == firstSeen.length) {
+			firstSeen = Arrays.copyOf(firstSeen, 2 * code);
+		}
+		firstSeen[code] = seen;
+		return code;
+	}
+
+	/**
+	 * Adds the shards of another partial model to this one. The other model is
+	 * left unchanged. Merging is associative and commutative, apart from the
+	 * order of the tables in memory, which write() doesn't depend on.
+	 *
+	 * @param other the partial model to add.
+	 * @throws IllegalArgumentException if the models have a different level or
+	 * amount of shards, or hold the same shard.
+	 */
+	public void merge(PartialModel other) {
+		if(other.level != level || other.shardCount != shardCount) {
+			throw new IllegalArgumentException("Partial models of level " + level + " with " + shardCount
+					+ " shards and of level " + other.level + " with " + other.shardCount + " shards can't be merged");
+		}
+		for(int i = 0; i < other.segments.size(); i++) {
+			Segment theirs = (Segment)other.segments.get(i);
+			for(int j = 0; j < segments.size(); j++) {
+				Segment ours = (Segment)segments.get(j);
+				if(theirs.firstShard <= ours.lastShard && ours.firstShard <= theirs.lastShard) {
+					throw new IllegalArgumentException("Shard " + Math.max(theirs.firstShard, ours.firstShard)
+							+ " is in both partial models");
+				}
+			}
+		}
+
+		int[] codes = new int[other.symbols.size()];
+		for(int i = 0; i < codes.length; i++) {
+			Object symbol = other.symbols.symbolAt(i);
+			int code = symbols.codeOf(symbol);
+			if(code == SymbolTable.NO_SYMBOL) {
+				code = addSymbol(symbol, other.firstSeen[i]);
+			} else {
+				firstSeen[code] = Math.min(firstSeen[code], other.firstSeen[i]);
+			}
+			codes[i] = code;
+		}
+		counts.merge(other.counts, codes);
+		for(int i = 0; i < other.segments.size(); i++) {
+			Segment theirs = (Segment)other.segments.get(i);
+			segments.add(new Segment(theirs.firstShard, theirs.lastShard, remap(theirs.head, codes),
+					remap(theirs.tail, codes)));
+		}
+		Collections.sort(segments, new Comparator() {
+			public int compare(Object a, Object b) {
+				return Integer.compare(((Segment)a).firstShard, ((Segment)b).firstShard);
+			}
+		});
+
+		// Counts the combinations across each boundary that is now held from
+		// both sides, and joins the runs around it.
+		List joined = new ArrayList();
+		Segment left = (Segment)segments.get(0);
+		for(int i = 1; i < segments.size(); i++) {
+			Segment right = (Segment)segments.get(i);
+			if(left.lastShard + 1 != right.firstShard) {
+				joined.add(left);
+				left = right;
+				continue;
+			}
+			counts.countAcross(concat(left.tail, right.head), left.tail.length);
+			int[] head = concat(left.head, right.head);
+			int[] tail = concat(left.tail, right.tail);
+			left = new Segment(left.firstShard, right.lastShard,
+					Arrays.copyOfRange(head, 0, Math.min(level, head.length)),
+					Arrays.copyOfRange(tail, Math.max(0, tail.length - level), tail.length));
+		}
+		joined.add(left);
+		segments = joined;
+
+		lineFeeds += other.lineFeeds;
+		spaces += other.spaces;
+		size += other.size;
+		fileCount += other.fileCount;
+	}
+
+	private static int[] remap(int[] codes, int[] mapped) {
+		int[] result = new int[codes.length];
+		for(int i = 0; i < codes.length; i++) {
+			result[i] = mapped[codes[i]];
+		}
+		return result;
+	}
+
+	private static int[] concat(int[] first, int[] second) {
+		int[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	/**
+	 * Returns if the partial model holds every shard of the input.
+	 *
+	 * @return true if toChain() can be called.
+	 */
+	public boolean isComplete() {
+		Segment only = (Segment)segments.get(0);
+		return segments.size() == 1 && only.firstShard == 0 && only.lastShard == shardCount - 1;
+	}
+
+	/**
+	 * Compiles the counts of a complete partial model into a MarkovChain, the
+	 * same as one trained on the whole input at once.
+	 *
+	 * @return the chain.
+	 * @throws IllegalStateException if shards are missing.
+	 */
+	public MarkovChain toChain() {
+		if(!isComplete()) {
+			throw new IllegalStateException("Shards " + describeShards() + " of 0-" + (shardCount - 1)
+					+ " held, the others are missing");
+		}
+		int[] order = symbolOrder();
+		int[] codes = new int[order.length];
+		SymbolTable canonical = new SymbolTable();
+		for(int i = 0; i < order.length; i++) {
+			codes[order[i]] = canonical.intern(symbols.symbolAt(order[i]));
+		}
+		int[] nodes = nodeOrder(codes);
+		ContextCounts result = new ContextCounts(level);
+		int[] mapped = new int[counts.getNodeCount()];
+		mapped[ContextCounts.ROOT] = ContextCounts.ROOT;
+		for(int i = 1; i < nodes.length; i++) {
+			int node = nodes[i];
+			mapped[node] = result.childOf(mapped[counts.getParent(node)], codes[counts.getSymbol(node)], true);
+		}
+		long[] keys = counts.followerKeys();
+		for(int i = 0; i < keys.length; i++) {
+			result.addFollower(mapped[(int)(keys[i] >>> 32)], codes[(int)keys[i]], counts.followerCount(keys[i]));
+		}
+		return new MarkovChain(canonical, CompiledChain.compile(result), level);
+	}
+
+	/**
+	 * Compiles a complete partial model into a WordGenerator, with the line feeds
+	 * and spaces of the shards as the separators of its alphabet, the same as
+	 * one trained on the whole input at once.
+	 *
+	 * @return the generator.
+	 * @throws IllegalStateException if shards are missing.
+	 */
+	public WordGenerator toGenerator() {
+		MarkovChain chain = toChain();
+		Alphabet alphabet = new Alphabet(chain.getSymbols());
+		addSeparator(alphabet, "\n", lineFeeds);
+		addSeparator(alphabet, " ", spaces);
+		return new WordGenerator(chain, alphabet);
+	}
+
+	/**
+	 * Makes a symbol a separator occurring the given amount of times, if it is
+	 * in the alphabet.
+	 */
+	private static void addSeparator(Alphabet alphabet, String separator, long frequency) {
+		if(alphabet.setClass(separator, Alphabet.SEPARATOR)) {
+			alphabet.addFrequency(alphabet.getSymbols().codeOf(separator), frequency);
+		}
+	}
+
+	/**
+	 * Returns the codes of the elements ordered by where they were first seen.
+	 */
+	private int[] symbolOrder() {
+		long[] keys = new long[symbols.size()];
+		LongIntHashMap codeOf = new LongIntHashMap(keys.length);
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = firstSeen[i];
+			codeOf.put(keys[i], i);
+		}
+		Arrays.sort(keys);
+		int[] order = new int[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			order[i] = codeOf.get(keys[i], -1);
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the nodes in canonical order: shortest combinations first, then
+	 * by the canonical position of their parent and the canonical code of their
+	 * first element. Parents still come before their children.
+	 *
+	 * @param codes the canonical code of each element code.
+	 */
+	private int[] nodeOrder(int[] codes) {
+		int nodeCount = counts.getNodeCount();
+		int[] depth = new int[nodeCount];
+		int[] depthSizes = new int[level + 2];
+		for(int node = ContextCounts.ROOT + 1; node < nodeCount; node++) {
+			depth[node] = depth[counts.getParent(node)] + 1;
+			depthSizes[depth[node]]++;
+		}
+		int[] order = new int[nodeCount];
+		int[] position = new int[nodeCount];
+		order[0] = ContextCounts.ROOT;
+		position[ContextCounts.ROOT] = 0;
+		int next = 1;
+		for(int d = 1; d <= level; d++) {
+			long[] keys = new long[depthSizes[d]];
+			LongIntHashMap nodeOf = new LongIntHashMap(keys.length);
+			int k = 0;
+			for(int node = ContextCounts.ROOT + 1; node < nodeCount; node++) {
+				if(depth[node] == d) {
+					keys[k] = (long)position[counts.getParent(node)] << 32 | codes[counts.getSymbol(node)];
+					nodeOf.put(keys[k], node);
+					k++;
+				}
+			}
+			Arrays.sort(keys);
+			for(int i = 0; i < keys.length; i++) {
+				int node = nodeOf.get(keys[i], -1);
+				position[node] = next;
+				order[next++] = node;
+			}
+		}
+		return order;
+	}
+
+	private String describeShards() {
+		StringBuilder shards = new StringBuilder();
+		for(int i = 0; i < segments.size(); i++) {
+			Segment segment = (Segment)segments.get(i);
+			if(i > 0) {
+				shards.append(',');
+			}
+			shards.append(segment.firstShard);
+			if(segment.lastShard > segment.firstShard) {
+				shards.append('-').append(segment.lastShard);
+			}
+		}
+		return shards.toString();
+	}
+
+	/**
+	 * Writes the partial model to a file that read() can read, replacing it if
+	 * it exists. The file holds, big endian: a header (magic number, format
+	 * version, level, amount of shards, files, characters, line feeds and
+	 * spaces), the elements with where they were first seen, the runs of
+	 * shards with their first and last elements, the nodes as (parent, first
+	 * element), the followers as (node, element, count), and a CRC-32 checksum
+	 * of everything before it. All of it is in canonical order.
+	 *
+	 * @param file the file to write to.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void write(File file) throws IOException {
+		int[] symbolOrder = symbolOrder();
+		int[] codes = new int[symbolOrder.length];
+		for(int i = 0; i < symbolOrder.length; i++) {
+			codes[symbolOrder[i]] = i;
+		}
+		int[] nodes = nodeOrder(codes);
+		int[] position = new int[nodes.length];
+		for(int i = 0; i < nodes.length; i++) {
+			position[nodes[i]] = i;
+		}
+		long[] keys = counts.followerKeys();
+		long[] followers = new long[keys.length];
+		LongIntHashMap followerCounts = new LongIntHashMap(keys.length);
+		for(int i = 0; i < keys.length; i++) {
+			followers[i] = (long)position[(int)(keys[i] >>> 32)] << 32 | codes[(int)keys[i]];
+			followerCounts.put(followers[i], counts.followerCount(keys[i]));
+		}
+		Arrays.sort(followers);
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(level);
+			out.writeInt(shardCount);
+			out.writeInt(fileCount);
+			out.writeLong(size);
+			out.writeLong(lineFeeds);
+			out.writeLong(spaces);
+			out.writeInt(symbolOrder.length);
+			for(int i = 0; i < symbolOrder.length; i++) {
+				out.writeUTF((String)symbols.symbolAt(symbolOrder[i]));
+				out.writeLong(firstSeen[symbolOrder[i]]);
+			}
+			out.writeInt(segments.size());
+			for(int i = 0; i < segments.size(); i++) {
+				Segment segment = (Segment)segments.get(i);
+				out.writeInt(segment.firstShard);
+				out.writeInt(segment.lastShard);
+				writeCodes(out, remap(segment.head, codes));
+				writeCodes(out, remap(segment.tail, codes));
+			}
+			out.writeInt(nodes.length - 1);
+			for(int i = 1; i < nodes.length; i++) {
+				out.writeInt(position[counts.getParent(nodes[i])]);
+				out.writeInt(codes[counts.getSymbol(nodes[i])]);
+			}
+			out.writeInt(followers.length);
+			for(int i = 0; i < followers.length; i++) {
+				out.writeInt((int)(followers[i] >>> 32));
+				out.writeInt((int)followers[i]);
+				out.writeInt(followerCounts.get(followers[i], 0));
+			}
+			out.flush();
+			new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static void writeCodes(DataOutputStream out, int[] codes) throws IOException {
+		out.writeInt(codes.length);
+		for(int i = 0; i < codes.length; i++) {
+			out.writeInt(codes[i]);
+		}
+	}
+
+	/**
+	 * Reads a partial model written by write().
+	 *
+	 * @param file the file to read.
+	 * @return the partial model.
+	 * @throws IOException if the file can't be read or isn't a valid partial model.
+	 */
+	public static PartialModel read(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if(bytes.length < 8) {
+			throw new IOException("Not a partial model: " + file);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not a partial model: " + file);
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported partial model version " + version + ": " + file);
+			}
+			PartialModel model = new PartialModel(in.readInt(), in.readInt());
+			model.fileCount = in.readInt();
+			model.size = in.readLong();
+			model.lineFeeds = in.readLong();
+			model.spaces = in.readLong();
+			int symbolCount = in.readInt();
+			for(int i = 0; i < symbolCount; i++) {
+				model.addSymbol(in.readUTF(), in.readLong());
+			}
+			int segmentCount = in.readInt();
+			for(int i = 0; i < segmentCount; i++) {
+				model.segments.add(new Segment(in.readInt(), in.readInt(), readCodes(in), readCodes(in)));
+			}
+			// The nodes were written in an order where parents come first, so
+			// creating them in that order gives them the same ids.
+			ContextCounts counts = new ContextCounts(model.level);
+			int nodeCount = in.readInt();
+			for(int i = 0; i < nodeCount; i++) {
+				counts.childOf(in.readInt(), in.readInt(), true);
+			}
+			int followerCount = in.readInt();
+			for(int i = 0; i < followerCount; i++) {
+				counts.addFollower(in.readInt(), in.readInt(), in.readInt());
+			}
+			model.counts = counts;
+			if(in.readLong() != crc.getValue() || in.available() != 0) {
+				throw new IOException("Partial model is corrupt: " + file);
+			}
+			return model;
+		} catch (EOFException eofe) {
+			throw new IOException("Partial model is truncated: " + file, eofe);
+		}
+	}
+
+	private static int[] readCodes(DataInputStream in) throws IOException {
+		int[] codes = new int[in.readInt()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = in.readInt();
+		}
+		return codes;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public int getNodeCount() {
+		return counts.getNodeCount();
+	}
+
+	/**
+	 * Returns the amount of line feeds read in the shards held.
+	 *
+	 * @return the amount of line feeds.
+	 */
+	public long getLineFeeds() {
+		return lineFeeds;
+	}
+
+	/**
+	 * Returns the amount of spaces read in the shards held.
+	 *
+	 * @return the amount of spaces.
+	 */
+	public long getSpaces() {
+		return spaces;
+	}
+
+	/**
+	 * Returns the amount of characters in the shards held, after collapsing
+	 * whitespace.
+	 *
+	 * @return the length of the shards.
+	 */
+	public long size() {
+		return size;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * A run of adjacent shards, with its first and last elements up to the
+	 * level of the chain.
+	 */
+	private static class Segment {
+
+		private int firstShard;
+		private int lastShard;
+		private int[] head;
+		private int[] tail;
+
+		Segment(int firstShard, int lastShard, int[] head, int[] tail) {
+			this.firstShard = firstShard;
+			this.lastShard = lastShard;
+			this.head = head;
+			this.tail = tail;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The RegistryMetrics counts how a ModelRegistry is used: how often a model
+ * was found, built or waited for, and how much was evicted to stay within the
+ * memory budget. Any amount of threads can record to it without locking.
+ * The corpora kept by the registry count as models.
+ */
+public class RegistryMetrics implements RegistryMetricsMBean {
+
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	private LongAdder sharedBuilds = new LongAdder();
+	private LongAdder buildFailures = new LongAdder();
+	private LongAdder evictions = new LongAdder();
+	private LongAdder evictedBytes = new LongAdder();
+	private LongAdder buildNanos = new LongAdder();
+	private LongAdder builds = new LongAdder();
+
+	/**
+	 * The amount of models and their bytes after the last change of the
+	 * registry, and the budget of the registry.
+	 */
+	private volatile int modelCount;
+	private volatile long modelBytes;
+	private long maxBytes;
+
+	/**
+	 * Constructs new, empty metrics.
+	 *
+	 * @param maxBytes the memory budget of the registry.
+	 */
+	public RegistryMetrics(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Records that a model was found in the registry.
+	 */
+	public void recordHit() {
+		hits.increment();
+	}
+
+	/**
+	 * Records that a model wasn't found and was built.
+	 *
+	 * @param nanos the time the build took.
+	 * @param failed if the build failed.
+	 */
+	public void recordMiss(long nanos, boolean failed) {
+		misses.increment();
+		if(failed) {
+			buildFailures.increment();
+		} else {
+			builds.increment();
+			buildNanos.add(nanos);
+		}
+	}
+
+	/**
+	 * Records that a model wasn't found, but was being built for another
+	 * caller, whose build was waited for.
+	 */
+	public void recordSharedBuild() {
+		sharedBuilds.increment();
+	}
+
+	/**
+	 * Records that a model was evicted.
+	 *
+	 * @param bytes the estimated size of the model.
+	 */
+	public void recordEviction(long bytes) {
+		evictions.increment();
+		evictedBytes.add(bytes);
+	}
+
+	/**
+	 * Records the contents of the registry after a change.
+	 *
+	 * @param count the amount of models.
+	 * @param bytes the estimated size of the models.
+	 */
+	public void recordSize(int count, long bytes) {
+		modelCount = count;
+		modelBytes = bytes;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getSharedBuilds() {
+		return sharedBuilds.sum();
+	}
+
+	public long getBuildFailures() {
+		return buildFailures.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getEvictedBytes() {
+		return evictedBytes.sum();
+	}
+
+	public double getBuildMillisMean() {
+		long count = builds.sum();
+		return count == 0 ? 0.0 : buildNanos.sum() / 1e6 / count;
+	}
+
+	public int getModelCount() {
+		return modelCount;
+	}
+
+	public long getModelBytes() {
+		return modelBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public double getHitRatio() {
+		long lookups = hits.sum() + misses.sum() + sharedBuilds.sum();
+		return lookups == 0 ? 0.0 : (double)hits.sum() / lookups;
+	}
+
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		sharedBuilds.reset();
+		buildFailures.reset();
+		evictions.reset();
+		evictedBytes.reset();
+		buildNanos.reset();
+		builds.reset();
+	}
+
+	/**
+	 * Returns the metrics as lines of "name=value".
+	 *
+	 * @return the summary.
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		Metrics.line(summary, "registry.hits", getHits());
+		Metrics.line(summary, "registry.misses", getMisses());
+		Metrics.line(summary, "registry.shared.builds", getSharedBuilds());
+		Metrics.line(summary, "registry.build.failures", getBuildFailures());
+		Metrics.line(summary, "registry.build.mean.ms", getBuildMillisMean());
+		Metrics.line(summary, "registry.evictions", getEvictions());
+		Metrics.line(summary, "registry.evicted.bytes", getEvictedBytes());
+		Metrics.line(summary, "registry.models", getModelCount());
+		Metrics.line(summary, "registry.model.bytes", getModelBytes());
+		Metrics.line(summary, "registry.max.bytes", getMaxBytes());
+		Metrics.line(summary, "registry.hit.ratio", getHitRatio());
+		return summary.toString();
+	}
+}
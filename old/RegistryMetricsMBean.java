@@ -0,0 +1,29 @@
+/**
+ * The management interface of RegistryMetrics, as published through JMX.
+ */
+public interface RegistryMetricsMBean {
+
+	public long getHits();
+
+	public long getMisses();
+
+	public long getSharedBuilds();
+
+	public long getBuildFailures();
+
+	public long getEvictions();
+
+	public long getEvictedBytes();
+
+	public double getBuildMillisMean();
+
+	public int getModelCount();
+
+	public long getModelBytes();
+
+	public long getMaxBytes();
+
+	public double getHitRatio();
+
+	public void reset();
+}
@@ -0,0 +1,324 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The SentenceGenerator generates sentences from a MarkovChain of words, the
+ * way a WordGenerator generates words from a chain of characters. The chain is
+ * trained on the token ids of a Tokenizer, and a sentence is generated by
+ * walking it from the boundary before a sentence until the next boundary is
+ * drawn. The tokens are then joined with spaces, except before punctuation
+ * that closes something and after punctuation that opens something.
+ *
+ * Sentences within length bounds are drawn by a LengthConstrainedSampler with
+ * the boundary as its only separator, the way words within length bounds are,
+ * so no sentence is generated and then thrown away for its length.
+ *
+ * The chain only ever holds token ids, and the characters of the tokens are
+ * appended straight from the Vocabulary, so generating a sentence creates no
+ * objects but the sentence itself.
+ */
+public class SentenceGenerator {
+
+	/**
+	 * The characters that no space is put before.
+	 */
+	private static final String NO_SPACE_BEFORE = ".,;:!?)]}%\u2019\u201D\u00BB";
+
+	/**
+	 * The characters that no space is put after.
+	 */
+	private static final String NO_SPACE_AFTER = "([{\u2018\u201C\u00AB";
+
+	private MarkovChain markovChain;
+
+	/**
+	 * The tokens of the chain, using the same ids as its element codes.
+	 */
+	private Vocabulary vocabulary;
+
+	/**
+	 * The node of the boundary, which every sentence is generated from.
+	 */
+	private int startNode;
+
+	/**
+	 * The codes of the separators of the samplers, only the boundary.
+	 */
+	private BitSet boundaries = new BitSet();
+
+	/**
+	 * The most samplers kept at once. When more are needed, all are dropped.
+	 */
+	private static final int MAX_SAMPLERS = 16;
+
+	/**
+	 * The samplers of the length bounds asked for, keyed by the bounds.
+	 */
+	private Map samplers = new ConcurrentHashMap();
+
+	/**
+	 * What has happened while generating sentences, counted as words.
+	 */
+	private GenerationMetrics metrics;
+
+	/**
+	 * Constructs a new SentenceGenerator from a chain trained on the ids of a
+	 * Vocabulary.
+	 *
+	 * @param markovChain the chain of token ids.
+	 * @param vocabulary the tokens of the ids.
+	 */
+	public SentenceGenerator(MarkovChain markovChain, Vocabulary vocabulary) {
+		this.markovChain = markovChain;
+		this.vocabulary = vocabulary;
+		int boundary = vocabulary.idOf(Tokenizer.BOUNDARY);
+		startNode = boundary == Vocabulary.NO_TOKEN ? -1 : markovChain.longestContext(new int[] { boundary }, 0, 1);
+		if(boundary != Vocabulary.NO_TOKEN) {
+			boundaries.set(boundary);
+		}
+		metrics = new GenerationMetrics(markovChain.getLevel());
+	}
+
+	/**
+	 * Constructs a new SentenceGenerator from a chain of String tokens, such as
+	 * one loaded from a snapshot, taking the vocabulary from the chain.
+	 *
+	 * @param markovChain the chain of tokens.
+	 */
+	public SentenceGenerator(MarkovChain markovChain) {
+		this(markovChain, Vocabulary.of(markovChain.getSymbols()));
+	}
+
+	/**
+	 * Trains a SentenceGenerator on the tokens read by a Tokenizer.
+	 *
+	 * @param tokenizer the tokens to train on.
+	 * @param level the amount of tokens that predict the next one.
+	 * @param pool the pool to train in, or null to train sequentially.
+	 * @return the generator.
+	 */
+	public static SentenceGenerator train(Tokenizer tokenizer, int level, ForkJoinPool pool) {
+		if(level < 1) {
+			throw new IllegalArgumentException("Level below 1 given; incorrect");
+		}
+		Vocabulary vocabulary = tokenizer.getVocabulary();
+		MarkovChain chain = new MarkovChain(vocabulary.toSymbolTable(), tokenizer.getCodes(), level, pool, null);
+		return new SentenceGenerator(chain, vocabulary);
+	}
+
+	public static void main(String[] args) throws IOException {
+		List inputFiles = new ArrayList();
+		String modelFile = null;
+		String commentChar = null;
+		boolean lowerCase = false;
+		int level = 2;
+		int count = 10;
+		int minTokens = 1;
+		int maxTokens = 40;
+		long seed = System.nanoTime();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("in=") && args[i].length() > 3) {
+				inputFiles.add(args[i].substring(3));
+			} else if(args[i].startsWith("model=") && args[i].length() > 6) {
+				modelFile = args[i].substring(6);
+			} else if(args[i].startsWith("level=")) {
+				level = Integer.parseInt(args[i].substring(6));
+			} else if(args[i].startsWith("count=")) {
+				count = Integer.parseInt(args[i].substring(6));
+			} else if(args[i].startsWith("min=")) {
+				minTokens = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("max=")) {
+				maxTokens = Integer.parseInt(args[i].substring(4));
+			} else if(args[i].startsWith("seed=")) {
+				seed = Long.parseLong(args[i].substring(5));
+			} else if(args[i].startsWith("comment=") && args[i].length() > 8) {
+				commentChar = args[i].substring(8, 9);
+			} else if(args[i].startsWith("lowercase=")) {
+				lowerCase = args[i].substring(10).equals("1");
+			}
+		}
+		boolean loadModel = modelFile != null && new File(modelFile).exists();
+		if(inputFiles.isEmpty() && !loadModel) {
+			System.out.println("Usage: java SentenceGenerator in=filename [in=filename ...] [model=file] [level=n] [count=n] [min=n] [max=n] [seed=n] [comment=c] [lowercase=0|1]");
+			return;
+		}
+
+		SentenceGenerator generator;
+		if(loadModel) {
+			generator = new SentenceGenerator(MarkovChain.load(new File(modelFile)));
+		} else {
+			Tokenizer tokenizer = new Tokenizer(commentChar, lowerCase);
+			for(int i = 0; i < inputFiles.size(); i++) {
+				List files = CorpusReader.expand((String)inputFiles.get(i));
+				for(int j = 0; j < files.size(); j++) {
+					tokenizer.read((File)files.get(j));
+				}
+			}
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			generator = train(tokenizer, level, pool);
+			if(modelFile != null) {
+				generator.getMarkovChain().save(new File(modelFile));
+			}
+		}
+		List sentences = generator.generate(count, seed, minTokens, maxTokens);
+		for(int i = 0; i < sentences.size(); i++) {
+			System.out.println(sentences.get(i));
+		}
+	}
+
+	/**
+	 * Generates a sentence of a length within the given bounds.
+	 *
+	 * @param minTokens the least amount of tokens, punctuation included.
+	 * @param maxTokens the most amount of tokens, punctuation included.
+	 * @return the sentence, or null if no sentence within the bounds can be
+	 * generated.
+	 */
+	public String generateSentence(int minTokens, int maxTokens) {
+		return generateSentence(minTokens, maxTokens, MarkovChain.threadRandom());
+	}
+
+	/**
+	 * Generates a sentence of a length within the given bounds, like
+	 * generateSentence(int,int), drawing from the given random number generator.
+	 *
+	 * @param minTokens the least amount of tokens, punctuation included.
+	 * @param maxTokens the most amount of tokens, punctuation included.
+	 * @param random the random number generator to draw with.
+	 * @return the sentence, or null if no sentence within the bounds can be
+	 * generated.
+	 */
+	public String generateSentence(int minTokens, int maxTokens, SplittableRandom random) {
+		StringBuilder sentence = new StringBuilder();
+		return generateSentence(sentence, minTokens, maxTokens, random) == -1 ? null : sentence.toString();
+	}
+
+	/**
+	 * Generates a sentence of a length within the given bounds into a
+	 * StringBuilder. The length is drawn first, amongst the lengths within the
+	 * bounds, and then the tokens amongst those that can end the sentence at
+	 * that length. Apart from growing the StringBuilder and building the sampler
+	 * of new bounds, this creates no objects.
+	 *
+	 * @param sentence the StringBuilder to append the sentence to. Nothing is
+	 * appended if no sentence was generated.
+	 * @param minTokens the least amount of tokens, punctuation included.
+	 * @param maxTokens the most amount of tokens, punctuation included.
+	 * @param random the random number generator to draw with.
+	 * @return the amount of tokens of the sentence, or -1 if no sentence within
+	 * the bounds can be generated.
+	 */
+	public int generateSentence(StringBuilder sentence, int minTokens, int maxTokens, SplittableRandom random) {
+		long start = System.nanoTime();
+		if(startNode == -1) {
+			metrics.recordNullPrediction();
+			metrics.recordWord(false, 1, System.nanoTime() - start);
+			return -1;
+		}
+		LengthConstrainedSampler sampler = getSampler(minTokens, maxTokens);
+		metrics.recordBounded(sampler.probability(startNode), sampler.shortProbability(startNode));
+		int tokens = sampler.drawLength(startNode, random);
+		if(tokens == -1) {
+			metrics.recordWord(false, 1, System.nanoTime() - start);
+			return -1;
+		}
+		int node = startNode;
+		boolean spaceAfter = false;
+		boolean quoteOpen = false;
+		for(int n = tokens; n > 0; n--) {
+			int index = sampler.drawFollower(node, n, random);
+			int token = markovChain.followerSymbol(index);
+			char first = vocabulary.firstChar(token);
+			boolean quote = (first == '"' || first == '\'') && vocabulary.length(token) == 1;
+			boolean closing = quote ? quoteOpen : NO_SPACE_BEFORE.indexOf(first) != -1 && vocabulary.length(token) == 1;
+			if(n < tokens && spaceAfter && !closing) {
+				sentence.append(' ');
+			}
+			vocabulary.appendTo(token, sentence);
+			if(quote) {
+				quoteOpen = !quoteOpen;
+			}
+			spaceAfter = quote ? !quoteOpen : NO_SPACE_AFTER.indexOf(first) == -1 || vocabulary.length(token) > 1;
+			node = markovChain.followerNext(index);
+		}
+		// The boundary that ends the sentence is the only follower left to draw.
+		metrics.recordWord(true, 1, System.nanoTime() - start);
+		return tokens;
+	}
+
+	/**
+	 * Returns the sampler of a length bounds, with the boundary as separator.
+	 */
+	private LengthConstrainedSampler getSampler(int minTokens, int maxTokens) {
+		Long key = Long.valueOf(((long)minTokens << 32) | (maxTokens & 0xFFFFFFFFL));
+		LengthConstrainedSampler sampler = (LengthConstrainedSampler)samplers.get(key);
+		if(sampler == null) {
+			// Two threads may build the same sampler at once; both get an equal one.
+			sampler = new LengthConstrainedSampler(markovChain, boundaries, minTokens, maxTokens, false);
+			if(samplers.size() >= MAX_SAMPLERS) {
+				samplers.clear();
+			}
+			samplers.put(key, sampler);
+		}
+		return sampler;
+	}
+
+	/**
+	 * Generates a list of sentences within the given length bounds. If no
+	 * sentence within the bounds can be generated, the list is empty.
+	 *
+	 * @param count the amount of sentences to generate.
+	 * @param seed the seed of the random number generator.
+	 * @param minTokens the least amount of tokens of a sentence.
+	 * @param maxTokens the most amount of tokens of a sentence.
+	 * @return the sentences.
+	 */
+	public List generate(int count, long seed, int minTokens, int maxTokens) {
+		SplittableRandom random = new SplittableRandom(seed);
+		List sentences = new ArrayList(count);
+		StringBuilder sentence = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			sentence.setLength(0);
+			if(generateSentence(sentence, minTokens, maxTokens, random) != -1) {
+				sentences.add(sentence.toString());
+			}
+		}
+		return sentences;
+	}
+
+	/**
+	 * Returns the vocabulary of the tokens of the chain.
+	 *
+	 * @return the vocabulary.
+	 */
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * Returns the Markov chain used for the sentence generation.
+	 *
+	 * @return the Markov chain.
+	 */
+	public MarkovChain getMarkovChain() {
+		return markovChain;
+	}
+
+	/**
+	 * Returns the metrics of the sentences generated so far, each counted as a
+	 * word. They can be published through JMX with Metrics.register().
+	 *
+	 * @return the generation metrics.
+	 */
+	public GenerationMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ShardTrainer trains a MarkovChain on many machines or processes: each
+ * trains a PartialModel on one shard of the input and writes it to a file, and
+ * the files are then merged, in any order and in as many steps as wanted, into
+ * the chain of the whole input. A merge of all shards is saved as a model file
+ * that WordMain loads with model=, the same as one saved after training on the
+ * whole input.
+ *
+ * The shards are runs of whole input files. Giving each shard its files in the
+ * order that WordMain would read them gives the same chain as WordMain.
+ */
+public class ShardTrainer {
+
+	private static final String USAGE = "Usage: java ShardTrainer train in=filename [in=filename ...] shard=i/n level=n out=partfile [comment=c] [lowercase=0|1] [threads=n]\n"
+			+ "   or: java ShardTrainer merge part=partfile [part=partfile ...] out=file [partial=1]";
+
+	private ShardTrainer() {
+	}
+
+	public static void main(String[] args) {
+		try {
+			if(args.length > 0 && args[0].equals("train")) {
+				System.out.println(train(args));
+			} else if(args.length > 0 && args[0].equals("merge")) {
+				System.out.println(merge(args));
+			} else {
+				System.out.println(USAGE);
+			}
+		} catch (IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+		} catch (IllegalStateException ise) {
+			System.out.println(ise.getMessage());
+		} catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Trains a partial model on one shard, with the arguments of the train
+	 * command.
+	 *
+	 * @param args the arguments, the first being "train".
+	 * @return a report of the training.
+	 * @throws IOException if the input can't be read or the output written.
+	 */
+	static String train(String[] args) throws IOException {
+		List inputFiles = new ArrayList();
+		String outputFile = null;
+		String commentChar = null;
+		boolean lowerCase = true;
+		int shard = -1;
+		int shardCount = 0;
+		int level = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		try {
+			for(int i = 1; i < args.length; i++) {
+				if(args[i].startsWith("in=") && args[i].length() > 3) {
+					inputFiles.add(args[i].substring(3));
+				} else if(args[i].startsWith("out=") && args[i].length() > 4) {
+					outputFile = args[i].substring(4);
+				} else if(args[i].startsWith("shard=")) {
+					int slash = args[i].indexOf('/');
+					shard = Integer.parseInt(args[i].substring(6, slash));
+					shardCount = Integer.parseInt(args[i].substring(slash + 1));
+				} else if(args[i].startsWith("level=")) {
+					level = Integer.parseInt(args[i].substring(6));
+				} else if(args[i].startsWith("comment=") && args[i].length() > 8) {
+					commentChar = args[i].substring(8, 9);
+				} else if(args[i].startsWith("lowercase=")) {
+					lowerCase = args[i].substring(10).equals("1");
+				} else if(args[i].startsWith("threads=")) {
+					threads = Integer.parseInt(args[i].substring(8));
+				}
+			}
+		} catch (RuntimeException re) {
+			throw new IllegalArgumentException(USAGE);
+		}
+		if(inputFiles.isEmpty() || outputFile == null || shardCount < 1 || level < 1) {
+			throw new IllegalArgumentException(USAGE);
+		}
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		PartialModel model;
+		try {
+			List files = new ArrayList();
+			for(int i = 0; i < inputFiles.size(); i++) {
+				files.addAll(CorpusReader.expand((String)inputFiles.get(i)));
+			}
+			Corpus corpus = new CorpusReader(commentChar, lowerCase).read(files, pool);
+			model = PartialModel.train(corpus, shard, shardCount, level, pool);
+		} finally {
+			if(pool != null) {
+				pool.shutdown();
+			}
+		}
+		model.write(new File(outputFile));
+		return "Shard " + shard + "/" + shardCount + ": " + model.getFileCount() + " files, "
+				+ model.size() + " characters, " + model.getNodeCount() + " nodes written to "
+				+ outputFile + " in " + (System.nanoTime() - start) / 1000000 + " ms.";
+	}
+
+	/**
+	 * Merges partial models, with the arguments of the merge command. If the
+	 * merged model holds all shards, it is saved as a model file, unless
+	 * partial=1 is given.
+	 *
+	 * @param args the arguments, the first being "merge".
+	 * @return a report of the merge.
+	 * @throws IOException if a partial model can't be read or the output written.
+	 */
+	static String merge(String[] args) throws IOException {
+		List partFiles = new ArrayList();
+		String outputFile = null;
+		boolean partial = false;
+		for(int i = 1; i < args.length; i++) {
+			if(args[i].startsWith("part=") && args[i].length() > 5) {
+				partFiles.add(args[i].substring(5));
+			} else if(args[i].startsWith("out=") && args[i].length() > 4) {
+				outputFile = args[i].substring(4);
+			} else if(args[i].startsWith("partial=")) {
+				partial = args[i].substring(8).equals("1");
+			}
+		}
+		if(partFiles.isEmpty() || outputFile == null) {
+			throw new IllegalArgumentException(USAGE);
+		}
+
+		long start = System.nanoTime();
+		PartialModel model = PartialModel.read(new File((String)partFiles.get(0)));
+		for(int i = 1; i < partFiles.size(); i++) {
+			model.merge(PartialModel.read(new File((String)partFiles.get(i))));
+		}
+		String merged = partFiles.size() + " partial models, " + model.getFileCount() + " files, "
+				+ model.size() + " characters, " + model.getNodeCount() + " nodes";
+		if(partial || !model.isComplete()) {
+			model.write(new File(outputFile));
+			return merged + " merged into partial model " + outputFile + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms.";
+		}
+		model.toGenerator().save(new File(outputFile));
+		return merged + " merged into model " + outputFile + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.";
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The SymbolTable interns the elements of a MarkovChain input into dense int
+ * codes. Each distinct element (as defined by equals()) gets the next free code,
+ * starting at 0, the first time it is seen. The codes are used instead of the
+ * elements themselves in the tables of the MarkovChain.
+ */
+public class SymbolTable {
+
+	/**
+	 * The code returned for an element that has not been interned.
+	 */
+	public static final int NO_SYMBOL = -1;
+
+	/**
+	 * Maps each interned element to its code as an Integer.
+	 */
+	private Map codes;
+
+	/**
+	 * The interned elements, in order of their codes.
+	 */
+	private List symbols;
+
+	/**
+	 * Constructs a new, empty SymbolTable.
+	 */
+	public SymbolTable() {
+		codes = new HashMap();
+		symbols = new ArrayList();
+	}
+
+	/**
+	 * Constructs a new SymbolTable with the same codes as another one. Changes
+	 * to either table afterwards don't affect the other.
+	 *
+	 * @param other the table to copy.
+	 */
+	public SymbolTable(SymbolTable other) {
+		codes = new HashMap(other.codes);
+		symbols = new ArrayList(other.symbols);
+	}
+
+	/**
+	 * Returns the code of an element, interning it if it hasn't been seen before.
+	 *
+	 * @param symbol the element to intern. The element must implement equals().
+	 * @return the code of the element.
+	 */
+	public int intern(Object symbol) {
+		Integer code = (Integer)codes.get(symbol);
+		if(code == null) {
+			code = Integer.valueOf(symbols.size());
+			codes.put(symbol, code);
+			symbols.add(symbol);
+		}
+		return code.intValue();
+	}
+
+	/**
+	 * Returns the code of an element without interning it.
+	 *
+	 * @param symbol the element to look up.
+	 * @return the code of the element, or NO_SYMBOL if it hasn't been interned.
+	 */
+	public int codeOf(Object symbol) {
+		Integer code = (Integer)codes.get(symbol);
+		if(code == null) {
+			return NO_SYMBOL;
+		}
+		return code.intValue();
+	}
+
+	/**
+	 * Returns the element that was interned with the given code.
+	 *
+	 * @param code the code of the element.
+	 * @return the element with the given code.
+	 */
+	public Object symbolAt(int code) {
+		return symbols.get(code);
+	}
+
+	/**
+	 * Returns the amount of interned elements.
+	 *
+	 * @return the amount of interned elements.
+	 */
+	public int size() {
+		return symbols.size();
+	}
+}
@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The Tokenizer splits text into tokens for a MarkovChain of words: words,
+ * which are runs of letters and digits, possibly joined by apostrophes and
+ * hyphens, and punctuation, one character per token. Whitespace separates
+ * tokens and is dropped. The tokens are interned into a Vocabulary while they
+ * are read, so the text is only ever held as ids.
+ *
+ * Sentences are separated by the BOUNDARY token, which follows every sentence
+ * ending with ".", "!" or "?" (and any closing quotes or brackets after it),
+ * every paragraph, i.e. text followed by an empty line, and every text read.
+ * The tokens start with a boundary, so a chain trained on them predicts the
+ * first words of a sentence from it, the way a chain of characters predicts
+ * the first characters of a word from a line feed.
+ *
+ * Like a CorpusReader, the Tokenizer can make all text lower case and skip the
+ * rest of a line after a comment character.
+ */
+public class Tokenizer {
+
+	/**
+	 * The token between sentences. It is the first token interned, so its id
+	 * is always 0.
+	 */
+	public static final String BOUNDARY = "\n";
+
+	/**
+	 * The characters after which a sentence ends.
+	 */
+	private static final String SENTENCE_ENDS = ".!?";
+
+	/**
+	 * The characters that still belong to a sentence after its end.
+	 */
+	private static final String CLOSING = "\"')]}\u2019\u201D\u00BB";
+
+	/**
+	 * The characters that join the parts of a word, such as "don't" or
+	 * "well-known", when followed by a letter or digit.
+	 */
+	private static final String JOINERS = "'-\u2019";
+
+	/**
+	 * The amount of chars read from a file at once.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Vocabulary vocabulary = new Vocabulary();
+
+	/**
+	 * The ids of the tokens read so far.
+	 */
+	private int[] codes = new int[1024];
+
+	private int size;
+
+	/**
+	 * The code point that starts a comment, or -1 for none.
+	 */
+	private int commentChar;
+
+	/**
+	 * If all text should be made lower case.
+	 */
+	private boolean lowerCase;
+
+	/**
+	 * The characters of the word being read.
+	 */
+	private StringBuilder word = new StringBuilder();
+
+	/**
+	 * If the word ends with a joiner, which is only kept if a letter follows.
+	 */
+	private boolean joined;
+
+	/**
+	 * If the last sentence has ended, and the boundary is added before the
+	 * next token that doesn't close it.
+	 */
+	private boolean sentenceEnded;
+
+	/**
+	 * The amount of line feeds since the last token.
+	 */
+	private int lineFeeds;
+
+	/**
+	 * If there was whitespace since the last token.
+	 */
+	private boolean whitespace;
+
+	/**
+	 * If the rest of the line is a comment.
+	 */
+	private boolean comment;
+
+	/**
+	 * The high surrogate read at the end of the previous chars, if any.
+	 */
+	private char highSurrogate;
+
+	/**
+	 * Constructs a new Tokenizer.
+	 *
+	 * @param commentChar the character that starts a comment, or null for none.
+	 * @param lowerCase if all text should be made lower case.
+	 */
+	public Tokenizer(String commentChar, boolean lowerCase) {
+		this.commentChar = commentChar == null || commentChar.length() == 0 ? -1 : commentChar.codePointAt(0);
+		this.lowerCase = lowerCase;
+		add(vocabulary.intern(BOUNDARY, 0, BOUNDARY.length()));
+	}
+
+	/**
+	 * Reads the tokens of a file, decoded as UTF-8. Files ending with ".gz" are
+	 * decompressed.
+	 *
+	 * @param file the file to read.
+	 * @throws IOException if the file can't be read.
+	 */
+	public void read(File file) throws IOException {
+		InputStream stream = new FileInputStream(file);
+		try {
+			if(file.getName().endsWith(".gz")) {
+				stream = new GZIPInputStream(stream, BUFFER_SIZE);
+			}
+			read(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads the tokens of a text until the reader ends. The reader isn't closed.
+	 *
+	 * @param reader the text to read.
+	 * @throws IOException if the text can't be read.
+	 */
+	public void read(Reader reader) throws IOException {
+		char[] buffer = new char[BUFFER_SIZE];
+		int read;
+		while((read = reader.read(buffer)) != -1) {
+			for(int i = 0; i < read; i++) {
+				accept(buffer[i]);
+			}
+		}
+		endText();
+	}
+
+	/**
+	 * Reads the tokens of a text.
+	 *
+	 * @param text the text to read.
+	 */
+	public void tokenize(CharSequence text) {
+		for(int i = 0; i < text.length(); i++) {
+			accept(text.charAt(i));
+		}
+		endText();
+	}
+
+	/**
+	 * Returns the vocabulary the tokens are interned into.
+	 *
+	 * @return the vocabulary.
+	 */
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * Returns the ids of the tokens read so far, which start and end with a
+	 * boundary.
+	 *
+	 * @return a copy of the ids.
+	 */
+	public int[] getCodes() {
+		return Arrays.copyOf(codes, size);
+	}
+
+	/**
+	 * Returns the amount of tokens read so far, including boundaries.
+	 *
+	 * @return the amount of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Takes the next char of a text, joining surrogate pairs.
+	 */
+	private void accept(char c) {
+		if(highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if(Character.isLowSurrogate(c)) {
+				accept(Character.toCodePoint(high, c));
+				return;
+			}
+			accept((int)high);
+		}
+		if(Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+			return;
+		}
+		accept((int)c);
+	}
+
+	/**
+	 * Takes the next code point of a text.
+	 */
+	private void accept(int codePoint) {
+		if(comment) {
+			if(codePoint != '\n' && codePoint != '\r') {
+				return;
+			}
+			comment = false;
+		}
+		if(codePoint == commentChar) {
+			endWord();
+			comment = true;
+			return;
+		}
+		if(lowerCase) {
+			codePoint = Character.toLowerCase(codePoint);
+		}
+		if(isWordChar(codePoint)) {
+			joined = false;
+			word.appendCodePoint(codePoint);
+			return;
+		}
+		if(word.length() > 0 && !joined && JOINERS.indexOf(codePoint) != -1) {
+			// Only part of the word if a letter follows.
+			joined = true;
+			word.appendCodePoint(codePoint);
+			return;
+		}
+		endWord();
+		if(Character.isWhitespace(codePoint)) {
+			whitespace = true;
+		}
+		if(codePoint == '\n') {
+			if(++lineFeeds == 2) {
+				// An empty line ends the paragraph, and the sentence with it.
+				sentenceEnded = true;
+			}
+		} else if(!Character.isWhitespace(codePoint) && !Character.isISOControl(codePoint)
+				&& !Character.isSpaceChar(codePoint)) {
+			addToken(codePoint);
+		}
+		// Carriage returns are dropped with the other whitespace, so that line
+		// ends of both styles count once.
+	}
+
+	private static boolean isWordChar(int codePoint) {
+		if(Character.isLetterOrDigit(codePoint)) {
+			return true;
+		}
+		int type = Character.getType(codePoint);
+		return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+				|| type == Character.ENCLOSING_MARK;
+	}
+
+	/**
+	 * Adds the word being read, if any, as a token, and a trailing joiner as a
+	 * token of its own.
+	 */
+	private void endWord() {
+		if(word.length() == 0) {
+			return;
+		}
+		int end = word.length();
+		if(joined) {
+			end -= Character.charCount(word.codePointBefore(end));
+		}
+		startToken(word.codePointAt(0));
+		add(vocabulary.intern(word, 0, end));
+		if(joined) {
+			addToken(word.codePointBefore(word.length()));
+		}
+		word.setLength(0);
+		joined = false;
+	}
+
+	/**
+	 * Adds a punctuation token of one code point.
+	 */
+	private void addToken(int codePoint) {
+		startToken(codePoint);
+		word.setLength(0);
+		word.appendCodePoint(codePoint);
+		add(vocabulary.intern(word, 0, word.length()));
+		word.setLength(0);
+		if(SENTENCE_ENDS.indexOf(codePoint) != -1) {
+			sentenceEnded = true;
+		}
+	}
+
+	/**
+	 * Adds the boundary before a token starting with the given code point, if
+	 * the last sentence has ended and the token doesn't close it. Only tokens
+	 * right after the end close it, so a quote after a space opens the next one.
+	 */
+	private void startToken(int codePoint) {
+		if(sentenceEnded && (whitespace || SENTENCE_ENDS.indexOf(codePoint) == -1
+				&& CLOSING.indexOf(codePoint) == -1)) {
+			addBoundary();
+		}
+		lineFeeds = 0;
+		whitespace = false;
+	}
+
+	/**
+	 * Ends a text, and the sentence it ends with.
+	 */
+	private void endText() {
+		if(highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			accept((int)high);
+		}
+		endWord();
+		comment = false;
+		addBoundary();
+		lineFeeds = 0;
+	}
+
+	private void addBoundary() {
+		sentenceEnded = false;
+		if(codes[size - 1] != 0) {
+			add(vocabulary.intern(BOUNDARY, 0, BOUNDARY.length()));
+		}
+	}
+
+	private void add(int id) {
+		if(size == codes.length) {
+			codes = Arrays.copyOf(codes, codes.length * 2);
+		}
+		codes[size++] = id;
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * The TrainingLimits bound the memory used when training a MarkovChain on an
+ * input too large for all of its combinations to fit in the heap.
+ *
+ * Training within limits first counts every combination approximately in a
+ * CountMinSketch. The combinations are then counted exactly, but only those
+ * estimated to occur at least a threshold amount of times are kept, along with
+ * all single elements. A combination is only kept if its end (the combination
+ * without its first element) is kept, so a prediction from a combination that
+ * was dropped falls back to the longest end of it that was kept. If the exact
+ * counts grow beyond the budget, they are thrown away and counted again with
+ * the threshold doubled. Finally, followers seen fewer than a minimum amount of
+ * times are dropped, except for the most common follower of each combination.
+ */
+public class TrainingLimits {
+
+	/**
+	 * The share of the budget given to the sketch, as a divisor.
+	 */
+	private static final int SKETCH_SHARE = 8;
+
+	private long maxBytes;
+	private int minContextCount;
+	private int minFollowerCount;
+
+	/**
+	 * Constructs new TrainingLimits.
+	 *
+	 * @param maxBytes the most heap the trained tables may use, in bytes.
+	 * @param minContextCount the amount of times a combination of two or more
+	 * elements must occur to be kept, at first. It is doubled until the tables
+	 * fit in the budget.
+	 * @param minFollowerCount the amount of times a follower must have followed
+	 * a combination to be kept.
+	 */
+	public TrainingLimits(long maxBytes, int minContextCount, int minFollowerCount) {
+		if(maxBytes < 1 || minContextCount < 1 || minFollowerCount < 1) {
+			throw new IllegalArgumentException("Zero or negative training limits given; incorrect");
+		}
+		this.maxBytes = maxBytes;
+		this.minContextCount = minContextCount;
+		this.minFollowerCount = minFollowerCount;
+	}
+
+	/**
+	 * Constructs TrainingLimits with only a budget, keeping combinations that
+	 * occur at least twice and all followers.
+	 *
+	 * @param maxBytes the most heap the trained tables may use, in bytes.
+	 */
+	public TrainingLimits(long maxBytes) {
+		this(maxBytes, 2, 1);
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the most heap the sketch may use.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long getSketchBytes() {
+		return maxBytes / SKETCH_SHARE;
+	}
+
+	public int getMinContextCount() {
+		return minContextCount;
+	}
+
+	public int getMinFollowerCount() {
+		return minFollowerCount;
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * The TrainingMetrics tells how long each phase of training a MarkovChain took
+ * and how much heap it used. The phases are interning the elements of the input,
+ * counting the followers of every combination, and compiling the counts into
+ * the tables that predictions are made from. A chain trained within
+ * TrainingLimits also sketches the input before counting, and the metrics
+ * then tell how much was pruned to stay within the budget.
+ *
+ * The heap used by a phase is the difference in used heap before and after it,
+ * so it is only an estimate: garbage collections during the phase lower it,
+ * and other threads allocating at the same time raise it.
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+
+	public static final int INTERN = 0;
+	public static final int COUNT = 1;
+	public static final int COMPILE = 2;
+	public static final int SKETCH = 3;
+
+	private long[] nanos = new long[4];
+	private long[] bytes = new long[4];
+	private int nodeCount;
+	private int followerCount;
+
+	private int contextThreshold;
+	private int budgetRetries;
+	private long rejectedContexts;
+	private int prunedFollowers;
+	private long sketchBytes;
+
+	private long phaseStart;
+	private long phaseUsed;
+
+	/**
+	 * Marks the start of a phase.
+	 */
+	void startPhase() {
+		phaseUsed = usedHeap();
+		phaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of a phase, started by the last call to startPhase().
+	 *
+	 * @param phase INTERN, COUNT or COMPILE.
+	 */
+	void endPhase(int phase) {
+		nanos[phase] += System.nanoTime() - phaseStart;
+		bytes[phase] += usedHeap() - phaseUsed;
+	}
+
+	/**
+	 * Records the size of the trained chain.
+	 */
+	void recordSize(int nodeCount, int followerCount) {
+		this.nodeCount = nodeCount;
+		this.followerCount = followerCount;
+	}
+
+	/**
+	 * Records what was pruned when training within limits.
+	 */
+	void recordPruning(int contextThreshold, int budgetRetries, long rejectedContexts,
+			int prunedFollowers, long sketchBytes) {
+		this.contextThreshold = contextThreshold;
+		this.budgetRetries = budgetRetries;
+		this.rejectedContexts = rejectedContexts;
+		this.prunedFollowers = prunedFollowers;
+		this.sketchBytes = sketchBytes;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public long getInternMillis() {
+		return nanos[INTERN] / 1000000;
+	}
+
+	public long getCountMillis() {
+		return nanos[COUNT] / 1000000;
+	}
+
+	public long getCompileMillis() {
+		return nanos[COMPILE] / 1000000;
+	}
+
+	public long getInternBytes() {
+		return bytes[INTERN];
+	}
+
+	public long getCountBytes() {
+		return bytes[COUNT];
+	}
+
+	public long getCompileBytes() {
+		return bytes[COMPILE];
+	}
+
+	public long getSketchMillis() {
+		return nanos[SKETCH] / 1000000;
+	}
+
+	public long getSketchBytes() {
+		return sketchBytes;
+	}
+
+	public int getContextThreshold() {
+		return contextThreshold;
+	}
+
+	public int getBudgetRetries() {
+		return budgetRetries;
+	}
+
+	public long getRejectedContexts() {
+		return rejectedContexts;
+	}
+
+	public int getPrunedFollowers() {
+		return prunedFollowers;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getFollowerCount() {
+		return followerCount;
+	}
+
+	/**
+	 * Returns the metrics as lines of "training.name=value", for machines to read.
+	 *
+	 * @return the summary of the metrics.
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		Metrics.line(summary, "training.intern.ms", getInternMillis());
+		Metrics.line(summary, "training.intern.bytes", getInternBytes());
+		Metrics.line(summary, "training.count.ms", getCountMillis());
+		Metrics.line(summary, "training.count.bytes", getCountBytes());
+		Metrics.line(summary, "training.compile.ms", getCompileMillis());
+		Metrics.line(summary, "training.compile.bytes", getCompileBytes());
+		if(contextThreshold > 0) {
+			Metrics.line(summary, "training.sketch.ms", getSketchMillis());
+			Metrics.line(summary, "training.sketch.bytes", getSketchBytes());
+			Metrics.line(summary, "training.prune.context.threshold", getContextThreshold());
+			Metrics.line(summary, "training.prune.budget.retries", getBudgetRetries());
+			Metrics.line(summary, "training.prune.rejected.contexts", getRejectedContexts());
+			Metrics.line(summary, "training.prune.followers", getPrunedFollowers());
+		}
+		Metrics.line(summary, "training.nodes", getNodeCount());
+		Metrics.line(summary, "training.followers", getFollowerCount());
+		return summary.toString();
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * The management interface of TrainingMetrics, as published through JMX.
+ */
+public interface TrainingMetricsMBean {
+
+	public long getInternMillis();
+
+	public long getCountMillis();
+
+	public long getCompileMillis();
+
+	public long getInternBytes();
+
+	public long getCountBytes();
+
+	public long getCompileBytes();
+
+	public long getSketchMillis();
+
+	public long getSketchBytes();
+
+	public int getContextThreshold();
+
+	public int getBudgetRetries();
+
+	public long getRejectedContexts();
+
+	public int getPrunedFollowers();
+
+	public int getNodeCount();
+
+	public int getFollowerCount();
+}
@@ -0,0 +1,295 @@
+/**
+ * The Vocabulary interns the tokens of a text, such as words and punctuation,
+ * into dense int ids, the way a SymbolTable interns the elements of a chain.
+ * The characters of all tokens are kept in one shared array and looked up by
+ * a range of a CharSequence, so interning a token that has been seen before
+ * creates no objects, and a token costs a few bytes more than its characters.
+ * That keeps vocabularies of millions of tokens, and inputs of billions of
+ * occurrences, within the memory of the ids themselves.
+ *
+ * The Vocabulary also counts how many times each token was interned.
+ *
+ * A Vocabulary is not thread safe while tokens are interned, but any amount of
+ * threads can read it as long as no tokens are interned meanwhile.
+ */
+public class Vocabulary {
+
+	/**
+	 * The id returned for a token that has not been interned.
+	 */
+	public static final int NO_TOKEN = -1;
+
+	/**
+	 * The characters of all tokens, in order of their ids.
+	 */
+	private char[] pool = new char[1024];
+
+	/**
+	 * The offset in the pool of each token, indexed by id. The token of an id
+	 * ends where the next one starts.
+	 */
+	private int[] offsets = new int[17];
+
+	/**
+	 * The amount of times each token was interned, indexed by id.
+	 */
+	private long[] frequencies = new long[16];
+
+	/**
+	 * The id of the token of each slot plus one, 0 for a free slot. The length
+	 * is a power of two.
+	 */
+	private int[] slots = new int[16];
+
+	/**
+	 * The hash of the token of each slot, kept so that growing doesn't rehash tokens.
+	 */
+	private int[] slotHashes = new int[16];
+
+	/**
+	 * The amount of tokens.
+	 */
+	private int size;
+
+	/**
+	 * Constructs a Vocabulary of the elements of a SymbolTable, such as the one
+	 * of a chain trained on the ids of another Vocabulary, giving each element
+	 * its code as id. The frequencies are all 0.
+	 *
+	 * @param symbols the table, of String elements.
+	 * @return the new Vocabulary.
+	 */
+	public static Vocabulary of(SymbolTable symbols) {
+		Vocabulary vocabulary = new Vocabulary();
+		for(int i = 0; i < symbols.size(); i++) {
+			String token = (String)symbols.symbolAt(i);
+			vocabulary.find(token, 0, token.length(), true);
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Returns the id of a token, interning it if it hasn't been seen before,
+	 * and counts it.
+	 *
+	 * @param text the sequence holding the token.
+	 * @param start the index of the first character of the token.
+	 * @param end the index after the last character of the token.
+	 * @return the id of the token.
+	 */
+	public int intern(CharSequence text, int start, int end) {
+		int id = find(text, start, end, true);
+		frequencies[id]++;
+		return id;
+	}
+
+	/**
+	 * Returns the id of a token without interning it.
+	 *
+	 * @param text the sequence holding the token.
+	 * @param start the index of the first character of the token.
+	 * @param end the index after the last character of the token.
+	 * @return the id of the token, or NO_TOKEN if it hasn't been interned.
+	 */
+	public int idOf(CharSequence text, int start, int end) {
+		return find(text, start, end, false);
+	}
+
+	/**
+	 * Returns the id of a token without interning it.
+	 *
+	 * @param token the token.
+	 * @return the id of the token, or NO_TOKEN if it hasn't been interned.
+	 */
+	public int idOf(CharSequence token) {
+		return find(token, 0, token.length(), false);
+	}
+
+	/**
+	 * Appends the characters of a token to a StringBuilder.
+	 *
+	 * @param id the id of the token.
+	 * @param out the StringBuilder to append to.
+	 */
+	public void appendTo(int id, StringBuilder out) {
+		out.append(pool, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	/**
+	 * Returns the first character of a token.
+	 *
+	 * @param id the id of the token.
+	 * @return the first character, or 0 for an empty token.
+	 */
+	public char firstChar(int id) {
+		return offsets[id] == offsets[id + 1] ? 0 : pool[offsets[id]];
+	}
+
+	/**
+	 * Returns a token as a String. Prefer appendTo(), which doesn't create one.
+	 *
+	 * @param id the id of the token.
+	 * @return the token.
+	 */
+	public String tokenAt(int id) {
+		return new String(pool, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	/**
+	 * Returns the amount of characters of a token.
+	 *
+	 * @param id the id of the token.
+	 * @return the length of the token.
+	 */
+	public int length(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	/**
+	 * Returns the amount of times a token was interned.
+	 *
+	 * @param id the id of the token.
+	 * @return the amount of times.
+	 */
+	public long getFrequency(int id) {
+		return frequencies[id];
+	}
+
+	/**
+	 * Returns the amount of tokens.
+	 *
+	 * @return the amount of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a SymbolTable of the tokens as Strings, giving each token its id
+	 * as code, to train a MarkovChain on the ids with. Only the distinct tokens
+	 * become Strings, never their occurrences.
+	 *
+	 * @return the table.
+	 */
+	public SymbolTable toSymbolTable() {
+		SymbolTable symbols = new SymbolTable();
+		for(int i = 0; i < size; i++) {
+			symbols.intern(tokenAt(i));
+		}
+		return symbols;
+	}
+
+	/**
+	 * Returns an estimate of the amount of bytes used by the Vocabulary.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		return 2L * pool.length + 4L * offsets.length + 8L * frequencies.length + 8L * slots.length;
+	}
+
+	/**
+	 * Returns the id of a token, or NO_TOKEN if it isn't interned and create is
+	 * false.
+	 */
+	private int find(CharSequence text, int start, int end, boolean create) {
+		int hash = hash(text, start, end);
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while(slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if(slotHashes[slot] == hash && equalsAt(id, text, start, end)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if(!create) {
+			return NO_TOKEN;
+		}
+		if(size + 1 > slots.length >>> 1) {
+			grow();
+			return find(text, start, end, true);
+		}
+		return add(text, start, end, slot, hash);
+	}
+
+	private int add(CharSequence text, int start, int end, int slot, int hash) {
+		int length = end - start;
+		int poolSize = offsets[size];
+		if(poolSize + length > pool.length) {
+			char[] grown = new char[Math.max(pool.length * 2, poolSize + length)];
+			System.arraycopy(pool, 0, grown, 0, poolSize);
+			pool = grown;
+		}
+		for(int i = 0; i < length; i++) {
+			pool[poolSize + i] = text.charAt(start + i);
+		}
+		if(size == frequencies.length) {
+			int[] grownOffsets = new int[frequencies.length * 2 + 1];
+			System.arraycopy(offsets, 0, grownOffsets, 0, offsets.length);
+			offsets = grownOffsets;
+			long[] grownFrequencies = new long[frequencies.length * 2];
+			System.arraycopy(frequencies, 0, grownFrequencies, 0, frequencies.length);
+			frequencies = grownFrequencies;
+		}
+		int id = size++;
+		offsets[size] = poolSize + length;
+		slots[slot] = id + 1;
+		slotHashes[slot] = hash;
+		return id;
+	}
+
+	private boolean equalsAt(int id, CharSequence text, int start, int end) {
+		int offset = offsets[id];
+		int length = offsets[id + 1] - offset;
+		if(length != end - start) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(pool[offset + i] != text.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the table and puts the tokens in it again.
+	 */
+	private void grow() {
+		int[] oldSlots = slots;
+		int[] oldHashes = slotHashes;
+		slots = new int[oldSlots.length * 2];
+		slotHashes = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for(int i = 0; i < oldSlots.length; i++) {
+			if(oldSlots[i] != 0) {
+				int slot = mix(oldHashes[i]) & mask;
+				while(slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				slotHashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the hash of a token, a 64 bit FNV-1a hash folded to 32 bits.
+	 */
+	private static int hash(CharSequence text, int start, int end) {
+		long hash = 0xCBF29CE484222325L;
+		for(int i = start; i < end; i++) {
+			hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+		}
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Spreads the bits of a hash, for the first probe of the table.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,175 @@
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+
+import java.util.SplittableRandom;
+
+/**
+ * A WordCursor generates words of a WordGenerator within fixed length bounds
+ * into buffers given by the caller, without allocating anything once it has
+ * warmed up. It holds what generateWord(String,...) looks up for every word:
+ * the sampler of its bounds, and the node of its seed, which is only looked
+ * up again when the seed changes. Each character of a seed is mapped to its
+ * element once, after which seeds are resolved from a small table instead of
+ * by building one-character Strings.
+ *
+ * A cursor is made by WordGenerator.newCursor(), and is used by one thread at
+ * a time; each thread generating at once needs its own.
+ */
+public class WordCursor {
+
+	/**
+	 * The node of a seed that hasn't been resolved yet.
+	 */
+	private static final int UNRESOLVED = -2;
+
+	private WordGenerator generator;
+	private LengthConstrainedSampler sampler;
+
+	/**
+	 * The seed as given, the codes of its last characters and its node.
+	 */
+	private StringBuilder seed = new StringBuilder();
+	private int[] context;
+	private int node = UNRESOLVED;
+
+	/**
+	 * The code of each character seen in a seed plus one, 0 if it isn't an
+	 * element of the chain.
+	 */
+	private LongIntHashMap codes = new LongIntHashMap();
+
+	/**
+	 * The builder words are generated in before they are copied to a buffer
+	 * that isn't a StringBuilder.
+	 */
+	private StringBuilder word = new StringBuilder();
+
+	/**
+	 * The most chars a word can take.
+	 */
+	private int maxChars;
+
+	WordCursor(WordGenerator generator, LengthConstrainedSampler sampler, int level) {
+		this.generator = generator;
+		this.sampler = sampler;
+		context = new int[level];
+		MarkovChain chain = generator.getMarkovChain();
+		int longest = 0;
+		for(int code = 0; code < chain.getSymbolCount(); code++) {
+			longest = Math.max(longest, ((String)chain.symbolAt(code)).length());
+		}
+		maxChars = longest * (sampler.getMaxLetters() + 1);
+		word.ensureCapacity(maxChars);
+		setSeed(CorpusReader.LINE_FEED);
+	}
+
+	/**
+	 * Sets the seed the following words begin after, like the seed of
+	 * generateWord(String,boolean,int,int).
+	 *
+	 * @param seed the seed, of which only the last characters up to the level
+	 * of the chain are used.
+	 */
+	public void setSeed(CharSequence seed) {
+		if(node != UNRESOLVED && equals(this.seed, seed)) {
+			return;
+		}
+		this.seed.setLength(0);
+		this.seed.append(seed);
+		int length = Math.min(seed.length(), context.length);
+		int offset = seed.length() - length;
+		for(int i = 0; i < length; i++) {
+			context[i] = codeOf(seed.charAt(offset + i));
+		}
+		node = generator.seedNode(context, length);
+	}
+
+	private static boolean equals(CharSequence a, CharSequence b) {
+		if(a.length() != b.length()) {
+			return false;
+		}
+		for(int i = a.length() - 1; i >= 0; i--) {
+			if(a.charAt(i) != b.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the code of the element of a character, looking it up in the
+	 * chain the first time the character is seen.
+	 */
+	private int codeOf(char c) {
+		int code = codes.get(c, -1);
+		if(code == -1) {
+			code = generator.getMarkovChain().symbolOf(String.valueOf(c)) + 1;
+			codes.put(c, code);
+		}
+		return code - 1;
+	}
+
+	/**
+	 * Generates a word after the seed, appending it to a StringBuilder.
+	 *
+	 * @param out the builder to append the word to.
+	 * @param random the random number generator to draw with.
+	 * @return the amount of chars appended, or -1 if no word within the bounds
+	 * can follow the seed, in which case nothing is appended.
+	 */
+	public int generateWord(StringBuilder out, SplittableRandom random) {
+		return generator.generateBounded(sampler, node, random, out);
+	}
+
+	/**
+	 * Generates a word after the seed into a char array.
+	 *
+	 * @param out the array to write the word to.
+	 * @param offset the index in the array to write the word at.
+	 * @param random the random number generator to draw with.
+	 * @return the amount of chars written, or -1 if no word within the bounds
+	 * can follow the seed.
+	 * @throws IndexOutOfBoundsException if the word doesn't fit in the array,
+	 * which can't happen if getMaxChars() chars are free.
+	 */
+	public int generateWord(char[] out, int offset, SplittableRandom random) {
+		word.setLength(0);
+		int length = generator.generateBounded(sampler, node, random, word);
+		if(length > 0) {
+			word.getChars(0, length, out, offset);
+		}
+		return length;
+	}
+
+	/**
+	 * Generates a word after the seed into a CharBuffer, at its position.
+	 *
+	 * @param out the buffer to put the word in.
+	 * @param random the random number generator to draw with.
+	 * @return the amount of chars put, or -1 if no word within the bounds can
+	 * follow the seed.
+	 * @throws BufferOverflowException if the word doesn't fit in the
+	 * buffer, which can't happen if getMaxChars() chars remain.
+	 */
+	public int generateWord(CharBuffer out, SplittableRandom random) {
+		word.setLength(0);
+		int length = generator.generateBounded(sampler, node, random, word);
+		if(length > out.remaining()) {
+			throw new BufferOverflowException();
+		}
+		for(int i = 0; i < length; i++) {
+			out.put(word.charAt(i));
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the most chars a word can take, which is the most elements of a
+	 * word, including an ending separator, times the longest element.
+	 *
+	 * @return the amount of chars.
+	 */
+	public int getMaxChars() {
+		return maxChars;
+	}
+}
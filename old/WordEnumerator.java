@@ -0,0 +1,245 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * The WordEnumerator lists the most probable words of a MarkovChain within
+ * length bounds, most probable first, by a best-first search over the chain.
+ * Each partial word in the search is ranked by its probability times the
+ * highest probability of any one way to finish it within the bounds. That
+ * bound is exact, so a finished word is only taken off the queue once no
+ * other word can be more probable, and words are found one at a time, as
+ * they are asked for, without expanding the whole space of words.
+ *
+ * Since every partial word in the queue can be finished into a word as
+ * probable as its rank, and those words are all different, only as many
+ * partial words as there are words left to list are kept; the rest could
+ * never make the list. That bound is not used when some words are excluded,
+ * since the words that the kept partial words promise may be excluded ones.
+ *
+ * The probability of a word is that of generating it freely from the start
+ * node, as WordGenerator.generateWord() would. Without whitespace, a word that
+ * can end with several separators is listed once, with the sum of the
+ * probabilities of ending it with each of them.
+ */
+public class WordEnumerator implements Iterator {
+
+	/**
+	 * The sampler of the length bounds, which holds the bounds of the partial words.
+	 */
+	private LengthConstrainedSampler sampler;
+
+	private MarkovChain markovChain;
+
+	/**
+	 * The partial and finished words to expand, highest rank first.
+	 */
+	private TreeSet queue;
+
+	/**
+	 * The words that are skipped, or null to list all words.
+	 */
+	private WordSet excluded;
+
+	/**
+	 * The amount of words left to list.
+	 */
+	private int remaining;
+
+	/**
+	 * The amount of entries put in the queue, which orders entries of equal
+	 * rank by when they were put.
+	 */
+	private long entries;
+
+	/**
+	 * The next finished word to return, or null if it hasn't been searched for.
+	 */
+	private Entry next;
+
+	/**
+	 * The probability of the word last returned.
+	 */
+	private double probability;
+
+	/**
+	 * Constructs a new WordEnumerator.
+	 *
+	 * @param sampler the sampler of the length bounds and separators to use.
+	 * @param node the node of the chain the words start from, or -1.
+	 * @param limit the most words to list.
+	 * @param excluded the words to skip, or null to list all words.
+	 */
+	public WordEnumerator(LengthConstrainedSampler sampler, int node, int limit, WordSet excluded) {
+		if(limit < 0) {
+			throw new IllegalArgumentException("Negative word count given; incorrect");
+		}
+		this.sampler = sampler;
+		this.markovChain = sampler.getMarkovChain();
+		this.remaining = limit;
+		this.excluded = excluded;
+		queue = new TreeSet(new Comparator() {
+			public int compare(Object a, Object b) {
+				Entry first = (Entry)a;
+				Entry second = (Entry)b;
+				if(first.rank != second.rank) {
+					return first.rank > second.rank ? -1 : 1;
+				}
+				return first.id < second.id ? -1 : (first.id == second.id ? 0 : 1);
+			}
+		});
+		double rank = sampler.bestCompletion(node, 0);
+		if(rank > 0.0) {
+			offer(new Entry(null, SymbolTable.NO_SYMBOL, node, 0, 1.0, rank, false));
+		}
+	}
+
+	public boolean hasNext() {
+		if(next == null && remaining > 0) {
+			next = search();
+		}
+		return next != null;
+	}
+
+	public Object next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Entry word = next;
+		next = null;
+		remaining--;
+		probability = word.probability;
+		return word.toWord();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("Words can't be removed");
+	}
+
+	/**
+	 * Returns the probability of the word last returned by next().
+	 *
+	 * @return the probability of generating the word freely.
+	 */
+	public double getProbability() {
+		return probability;
+	}
+
+	/**
+	 * Expands the highest ranked partial words until a finished word is the
+	 * highest ranked entry, and returns it.
+	 *
+	 * @return the next word, or null if there are no more words.
+	 */
+	private Entry search() {
+		while(!queue.isEmpty()) {
+			Entry entry = (Entry)queue.pollFirst();
+			if(entry.finished) {
+				if(excluded != null && excluded.contains(entry.toWord(false))) {
+					continue;
+				}
+				return entry;
+			}
+			boolean inBounds = entry.letters >= sampler.getMinLetters() && entry.letters <= sampler.getMaxLetters();
+			boolean whitespace = sampler.isGenerateWhitespace();
+			// Without whitespace, the ways to end the word are one word.
+			int ending = SymbolTable.NO_SYMBOL;
+			double endingProbability = 0.0;
+			for(int i = markovChain.followerStart(entry.node); i < markovChain.followerEnd(entry.node); i++) {
+				double p = entry.probability * markovChain.followerProbability(entry.node, i);
+				if(p <= 0.0) {
+					continue;
+				}
+				int symbol = markovChain.followerSymbol(i);
+				if(sampler.isSeparator(symbol)) {
+					if(!inBounds) {
+						continue;
+					}
+					if(whitespace) {
+						offer(new Entry(entry, symbol, -1, entry.letters, p, p, true));
+					} else {
+						if(ending == SymbolTable.NO_SYMBOL) {
+							ending = symbol;
+						}
+						endingProbability += p;
+					}
+				} else {
+					int node = markovChain.followerNext(i);
+					double rank = p * sampler.bestCompletion(node, entry.letters + 1);
+					if(rank > 0.0) {
+						offer(new Entry(entry, symbol, node, entry.letters + 1, p, rank, false));
+					}
+				}
+			}
+			if(ending != SymbolTable.NO_SYMBOL) {
+				offer(new Entry(entry, ending, -1, entry.letters, endingProbability, endingProbability, true));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Puts an entry in the queue, dropping the lowest ranked entries that can't
+	 * make the list anymore.
+	 */
+	private void offer(Entry entry) {
+		entry.id = entries++;
+		queue.add(entry);
+		if(excluded == null) {
+			while(queue.size() > remaining) {
+				queue.pollLast();
+			}
+		}
+	}
+
+	/**
+	 * A partial or finished word, as the last element added to it and the
+	 * entry it was added to.
+	 */
+	private class Entry {
+
+		Entry parent;
+		int symbol;
+		int node;
+		int letters;
+		double probability;
+		double rank;
+		boolean finished;
+		long id;
+
+		Entry(Entry parent, int symbol, int node, int letters, double probability, double rank,
+				boolean finished) {
+			this.parent = parent;
+			this.symbol = symbol;
+			this.node = node;
+			this.letters = letters;
+			this.probability = probability;
+			this.rank = rank;
+			this.finished = finished;
+		}
+
+		String toWord() {
+			return toWord(sampler.isGenerateWhitespace());
+		}
+
+		/**
+		 * Returns the elements of the word, with its ending separator if asked for.
+		 */
+		String toWord(boolean separator) {
+			int length = letters + 1;
+			Object[] symbols = new Object[length];
+			int size = 0;
+			for(Entry e = this; e.parent != null; e = e.parent) {
+				if(e != this || !finished || separator) {
+					symbols[size++] = markovChain.symbolAt(e.symbol);
+				}
+			}
+			StringBuilder word = new StringBuilder();
+			while(size > 0) {
+				word.append(symbols[--size]);
+			}
+			return word.toString();
+		}
+	}
+}
@@ -1,5 +1,20 @@
+import java.io.File;
+import java.io.IOException;
+
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.Character;
 
 /**
@@ -7,6 +22,21 @@ import java.lang.Character;
  */
 public class WordGenerator {
 
+	/**
+	 * The amount of words generated by each task of a batch. Each task draws
+	 * from its own random number generator, split from the one of the batch in
+	 * task order, so the words of a batch only depend on its seed and not on
+	 * the amount of threads generating it.
+	 */
+	private static final int BATCH_TASK_SIZE = 512;
+
+	/**
+	 * The most tries made for each new word. A word that is known is retried up
+	 * to this many times, and a unique batch generates up to this many times
+	 * as many words as asked for.
+	 */
+	public static final int MAX_NOVELTY_TRIES = 64;
+
 	/**
 	 * The level of complexity of the analysis done by the Markov Chain.
 	 * Should not be larger than the minimum word length.
@@ -19,9 +49,39 @@ public class WordGenerator {
 	private MarkovChain markovChain;
 
 	/**
-	 * A list consisting of one-character Strings that is defined as word separators.
+	 * The character classes of the symbols of the Markov chain, telling which
+	 * symbols separate words and how often each separator occurs.
+	 */
+	private Alphabet alphabet;
+
+	/**
+	 * The most samplers kept at once. When more are needed, all are dropped.
+	 */
+	private static final int MAX_SAMPLERS = 16;
+
+	/**
+	 * The samplers used for length constrained generation, keyed by their
+	 * bounds and whitespace mode, kept since building one computes tables over
+	 * the whole Markov chain. Samplers are never changed once built, so any
+	 * amount of threads can generate from them without locking.
+	 */
+	private Map samplers = new ConcurrentHashMap();
+
+	/**
+	 * The separators that words of a batch start after. Computed when first needed.
 	 */
-	private List wordSeparators;
+	private volatile SeedTable seedTable;
+
+	/**
+	 * What has happened while generating words. See getMetrics().
+	 */
+	private GenerationMetrics metrics;
+
+	/**
+	 * The words that are never generated, usually the words of the input, or
+	 * null to allow all words.
+	 */
+	private volatile WordSet knownWords;
 
 	/**
 	 * Constructs a new WordGenerator.
@@ -37,8 +97,51 @@ public class WordGenerator {
 			throw new IllegalArgumentException("Level below 1 given; incorrect");
 		}
 		this.level = level;
-		this.wordSeparators = wordSeparators;
 		markovChain = new MarkovChain(input,level);
+		alphabet = Alphabet.of(markovChain.getSymbols(), wordSeparators);
+		metrics = new GenerationMetrics(level);
+	}
+
+	/**
+	 * Constructs a new WordGenerator from an already trained Markov chain, such
+	 * as one loaded from a snapshot.
+	 *
+	 * @param markovChain a Markov chain of one-character Strings.
+	 * @param wordSeparators a list of one-character Strings that is meant to separate
+	 * words.
+	 */
+	public WordGenerator(MarkovChain markovChain, List wordSeparators) {
+		this(markovChain, Alphabet.of(markovChain.getSymbols(), wordSeparators));
+	}
+
+	/**
+	 * Constructs a new WordGenerator from an already trained Markov chain and
+	 * the alphabet of its input.
+	 *
+	 * @param markovChain a Markov chain of one-character Strings.
+	 * @param alphabet the character classes of the symbols of the chain, using
+	 * the same codes as the chain.
+	 */
+	public WordGenerator(MarkovChain markovChain, Alphabet alphabet) {
+		this.level = markovChain.getLevel();
+		this.alphabet = alphabet;
+		this.markovChain = markovChain;
+		metrics = new GenerationMetrics(level);
+	}
+
+	/**
+	 * Returns a new WordGenerator of the same Markov chain that shares the
+	 * samplers cached by this one, but has its own known words and metrics. A
+	 * model shared by many jobs is handed to each this way, so that the jobs
+	 * build the samplers of each length bound once, into the cache that is
+	 * weighed with the shared model.
+	 *
+	 * @return the new WordGenerator.
+	 */
+	public WordGenerator share() {
+		WordGenerator shared = new WordGenerator(markovChain, alphabet);
+		shared.samplers = samplers;
+		return shared;
 	}
 
 	/**
@@ -56,38 +159,725 @@ public class WordGenerator {
 	 * @return a word of a random length (but proportional to word lengths in the input).
 	 */
 	public String generateWord(String seed, boolean generateWhitespace) {
-		// Cuts the seed to be of a maximum length of level.
-		if(seed.length() > level) {
-			seed = seed.substring(seed.length()-level,seed.length());
-		}
-		String combo = seed;
-		String word = "";
+		return generateWord(seed, generateWhitespace, MarkovChain.threadRandom());
+	}
 
+	/**
+	 * Generates a word of a random length, like generateWord(String,boolean),
+	 * drawing from the given random number generator. The word is generated by
+	 * walking the Markov chain from node to node, so when the combination of
+	 * the last characters isn't in the chain, the longest end of it that is
+	 * gets used, without building or looking up any strings.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the word.
+	 * @param generateWhitespace a boolean that states if the method should append
+	 * a whitespace to the end of the generated word.
+	 * @param random the random number generator to draw with.
+	 * @return a word of a random length, or null if no word can be generated.
+	 */
+	public String generateWord(String seed, boolean generateWhitespace, SplittableRandom random) {
+		long start = System.nanoTime();
+		StringBuilder word = new StringBuilder();
+		int node = seedNode(seed);
 		while(true) {
-			String nextChar = (String)markovChain.predictNext(MarkovChain.stringToList(combo));
-			if(nextChar == null) {
-				if(combo.length() > 1) {
-					combo.substring(1);
-				} else {
-					return null;
+			if(node == -1) {
+				metrics.recordNullPrediction();
+				metrics.recordWord(null, 1, System.nanoTime() - start);
+				return null;
+			}
+			int index = markovChain.drawFollower(node, random);
+			if(index == -1) {
+				// Only possible in pruned chains; backs off to a shorter combination.
+				node = markovChain.getParent(node);
+				if(node == ContextCounts.ROOT) {
+					node = -1;
 				}
-			} else if(wordSeparators.contains(nextChar)) {
+				continue;
+			}
+			int symbol = markovChain.followerSymbol(index);
+			if(alphabet.isSeparator(symbol)) {
 				// If defined so, the found whitespace will be appended to the returned word.
 				if(generateWhitespace) {
-					word += nextChar;
+					word.append(markovChain.symbolAt(symbol));
 				}
-				return word;
+				String result = word.toString();
+				metrics.recordWord(result, 1, System.nanoTime() - start);
+				return result;
+			}
+			word.append(markovChain.symbolAt(symbol));
+			node = markovChain.followerNext(index);
+		}
+	}
+
+	/**
+	 * Generates a word of a length within the given bounds. Unlike
+	 * generateWord(String,boolean), the word is drawn directly amongst the words
+	 * within the bounds, so it never has to be retried. The first call for a new
+	 * set of bounds computes tables over the whole Markov chain, later calls with
+	 * the same bounds reuse them.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the word.
+	 * @param generateWhitespace a boolean that states if the method should append
+	 * a whitespace to the end of the generated word, in which case it counts
+	 * towards the length of the word.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @return a word within the bounds, or null if no such word can follow the seed.
+	 */
+	public String generateWord(String seed, boolean generateWhitespace, int minLength, int maxLength) {
+		return generateWord(seed, generateWhitespace, minLength, maxLength, MarkovChain.threadRandom());
+	}
+
+	/**
+	 * Generates a word of a length within the given bounds, drawing from the
+	 * given random number generator so that the word can be reproduced.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the word.
+	 * @param generateWhitespace a boolean that states if the method should append
+	 * a whitespace to the end of the generated word, in which case it counts
+	 * towards the length of the word.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param random the random number generator to draw with.
+	 * @return a word within the bounds, or null if no such word can follow the seed.
+	 */
+	public String generateWord(String seed, boolean generateWhitespace, int minLength,
+			int maxLength, SplittableRandom random) {
+		return generateBounded(getSampler(generateWhitespace, minLength, maxLength), seedNode(seed), random);
+	}
+
+	/**
+	 * Returns a new cursor that generates words within the given bounds into
+	 * buffers given by the caller, with the same draws as
+	 * generateWord(String,boolean,int,int,SplittableRandom) but without
+	 * allocating per word. The seed of the cursor is a line feed until it is set.
+	 *
+	 * @param generateWhitespace a boolean that states if the method should append
+	 * a whitespace to the end of the generated word, in which case it counts
+	 * towards the length of the word.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @return the cursor.
+	 */
+	public WordCursor newCursor(boolean generateWhitespace, int minLength, int maxLength) {
+		return new WordCursor(this, getSampler(generateWhitespace, minLength, maxLength), level);
+	}
+
+	/**
+	 * Generates a word within the bounds of a sampler that isn't a known word,
+	 * and records it in the metrics.
+	 */
+	private String generateBounded(LengthConstrainedSampler sampler, int node, SplittableRandom random) {
+		StringBuilder word = new StringBuilder();
+		return generateBounded(sampler, node, random, word) == -1 ? null : word.toString();
+	}
+
+	/**
+	 * Generates a word within the bounds of a sampler that isn't a known word
+	 * like generateBounded(LengthConstrainedSampler,int,SplittableRandom), with
+	 * the same draws, appending it to a StringBuilder.
+	 *
+	 * @return the amount of chars appended, or -1 if none were.
+	 */
+	int generateBounded(LengthConstrainedSampler sampler, int node, SplittableRandom random, StringBuilder word) {
+		long start = System.nanoTime();
+		metrics.recordBounded(sampler.probability(node), sampler.shortProbability(node));
+		WordSet known = knownWords;
+		int offset = word.length();
+		int length = sampler.generateWord(node, random, word);
+		int tries = 1;
+		while(length != -1 && known != null && known.contains(word, offset, offset + length)) {
+			metrics.recordKnownWord();
+			word.setLength(offset);
+			if(tries == MAX_NOVELTY_TRIES) {
+				length = -1;
 			} else {
-				word += nextChar;
-				combo += nextChar;
-				// Remove beginning of combo only if the length is above the level
-				if(combo.length() > level) {
-					combo = combo.substring(1);
+				length = sampler.generateWord(node, random, word);
+				tries++;
+			}
+		}
+		metrics.recordWord(length != -1, tries, System.nanoTime() - start);
+		return length;
+	}
+
+	/**
+	 * Generates a batch of words within the given length bounds, spread over as
+	 * many threads as there are processors, and returns them in a list.
+	 *
+	 * @param count the amount of words to generate.
+	 * @param seed the seed of the batch. The same seed always gives the same words.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @return the words, with null for each word that couldn't be generated.
+	 */
+	public List generate(int count, long seed, int minLength, int maxLength) {
+		final List words = new ArrayList(count);
+		generate(count, seed, minLength, maxLength, Runtime.getRuntime().availableProcessors(),
+				new WordSink() {
+					public void accept(int index, String word) {
+						words.add(word);
+					}
+				});
+		return words;
+	}
+
+	/**
+	 * Generates a batch of words within the given length bounds, spread over a
+	 * pool of threads. Each word starts after a word separator chosen randomly
+	 * amongst the separators of the input, and has no whitespace appended. The
+	 * words are given to the sink in order, on the calling thread, while the rest
+	 * of the batch is being generated. The same seed always gives the same words,
+	 * regardless of the amount of threads.
+	 *
+	 * @param count the amount of words to generate.
+	 * @param seed the seed of the batch.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param threads the amount of threads to generate with.
+	 * @param sink the receiver of the words.
+	 */
+	public void generate(int count, long seed, int minLength, int maxLength, int threads,
+			WordSink sink) {
+		generate(count, seed, minLength, maxLength, threads, false, sink);
+	}
+
+	/**
+	 * Generates a batch of words within the given length bounds, like
+	 * generate(int,long,int,int,int,WordSink), optionally only giving each word
+	 * to the sink once. Words that are known (see setKnownWords()) are never
+	 * given to the sink. Words that can't be generated and repeated words of a
+	 * unique batch are skipped, and more words are generated in their place,
+	 * which is still the same for every amount of threads.
+	 *
+	 * @param count the amount of words to generate.
+	 * @param seed the seed of the batch.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param threads the amount of threads to generate with.
+	 * @param unique if each word should only be given to the sink once.
+	 * @param sink the receiver of the words.
+	 * @return the amount of words given to the sink, which for a unique batch
+	 * is less than count if not enough new words could be found.
+	 */
+	public int generate(int count, long seed, int minLength, int maxLength, int threads,
+			boolean unique, WordSink sink) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Thread count below 1 given; incorrect");
+		}
+		final LengthConstrainedSampler sampler = getSampler(false, minLength, maxLength);
+		final SeedTable seeds = getSeedTable();
+		SplittableRandom master = new SplittableRandom(seed);
+		long tasks = (count + BATCH_TASK_SIZE - 1) / BATCH_TASK_SIZE;
+		WordSet emitted = null;
+		if(unique) {
+			// Gives up on a batch that would take many more words than asked for.
+			tasks *= MAX_NOVELTY_TRIES;
+			emitted = new WordSet();
+		}
+		// Limits the amount of generated words waiting for the sink.
+		int window = threads * 4;
+
+		ExecutorService pool = threads == 1 ? null : Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList pending = new LinkedList();
+			long submitted = 0;
+			int index = 0;
+			while(index < count && (submitted < tasks || !pending.isEmpty())) {
+				while(submitted < tasks && pending.size() < window) {
+					final int size = unique ? BATCH_TASK_SIZE :
+							(int)Math.min(BATCH_TASK_SIZE, count - submitted * BATCH_TASK_SIZE);
+					final SplittableRandom random = master.split();
+					if(pool == null) {
+						// Generates on the calling thread, drawing the same words as a pool would.
+						pending.add(generateTask(sampler, seeds, random, size));
+					} else {
+						pending.add(pool.submit(new Callable() {
+							public Object call() {
+								return generateTask(sampler, seeds, random, size);
+							}
+						}));
+					}
+					submitted++;
 				}
+				Object next = pending.removeFirst();
+				String[] words = (String[])(next instanceof Future ? ((Future)next).get() : next);
+				for(int i = 0; i < words.length && index < count; i++) {
+					if(unique) {
+						if(words[i] == null) {
+							continue;
+						} else if(!emitted.add(words[i])) {
+							metrics.recordDuplicate();
+							continue;
+						}
+					}
+					sink.accept(index++, words[i]);
+				}
+			}
+			return index;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while generating words");
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Could not generate words", ee.getCause());
+		} finally {
+			if(pool != null) {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Generates the words of one task of a batch.
+	 */
+	private String[] generateTask(LengthConstrainedSampler sampler, SeedTable seeds,
+			SplittableRandom random, int size) {
+		String[] words = new String[size];
+		for(int i = 0; i < size; i++) {
+			words[i] = generateBounded(sampler, seeds.draw(random), random);
+		}
+		return words;
+	}
+
+	/**
+	 * The nodes of the Markov chain that words of a batch start from, one per
+	 * word separator that occurs in the input, drawn with the frequency of the
+	 * separator, in the order of the separator codes.
+	 */
+	private class SeedTable {
+
+		private int[] codes;
+		private int[] nodes;
+		private long[] cumulative;
+
+		SeedTable() {
+			BitSet separators = alphabet.getClass(Alphabet.SEPARATOR);
+			codes = new int[separators.cardinality()];
+			nodes = new int[codes.length];
+			cumulative = new long[codes.length];
+			long total = 0;
+			int i = 0;
+			for(int code = separators.nextSetBit(0); code >= 0; code = separators.nextSetBit(code + 1)) {
+				long frequency = alphabet.getFrequency(code);
+				if(frequency > 0) {
+					codes[i] = code;
+					nodes[i] = seedNode(new int[] { code });
+					total += frequency;
+					cumulative[i++] = total;
+				}
+			}
+			if(i < nodes.length) {
+				codes = Arrays.copyOf(codes, i);
+				nodes = Arrays.copyOf(nodes, i);
+				cumulative = Arrays.copyOf(cumulative, i);
+			}
+		}
+
+		int draw(SplittableRandom random) {
+			int i = drawIndex(random);
+			return i == -1 ? -1 : nodes[i];
+		}
+
+		/**
+		 * Draws a separator instead of its node.
+		 */
+		int drawSeparator(SplittableRandom random) {
+			int i = drawIndex(random);
+			return i == -1 ? SymbolTable.NO_SYMBOL : codes[i];
+		}
+
+		private int drawIndex(SplittableRandom random) {
+			if(nodes.length == 0) {
+				return -1;
+			}
+			long target = random.nextLong(cumulative[cumulative.length - 1]);
+			int i = 0;
+			while(cumulative[i] <= target) {
+				i++;
 			}
+			return i;
 		}
 	}
 
+	private SeedTable getSeedTable() {
+		if(seedTable == null) {
+			seedTable = new SeedTable();
+		}
+		return seedTable;
+	}
+
+	/**
+	 * Generates a word of a length within the given bounds that starts with a
+	 * prefix, contains an infix and ends with a suffix, any of which may be
+	 * left out. Words are built outwards from the fragments instead of being
+	 * generated and thrown away until one fits: after a prefix with the Markov
+	 * chain, before a suffix with its backwards chain (see
+	 * MarkovChain.getReverse()), and on both sides of an infix with both, the
+	 * sides joined at the infix, which is the context of both. The lengths of
+	 * the sides are drawn together, so the word is always within the bounds.
+	 *
+	 * A word is built from one fragment: the infix if given, else the suffix,
+	 * else the prefix. Words that don't fit the other fragments, or are known
+	 * words, are retried up to MAX_NOVELTY_TRIES times.
+	 *
+	 * @param prefix the start of the word, or null.
+	 * @param infix a part of the word, or null.
+	 * @param suffix the end of the word, or null.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param random the random number generator to draw with.
+	 * @return a word that fits, or null if none was found.
+	 * @throws IllegalStateException if an infix or suffix is given and the
+	 * chain has no backwards chain.
+	 */
+	public String generateConstrained(String prefix, String infix, String suffix, int minLength,
+			int maxLength, SplittableRandom random) {
+		prefix = prefix == null ? "" : prefix;
+		infix = infix == null ? "" : infix;
+		suffix = suffix == null ? "" : suffix;
+		if((infix.length() > 0 || suffix.length() > 0) && markovChain.getReverse() == null) {
+			throw new IllegalStateException("A suffix or infix needs a chain trained with its backwards chain");
+		}
+		long start = System.nanoTime();
+		WordSet known = knownWords;
+		String word = null;
+		int tries = 0;
+		while(word == null && tries < MAX_NOVELTY_TRIES) {
+			tries++;
+			String candidate;
+			if(infix.length() > 0) {
+				candidate = generateAround(infix, minLength, maxLength, random);
+			} else if(suffix.length() > 0) {
+				candidate = generateOutward(suffix, true, minLength, maxLength, random);
+			} else {
+				candidate = generateOutward(prefix, false, minLength, maxLength, random);
+			}
+			if(candidate == null) {
+				// Nothing fits the fragment, so retrying won't help.
+				break;
+			}
+			if(!candidate.startsWith(prefix) || !candidate.endsWith(suffix)) {
+				continue;
+			}
+			if(known != null && known.contains(candidate)) {
+				metrics.recordKnownWord();
+				continue;
+			}
+			word = candidate;
+		}
+		metrics.recordWord(word, tries, System.nanoTime() - start);
+		return word;
+	}
+
+	/**
+	 * Generates a word starting with a prefix, or ending with a suffix by
+	 * generating backwards, from after a separator.
+	 */
+	private String generateOutward(String fragment, boolean backwards, int minLength, int maxLength,
+			SplittableRandom random) {
+		MarkovChain chain = backwards ? markovChain.getReverse() : markovChain;
+		int[] fragmentCodes = codesOf(fragment, backwards);
+		int length = fragmentCodes.length;
+		if(maxLength - length < 0) {
+			return null;
+		}
+		int[] context = new int[length + 1];
+		context[0] = getSeedTable().drawSeparator(random);
+		System.arraycopy(fragmentCodes, 0, context, 1, length);
+		int node = chain.longestContext(context, 0, context.length);
+		LengthConstrainedSampler sampler = getSampler(chain, false, Math.max(0, minLength - length),
+				maxLength - length);
+		String rest = sampler.generateWord(node, random);
+		if(rest == null) {
+			return null;
+		}
+		return backwards ? new StringBuilder(rest).reverse().append(fragment).toString() : fragment + rest;
+	}
+
+	/**
+	 * Generates a word containing an infix, the part before it backwards and
+	 * the part after it forwards, drawing the lengths of both parts together.
+	 */
+	private String generateAround(String infix, int minLength, int maxLength, SplittableRandom random) {
+		MarkovChain reverse = markovChain.getReverse();
+		int length = codesOf(infix, false).length;
+		int most = maxLength - length;
+		if(most < 0) {
+			return null;
+		}
+		int[] forwardContext = codesOf(infix, false);
+		int[] backwardContext = codesOf(infix, true);
+		int after = markovChain.longestContext(forwardContext, 0, forwardContext.length);
+		int before = reverse.longestContext(backwardContext, 0, backwardContext.length);
+		LengthConstrainedSampler forward = getSampler(markovChain, false, 0, most);
+		LengthConstrainedSampler backward = getSampler(reverse, false, 0, most);
+
+		// Draws the lengths of both sides, weighted by how likely each side is
+		// to have its length.
+		int least = Math.max(0, minLength - length);
+		double total = 0.0;
+		for(int a = 0; a <= most; a++) {
+			for(int b = Math.max(0, least - a); a + b <= most; b++) {
+				total += backward.lengthMass(before, a) * forward.lengthMass(after, b);
+			}
+		}
+		if(total <= 0.0) {
+			return null;
+		}
+		double target = random.nextDouble() * total;
+		int beforeLength = -1;
+		int afterLength = -1;
+		for(int a = 0; a <= most && target >= 0.0; a++) {
+			for(int b = Math.max(0, least - a); a + b <= most; b++) {
+				double weight = backward.lengthMass(before, a) * forward.lengthMass(after, b);
+				if(weight > 0.0) {
+					beforeLength = a;
+					afterLength = b;
+					if((target -= weight) < 0.0) {
+						break;
+					}
+				}
+			}
+		}
+		String beforeWord = backward.generateWord(before, beforeLength, random);
+		String afterWord = forward.generateWord(after, afterLength, random);
+		return new StringBuilder(beforeWord).reverse().append(infix).append(afterWord).toString();
+	}
+
+	/**
+	 * Returns the codes of the code points of a fragment, backwards if asked for.
+	 */
+	private int[] codesOf(String fragment, boolean backwards) {
+		int[] codes = new int[fragment.codePointCount(0, fragment.length())];
+		int i = 0;
+		for(int offset = 0; offset < fragment.length(); ) {
+			int codePoint = fragment.codePointAt(offset);
+			int code = markovChain.symbolOf(new String(Character.toChars(codePoint)));
+			codes[backwards ? codes.length - 1 - i : i] = code;
+			i++;
+			offset += Character.charCount(codePoint);
+		}
+		return codes;
+	}
+
+	/**
+	 * Lists the most probable words within the given bounds that can follow a
+	 * seed, most probable first. The words are searched for as they are asked
+	 * for, so listing the first few of a large limit is as fast as listing a
+	 * few. Known words, see setKnownWords(), are left out.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the words.
+	 * @param generateWhitespace a boolean that states if the words should end
+	 * with their whitespace, in which case it counts towards their length.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @param limit the most words to list.
+	 * @return an Iterator over the words as Strings, which also tells the
+	 * probability of each.
+	 */
+	public WordEnumerator enumerate(String seed, boolean generateWhitespace, int minLength, int maxLength,
+			int limit) {
+		return new WordEnumerator(getSampler(generateWhitespace, minLength, maxLength), seedNode(seed),
+				limit, knownWords);
+	}
+
+	/**
+	 * Tells if any word within the given bounds can be generated from a seed.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the word.
+	 * @param generateWhitespace a boolean that states if the whitespace ending the
+	 * word counts towards its length.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @return true if a word within the bounds can be generated.
+	 */
+	public boolean canGenerate(String seed, boolean generateWhitespace, int minLength, int maxLength) {
+		return probabilityInBounds(seed, generateWhitespace, minLength, maxLength) > 0.0;
+	}
+
+	/**
+	 * Returns the probability that a word generated from a seed without length
+	 * bounds, like generateWord(String,boolean) does, is within the given
+	 * bounds. That is the share of such words that would be kept if words out
+	 * of bounds were retried.
+	 *
+	 * @param seed a String that acts as seed for the beginning of the word.
+	 * @param generateWhitespace a boolean that states if the whitespace ending the
+	 * word counts towards its length.
+	 * @param minLength the minimum allowed word length.
+	 * @param maxLength the maximum allowed word length.
+	 * @return the probability of a word within the bounds.
+	 */
+	public double probabilityInBounds(String seed, boolean generateWhitespace, int minLength, int maxLength) {
+		return getSampler(generateWhitespace, minLength, maxLength).probability(seedNode(seed));
+	}
+
+	private LengthConstrainedSampler getSampler(boolean generateWhitespace, int minLength, int maxLength) {
+		return getSampler(markovChain, generateWhitespace, minLength, maxLength);
+	}
+
+	/**
+	 * Returns the sampler of the Markov chain or of its backwards chain.
+	 */
+	private LengthConstrainedSampler getSampler(MarkovChain chain, boolean generateWhitespace, int minLength,
+			int maxLength) {
+		Long key = Long.valueOf(((long)minLength << 32) | ((long)maxLength << 2) |
+				(chain == markovChain ? 0 : 2) | (generateWhitespace ? 1 : 0));
+		LengthConstrainedSampler sampler = (LengthConstrainedSampler)samplers.get(key);
+		if(sampler == null) {
+			// Two threads may build the same sampler at once; both get an equal one.
+			sampler = new LengthConstrainedSampler(chain, alphabet.getClass(Alphabet.SEPARATOR),
+					minLength, maxLength, generateWhitespace);
+			if(samplers.size() >= MAX_SAMPLERS) {
+				samplers.clear();
+			}
+			samplers.put(key, sampler);
+		}
+		return sampler;
+	}
+
+	/**
+	 * Returns the node of the Markov chain to start generating from for a seed,
+	 * using the longest end of the seed that is found in the chain.
+	 */
+	private int seedNode(String seed) {
+		List seedList = MarkovChain.stringToList(seed);
+		int[] context = new int[seedList.size()];
+		for(int i = 0; i < context.length; i++) {
+			context[i] = markovChain.symbolOf(seedList.get(i));
+		}
+		return seedNode(context);
+	}
+
+	/**
+	 * Returns the node of the Markov chain to start generating from for a seed
+	 * given as element codes.
+	 */
+	private int seedNode(int[] context) {
+		return seedNode(context, context.length);
+	}
+
+	/**
+	 * Returns the node of the first elements of a context, see seedNode(int[]).
+	 */
+	int seedNode(int[] context, int length) {
+		int node = markovChain.longestContext(context, 0, length);
+		// Every length longer than the context found missed.
+		int found = 0;
+		for(int n = node; n > 0; n = markovChain.getParent(n)) {
+			found++;
+		}
+		for(int missed = Math.min(length, level); missed > found; missed--) {
+			metrics.recordContextMiss(missed);
+		}
+		return node;
+	}
+
+	/**
+	 * Saves the Markov chain to a snapshot file with the separators of the
+	 * alphabet and their frequencies, so that a generator loaded with load()
+	 * seeds words the same way as this one.
+	 *
+	 * @param file the file to save to.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void save(File file) throws IOException {
+		ChainSnapshot.save(markovChain, alphabet, file);
+	}
+
+	/**
+	 * Loads a generator saved by save(), without verifying the checksum of the
+	 * file, so that only the pages of the chain that are used are read.
+	 *
+	 * @param file the file to load.
+	 * @return the loaded generator.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	public static WordGenerator load(File file) throws IOException {
+		return load(file, false);
+	}
+
+	/**
+	 * Loads a generator saved by save(). A chain saved on its own has no
+	 * separators, which are then the line feed and space of the chain, if it has
+	 * them, seeded as often as each other.
+	 *
+	 * @param file the file to load.
+	 * @param verify if the checksum of the file should be verified, which reads
+	 * the whole file.
+	 * @return the loaded generator.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	public static WordGenerator load(File file, boolean verify) throws IOException {
+		WordGenerator generator = ChainSnapshot.loadGenerator(file, verify);
+		Alphabet alphabet = generator.getAlphabet();
+		if(alphabet.getClass(Alphabet.SEPARATOR).isEmpty()) {
+			String[] separators = { "\n", " " };
+			for(int i = 0; i < separators.length; i++) {
+				if(alphabet.setClass(separators[i], Alphabet.SEPARATOR)) {
+					alphabet.addFrequency(generator.getMarkovChain().symbolOf(separators[i]), 1);
+				}
+			}
+		}
+		return generator;
+	}
+
+	/**
+	 * Returns the character classes of the symbols of the Markov chain.
+	 *
+	 * @return the alphabet.
+	 */
+	public Alphabet getAlphabet() {
+		return alphabet;
+	}
+
+	/**
+	 * Returns the Markov chain used for the word generation.
+	 *
+	 * @return the Markov chain.
+	 */
+	public MarkovChain getMarkovChain() {
+		return markovChain;
+	}
+
+	/**
+	 * Returns an estimate of the amount of bytes used by the generator: its
+	 * Markov chain and the samplers it has cached. The samplers are built as
+	 * words of new length bounds are asked for, up to MAX_SAMPLERS at once, so
+	 * the estimate changes as the generator is used.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long estimateBytes() {
+		long size = markovChain.estimateBytes();
+		Iterator it = samplers.values().iterator();
+		while(it.hasNext()) {
+			size += ((LengthConstrainedSampler)it.next()).estimateBytes();
+		}
+		return size;
+	}
+
+	/**
+	 * Sets the words that are never generated by the length bounded methods,
+	 * usually the words of the input so that only new words are generated. A
+	 * generated word that is known is retried, up to MAX_NOVELTY_TRIES times.
+	 * The set must not be changed afterwards.
+	 *
+	 * @param knownWords the words never to generate, or null to allow all words.
+	 */
+	public void setKnownWords(WordSet knownWords) {
+		this.knownWords = knownWords;
+	}
+
+	/**
+	 * Returns the metrics of the words generated so far. They can be published
+	 * through JMX with Metrics.register().
+	 *
+	 * @return the generation metrics.
+	 */
+	public GenerationMetrics getMetrics() {
+		return metrics;
+	}
+
 	public String getAnalyzeInfo() {
 		return markovChain.toString();
 	}
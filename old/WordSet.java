@@ -0,0 +1,220 @@
+/**
+ * The WordSet is a compact set of words, used to tell if a generated word is
+ * new: neither a word of the input nor a word already generated. The characters
+ * of all words are kept in one shared array, and the set only holds the offsets
+ * of the words in it, so a word costs a few bytes more than its characters
+ * instead of the object overhead of a String in a HashSet.
+ *
+ * Lookups first ask a Bloom filter, which is small enough to stay in the
+ * processor cache. Each word sets three bits of the filter, one per hash. Most
+ * generated words are new, and the filter answers those from at most three
+ * bits, stopping at the first one that isn't set, without touching the
+ * characters. Only when the filter says a word may be in the set is it
+ * compared with the stored words.
+ *
+ * A WordSet is not thread safe while words are added, but any amount of threads
+ * can call contains() at once as long as no words are added meanwhile.
+ */
+public class WordSet {
+
+	/**
+	 * The amount of bits of the Bloom filter per slot of the table. At most half
+	 * of the slots are used, so there are at least 16 bits per word, which with
+	 * three hashes gives about 0.5 percent false positives.
+	 */
+	private static final int BLOOM_BITS_PER_SLOT = 8;
+
+	/**
+	 * The characters of all words, each word preceded by its length as two chars.
+	 */
+	private char[] pool = new char[1024];
+
+	/**
+	 * The amount of chars used in the pool.
+	 */
+	private int poolSize;
+
+	/**
+	 * The offset in the pool of the word of each slot plus one, 0 for a free slot.
+	 * The length is a power of two.
+	 */
+	private int[] slots = new int[16];
+
+	/**
+	 * The hash of the word of each slot, kept so that growing doesn't rehash words.
+	 */
+	private int[] slotHashes = new int[16];
+
+	/**
+	 * The bits of the Bloom filter.
+	 */
+	private long[] bloom = new long[16 * BLOOM_BITS_PER_SLOT / 64];
+
+	/**
+	 * The amount of words in the set.
+	 */
+	private int size;
+
+	/**
+	 * Adds a word to the set.
+	 *
+	 * @param word the word to add.
+	 * @return true if the word wasn't in the set before.
+	 */
+	public boolean add(CharSequence word) {
+		int hash = hash(word, 0, word.length());
+		if(mayContain(hash) && find(word, 0, word.length(), hash) != -1) {
+			return false;
+		}
+		if(size + 1 > slots.length >>> 1) {
+			grow();
+		}
+		int length = word.length();
+		if(poolSize + 2 + length > pool.length) {
+			char[] grown = new char[Math.max(pool.length * 2, poolSize + 2 + length)];
+			System.arraycopy(pool, 0, grown, 0, poolSize);
+			pool = grown;
+		}
+		int offset = poolSize;
+		pool[poolSize++] = (char)(length >>> 16);
+		pool[poolSize++] = (char)length;
+		for(int i = 0; i < length; i++) {
+			pool[poolSize++] = word.charAt(i);
+		}
+		insert(offset, hash);
+		setBloom(hash);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Tells if a word is in the set.
+	 *
+	 * @param word the word to look for.
+	 * @return true if the word is in the set.
+	 */
+	public boolean contains(CharSequence word) {
+		return contains(word, 0, word.length());
+	}
+
+	/**
+	 * Tells if a part of a sequence, such as a word at the end of a
+	 * StringBuilder, is in the set, without copying it.
+	 *
+	 * @param word the sequence holding the word to look for.
+	 * @param start the index of the first character of the word.
+	 * @param end the index after the last character of the word.
+	 * @return true if the word is in the set.
+	 */
+	public boolean contains(CharSequence word, int start, int end) {
+		int hash = hash(word, start, end);
+		return mayContain(hash) && find(word, start, end, hash) != -1;
+	}
+
+	/**
+	 * Returns the amount of words in the set.
+	 *
+	 * @return the amount of words.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot of a word, or -1 if it isn't in the set.
+	 */
+	private int find(CharSequence word, int start, int end, int hash) {
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while(slots[slot] != 0) {
+			if(slotHashes[slot] == hash && equalsAt(slots[slot] - 1, word, start, end)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean equalsAt(int offset, CharSequence word, int start, int end) {
+		int length = (pool[offset] << 16) | pool[offset + 1];
+		if(length != end - start) {
+			return false;
+		}
+		offset += 2;
+		for(int i = 0; i < length; i++) {
+			if(pool[offset + i] != word.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void insert(int offset, int hash) {
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while(slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = offset + 1;
+		slotHashes[slot] = hash;
+	}
+
+	/**
+	 * Doubles the table and the Bloom filter, and puts the words in them again.
+	 */
+	private void grow() {
+		int[] oldSlots = slots;
+		int[] oldHashes = slotHashes;
+		slots = new int[oldSlots.length * 2];
+		slotHashes = new int[oldSlots.length * 2];
+		bloom = new long[slots.length * BLOOM_BITS_PER_SLOT / 64];
+		for(int i = 0; i < oldSlots.length; i++) {
+			if(oldSlots[i] != 0) {
+				insert(oldSlots[i] - 1, oldHashes[i]);
+				setBloom(oldHashes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the hash of a word, a 64 bit FNV-1a hash folded to 32 bits.
+	 */
+	private static int hash(CharSequence word, int start, int end) {
+		long hash = 0xCBF29CE484222325L;
+		for(int i = start; i < end; i++) {
+			hash = (hash ^ word.charAt(i)) * 0x100000001B3L;
+		}
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Spreads the bits of a hash, for the first probe of the table.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void setBloom(int hash) {
+		int bits = bloom.length * 64 - 1;
+		int h1 = hash;
+		int h2 = mix(h1) | 1;
+		for(int i = 0; i < 3; i++) {
+			int bit = (h1 + i * h2) & bits;
+			bloom[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	private boolean mayContain(int hash) {
+		int bits = bloom.length * 64 - 1;
+		int h1 = hash;
+		int h2 = mix(h1) | 1;
+		for(int i = 0; i < 3; i++) {
+			int bit = (h1 + i * h2) & bits;
+			if((bloom[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
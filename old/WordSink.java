@@ -0,0 +1,15 @@
+/**
+ * A WordSink receives the words of a batch generated by a WordGenerator. The
+ * words are given in order, one at a time, on the thread that started the batch.
+ */
+public interface WordSink {
+
+	/**
+	 * Receives the next word of a batch.
+	 *
+	 * @param index the index of the word in the batch, starting at 0.
+	 * @param word the generated word, or null if no word within the length bounds
+	 * could follow the seed chosen for it.
+	 */
+	public void accept(int index, String word);
+}
@@ -0,0 +1,353 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The WordWriter writes generated words to a file on a thread of its own, so
+ * that generating the words and writing them to disk overlap. The words are
+ * encoded straight to bytes on the calling thread, translating each line feed
+ * to the line feed of the output while encoding, into direct ByteBuffers taken
+ * from a small pool. Filled buffers are handed to the writer thread through a
+ * bounded ring buffer and return to the pool once written, so when the disk
+ * falls behind, the calling thread waits for a free buffer.
+ *
+ * The output is compressed as gzip if asked for, on the writer thread.
+ *
+ * Like a PrintWriter, a WordWriter doesn't throw on write. An error writing
+ * the file is kept, the words after it are dropped, and it is thrown by
+ * close(). A WordWriter is used by one thread at a time.
+ */
+public class WordWriter {
+
+	/**
+	 * The size of each buffer in bytes, and the amount of buffers.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int BUFFERS = 8;
+
+	/**
+	 * Marks the end of the output in the ring buffer.
+	 */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private FileChannel channel;
+
+	/**
+	 * The line feed of the output, encoded.
+	 */
+	private byte[] lineFeed;
+
+	/**
+	 * If the words are encoded as UTF-8 here, or by the encoder.
+	 */
+	private boolean utf8;
+	private CharsetEncoder encoder;
+
+	/**
+	 * The most bytes a character takes, which are kept free in the current
+	 * buffer before encoding one.
+	 */
+	private int reserve;
+
+	/**
+	 * The filled buffers waiting to be written, and the free buffers.
+	 */
+	private ArrayBlockingQueue filled = new ArrayBlockingQueue(BUFFERS + 1);
+	private ArrayBlockingQueue free = new ArrayBlockingQueue(BUFFERS);
+
+	/**
+	 * The buffer being filled by the calling thread.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The compressor, or null if the output isn't compressed.
+	 */
+	private Deflater deflater;
+	private CRC32 checksum;
+	private ByteBuffer compressed;
+
+	private Thread thread;
+
+	/**
+	 * The first error of the writer thread, or null.
+	 */
+	private volatile IOException failure;
+
+	private long bytes;
+	private boolean closed;
+
+	/**
+	 * Constructs a new WordWriter, creating or emptying its file.
+	 *
+	 * @param file the file to write to.
+	 * @param lineFeedOut the character(s) that replace all line feeds, such as "\r\n".
+	 * @param charset the charset of the output.
+	 * @param gzip if the output is compressed as gzip.
+	 * @throws IOException if the file can't be opened.
+	 */
+	public WordWriter(File file, String lineFeedOut, Charset charset, boolean gzip) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		lineFeed = lineFeedOut.getBytes(charset);
+		utf8 = charset.equals(StandardCharsets.UTF_8);
+		// Characters that can't be encoded are written as '?', like by a FileWriter.
+		encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		reserve = Math.max(lineFeed.length, (int)Math.ceil(encoder.maxBytesPerChar()) * 2);
+		for(int i = 0; i < BUFFERS; i++) {
+			free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		buffer = (ByteBuffer)free.poll();
+		if(gzip) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			checksum = new CRC32();
+			compressed = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "WordWriter " + file.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes a word, or any other text.
+	 *
+	 * @param text the text.
+	 */
+	public void write(CharSequence text) {
+		write(text, 0, text.length());
+	}
+
+	/**
+	 * Writes a part of a word, or any other text.
+	 *
+	 * @param text the text.
+	 * @param start the index of the first character to write.
+	 * @param end the index after the last character to write.
+	 */
+	public void write(CharSequence text, int start, int end) {
+		if(closed) {
+			throw new IllegalStateException("WordWriter closed");
+		}
+		if(!utf8) {
+			encode(text, start, end);
+			return;
+		}
+		for(int i = start; i < end; i++) {
+			if(buffer.remaining() < reserve) {
+				next();
+			}
+			char c = text.charAt(i);
+			if(c == '\n') {
+				buffer.put(lineFeed);
+			} else if(c < 0x80) {
+				buffer.put((byte)c);
+			} else if(c < 0x800) {
+				buffer.put((byte)(0xC0 | c >> 6));
+				buffer.put((byte)(0x80 | c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buffer.put((byte)(0xF0 | codePoint >> 18));
+				buffer.put((byte)(0x80 | codePoint >> 12 & 0x3F));
+				buffer.put((byte)(0x80 | codePoint >> 6 & 0x3F));
+				buffer.put((byte)(0x80 | codePoint & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				buffer.put((byte)'?');
+			} else {
+				buffer.put((byte)(0xE0 | c >> 12));
+				buffer.put((byte)(0x80 | c >> 6 & 0x3F));
+				buffer.put((byte)(0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Writes text with the encoder of the charset, line by line.
+	 */
+	private void encode(CharSequence text, int start, int end) {
+		while(start < end) {
+			int lineEnd = start;
+			while(lineEnd < end && text.charAt(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			CharBuffer chars = CharBuffer.wrap(text, start, lineEnd);
+			while(encoder.encode(chars, buffer, true).isOverflow()) {
+				next();
+			}
+			while(encoder.flush(buffer).isOverflow()) {
+				next();
+			}
+			encoder.reset();
+			if(lineEnd < end) {
+				if(buffer.remaining() < lineFeed.length) {
+					next();
+				}
+				buffer.put(lineFeed);
+			}
+			start = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Hands the current buffer to the writer thread and takes a free one,
+	 * waiting for one to be written if none is free.
+	 */
+	private void next() {
+		buffer.flip();
+		bytes += buffer.remaining();
+		try {
+			filled.put(buffer);
+			buffer = (ByteBuffer)free.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing");
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the filled buffers until the end is reached, on the writer thread.
+	 * After an error the buffers are still taken and returned to the pool, so
+	 * that the calling thread never waits for a free one in vain.
+	 */
+	private void drain() {
+		try {
+			if(deflater != null) {
+				writeGzipHeader();
+			}
+			ByteBuffer next;
+			while((next = (ByteBuffer)filled.take()) != END) {
+				if(failure == null) {
+					try {
+						if(deflater == null) {
+							writeFully(next);
+						} else {
+							deflate(next);
+						}
+					} catch (IOException ioe) {
+						failure = ioe;
+					}
+				}
+				free.put(next);
+			}
+			if(failure == null && deflater != null) {
+				writeGzipTrailer();
+			}
+		} catch (IOException ioe) {
+			failure = ioe;
+		} catch (InterruptedException ie) {
+			failure = new InterruptedIOException("Interrupted while writing");
+		} finally {
+			if(deflater != null) {
+				deflater.end();
+			}
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				if(failure == null) {
+					failure = ioe;
+				}
+			}
+		}
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while(bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Compresses a filled buffer and writes the compressed bytes.
+	 */
+	private void deflate(ByteBuffer input) throws IOException {
+		checksum.update(input.duplicate());
+		deflater.setInput(input);
+		while(!deflater.needsInput()) {
+			compressed.clear();
+			deflater.deflate(compressed);
+			compressed.flip();
+			writeFully(compressed);
+		}
+	}
+
+	/**
+	 * Writes the gzip header of RFC 1952, without a name or a time.
+	 */
+	private void writeGzipHeader() throws IOException {
+		byte[] header = { 0x1F, (byte)0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xFF };
+		writeFully(ByteBuffer.wrap(header));
+	}
+
+	/**
+	 * Compresses what the deflater holds, and writes the gzip trailer of the
+	 * checksum and the size of the input.
+	 */
+	private void writeGzipTrailer() throws IOException {
+		deflater.finish();
+		while(!deflater.finished()) {
+			compressed.clear();
+			deflater.deflate(compressed);
+			compressed.flip();
+			writeFully(compressed);
+		}
+		ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		trailer.putInt((int)checksum.getValue());
+		trailer.putInt((int)deflater.getBytesRead());
+		trailer.flip();
+		writeFully(trailer);
+	}
+
+	/**
+	 * Writes what is left, waits for the writer thread to finish and closes
+	 * the file.
+	 *
+	 * @throws IOException if the file couldn't be written.
+	 */
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		buffer.flip();
+		bytes += buffer.remaining();
+		try {
+			filled.put(buffer);
+			filled.put(END);
+			thread.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing");
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns the amount of bytes written, before compression.
+	 *
+	 * @return the amount of bytes.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}